@@ -5,7 +5,9 @@ import org.antlr.v4.runtime.tree.Tree;
 import org.antlr.v4.runtime.tree.Trees;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
+import research.diffsearch.pipeline.base.CancellationToken;
 import research.diffsearch.tree.TreeUtils;
+import research.diffsearch.util.GrammarTable;
 
 import java.util.*;
 
@@ -19,40 +21,59 @@ import java.util.*;
  * multiple possible matches. This exploration is implemented as work list-based
  * algorithm that maintains each possible match as a NodeMap.
  * There may be multiple matches, but the algorithm stops as soon as one found.
+ * The exploration can be stopped early with a CancellationToken, then no match is reported.
  */
 public class Matching {
 
     private Tree query;
     private Parser queryParser;
+    private final GrammarTable queryGrammar;
+    // the parts of the query that do not depend on the change, computed once for all changes
+    private final Tree queryOld;
+    private final Tree queryNew;
+    private final List<Tree> nodesToMatch;
 
     public Matching(Tree query, Parser queryParser) {
         this.query = query;
         this.queryParser = queryParser;
+        this.queryGrammar = GrammarTable.of(queryParser);
+
+        NodeUtil queryNodeUtil = new NodeUtil(queryParser, queryParser);
+        this.queryOld = queryNodeUtil.extractOldSubtree(query);
+        this.queryNew = queryNodeUtil.extractNewSubtree(query);
+        List<Tree> nodes = computeNodes(queryOld);
+        nodes.addAll(computeNodes(queryNew));
+        this.nodesToMatch = Collections.unmodifiableList(nodes);
     }
 
     public boolean isMatch(Tree change, Parser parser) {
+        return isMatch(change, parser, CancellationToken.NONE);
+    }
+
+    /**
+     * Like {@link #isMatch(Tree, Parser)}, but returns false as soon as the token is cancelled.
+     */
+    public boolean isMatch(Tree change, Parser parser, CancellationToken cancellationToken) {
         NodeUtil nodeUtil = new NodeUtil(queryParser, parser);
 
         // initialize work list with node pairs that match the query's old+new subtrees
         LinkedList<NodeMap> workList = new LinkedList<>();
-        Tree queryOld = nodeUtil.extractOldSubtree(query);
-        Tree queryNew = nodeUtil.extractNewSubtree(query);
         Tree changeOld = nodeUtil.extractOldSubtree(change);
         Tree changeNew = nodeUtil.extractNewSubtree(change);
-        for (Pair<Tree, Tree> nodePair : subtreeCandidates(queryOld, queryNew, changeOld, changeNew, nodeUtil)) {
+        for (Pair<Tree, Tree> nodePair : subtreeCandidates(queryOld, queryNew, changeOld, changeNew, nodeUtil, cancellationToken)) {
             NodeMap m = new NodeMap(queryOld, nodePair.getLeft(), queryNew, nodePair.getRight(), nodeUtil);
             workList.add(m);
         }
 
-        List<Tree> nodesToMatch = computeNodes(queryOld);
-        nodesToMatch.addAll(computeNodes(queryNew));
-
         if (quickPruning(queryOld, queryNew, changeOld, changeNew, nodesToMatch, nodeUtil)) {
             return false;
         }
 
         // explore possible mapping until matching mapping found
         while (!workList.isEmpty()) {
+            if (cancellationToken.isCancelled()) {
+                return false;
+            }
             NodeMap m = workList.removeLast();
 
             Tree unmatchedQueryNode = m.nextUnmatchedNode(nodesToMatch);
@@ -103,20 +124,21 @@ public class Matching {
         changeNodes.addAll(computeNodes(changeNew));
         Set<String> leaves = new HashSet<>();
         for (Tree n : changeNodes) {
-            var nodeText = Trees.getNodeText(n, Arrays.asList(queryParser.getRuleNames()));
-            if (n.getChildCount() == 0 &&
-                Arrays.stream(queryParser.getRuleNames()).noneMatch(nodeText::equals)) {
-                leaves.add(nodeText);
+            if (n.getChildCount() == 0) {
+                var nodeText = Trees.getNodeText(n, queryGrammar.getRuleNames());
+                if (!queryGrammar.isRule(nodeText)) {
+                    leaves.add(nodeText);
+                }
             }
         }
 
         // if any of the leaves to match don't appear in the change, certainly no match
         for (Tree n : nodesToMatch) {
-            var nodeText = Trees.getNodeText(n, Arrays.asList(queryParser.getRuleNames()));
-            if (n.getChildCount() == 0
-                && nodeUtil.getKind(n) == NodeUtil.Kind.NORMAL
-                && Arrays.stream(queryParser.getRuleNames()).noneMatch(nodeText::equals)) {
-                
+            if (n.getChildCount() != 0) {
+                continue;
+            }
+            var nodeText = Trees.getNodeText(n, queryGrammar.getRuleNames());
+            if (nodeUtil.getKind(n) == NodeUtil.Kind.NORMAL && !queryGrammar.isRule(nodeText)) {
                 if (!leaves.contains(nodeText)) {
                     return true;
                 }
@@ -177,7 +199,7 @@ public class Matching {
         result.add(t);
         for (int i = 0; i < t.getChildCount(); i++) {
             Tree c = t.getChild(i);
-            if (TreeUtils.getCompleteNodeText(c, Arrays.asList(queryParser.getRuleNames())).equals("<...>"))
+            if (TreeUtils.getCompleteNodeText(c, queryGrammar.getRuleNames()).equals("<...>"))
                 continue;
             result.addAll(computeNodes(c));
         }
@@ -186,9 +208,13 @@ public class Matching {
 
     private List<ImmutablePair<Tree, Tree>> subtreeCandidates(Tree queryOld, Tree queryNew,
                                                               Tree treeOld, Tree treeNew,
-                                                              NodeUtil nodeUtil) {
+                                                              NodeUtil nodeUtil,
+                                                              CancellationToken cancellationToken) {
         List<ImmutablePair<Tree, Tree>> result = new ArrayList<>();
         for (Tree nOld : computeNodes(treeOld)) {
+            if (cancellationToken.isCancelled()) {
+                break;
+            }
             if (nodeUtil.isMatchingNormalNode(queryOld, nOld) | nodeUtil.isMatchingEmpty(queryOld, nOld)) {
                 for (Tree nNew : computeNodes(treeNew)) {
                     if (nodeUtil.isMatchingNormalNode(queryNew, nNew) | nodeUtil.isMatchingEmpty(queryNew, nNew))
@@ -4,44 +4,60 @@ import org.antlr.v4.runtime.Parser;
 import org.antlr.v4.runtime.tree.Tree;
 import org.antlr.v4.runtime.tree.Trees;
 import research.diffsearch.tree.TreeUtils;
+import research.diffsearch.util.GrammarTable;
+import research.diffsearch.util.GrammarTable.Placeholder;
 
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Utility methods to handle parse tree nodes.
- * Some of them are specific to the grammar and/or language.
+ * Some of them are specific to the grammar and/or language, see {@link GrammarTable}.
  */
 public class NodeUtil {
 
     private Parser queryParser;
     private Parser changeParser;
+    private final GrammarTable changeGrammar;
+    private final List<String> changeRuleNames;
+    // the kind of a node only depends on its subtree, so it is computed once per node
+    private final Map<Tree, Kind> kinds = new IdentityHashMap<>();
 
     public NodeUtil(Parser queryParser, Parser changeParser) {
         this.queryParser = queryParser;
         this.changeParser = changeParser;
+        this.changeGrammar = GrammarTable.of(changeParser);
+        this.changeRuleNames = changeGrammar.getRuleNames();
     }
 
-    // TODO: get this from the grammar or some other place
-    private static Set<String> placeholderNames = new HashSet<>(Arrays.asList("LT", "ID", "binOP", "OP", "unOP", "EXPR"));
-
     public enum Kind {
         UNNAMED_PLACEHOLDER, NAMED_PLACEHOLDER, NORMAL, WILDCARD, EMPTY
     }
 
     public Kind getKind(Tree t) {
-        String text = TreeUtils.getCompleteNodeText(t, Arrays.asList(changeParser.getRuleNames()));
+        var kind = kinds.get(t);
+        if (kind == null) {
+            kind = computeKind(t);
+            kinds.put(t, kind);
+        }
+        return kind;
+    }
+
+    private Kind computeKind(Tree t) {
+        String text = TreeUtils.getCompleteNodeText(t, changeRuleNames);
         if (text.equals("<...>")) {
             return Kind.WILDCARD;
         } else if (t.getChildCount() == 0 && text.equals("_")) {
             return Kind.EMPTY;
         } else if (t.getChildCount() == 0) {
-            if (placeholderNames.contains(text))
+            if (Placeholder.fromLabel(text) != null)
                 return Kind.UNNAMED_PLACEHOLDER;
-            for (String n : placeholderNames) {
-                if (text.startsWith(n) && text.contains("<") && text.endsWith(">")) {
-                    return Kind.NAMED_PLACEHOLDER;
+            if (text.contains("<") && text.endsWith(">")) {
+                for (Placeholder placeholder : Placeholder.values()) {
+                    if (text.startsWith(placeholder.getLabel())) {
+                        return Kind.NAMED_PLACEHOLDER;
+                    }
                 }
             }
         }
@@ -67,37 +83,29 @@ public class NodeUtil {
     }
 
     public boolean isMatchingPlaceholder(Tree k, Tree v) {
-        // Note: the following checks are brittle w.r.t. changes of the grammar and may be incomplete
         String kText = Trees.getNodeText(k, queryParser);
-        String vText = Trees.getNodeText(v, changeParser);
-        String vParentText = Trees.getNodeText(v.getParent(), changeParser);
-
-        if (kText.equals("LT") || kText.matches("LT<[0-9]+>")) {
-            return v.getParent() != null && (vParentText.equals("literal") || vParentText.equals("atom"));
-        } else if (kText.equals("ID") || kText.matches("ID<[0-9]+>")) {
-            return v.getChildCount() == 0;
-        } else if (kText.equals("binOP") || kText.matches("binOP<[0-9]+>")) {
-            // return vText.equals("binary_operators");
-            return v.getParent() != null && (vParentText.equals("binary_operators")
-                                             || vParentText.equals("binOperator")
-                                             || vParentText.equals("bin_op"));
-        } else if (kText.equals("OP") || kText.matches("OP<[0-9]+>")) {
-            return vParentText.equals("binary_operators")
-                   || vParentText.equals("assign_operators")
-                   || vParentText.equals("assignmentOperator")
-                   || vParentText.equals("expr_stmt");
-        } else if (kText.equals("unOP") || kText.matches("unOP<[0-9]+>")) {
-            return vParentText.equals("unary_prefix_operators")
-                   || vParentText.equals("unary_postfix_operators")
-				   || vParentText.equals("singleExpression");
-        } else if (kText.equals("EXPR") || kText.matches("EXPR<[0-9]+>")) {
-            return vText.equals("expression") || vText.equals("expr")
-                   || vParentText.equals("expression")//v.getChildCount() == 0;
-                   || vParentText.equals("expr")
-                   || vParentText.equals("methodCall")
-                   || vParentText.equals("singleExpression");
+        Placeholder placeholder = Placeholder.parse(kText);
+        if (placeholder == null) {
+            throw new IllegalArgumentException("Unexpected node label " + kText);
+        }
+        int parentRule = changeGrammar.getRuleIndex(v.getParent());
+
+        switch (placeholder) {
+            case LT:
+                return changeGrammar.hasFlag(parentRule, GrammarTable.LITERAL_PARENT);
+            case ID:
+                return v.getChildCount() == 0;
+            case BIN_OP:
+                return changeGrammar.hasFlag(parentRule, GrammarTable.BINARY_OPERATOR_PARENT);
+            case OP:
+                return changeGrammar.hasFlag(parentRule, GrammarTable.OPERATOR_PARENT);
+            case UN_OP:
+                return changeGrammar.hasFlag(parentRule, GrammarTable.UNARY_OPERATOR_PARENT);
+            case EXPR:
+                return changeGrammar.hasFlag(changeGrammar.getRuleIndex(v), GrammarTable.EXPRESSION)
+                       || changeGrammar.hasFlag(parentRule, GrammarTable.EXPRESSION_PARENT);
         }
-        throw new IllegalArgumentException("Unexpected node label " + kText);
+        throw new IllegalStateException();
     }
 
     public boolean isMatchingEmpty(Tree k, Tree v) {
@@ -71,6 +71,41 @@ public class Config {
      */
     public static int threadCount = Runtime.getRuntime().availableProcessors() - 4;
 
+    /**
+     * Maximum number of inputs that a parallel pipeline holds at the same time. If this number is
+     * reached, reading further inputs blocks. Keeps the memory usage constant for large corpora.
+     */
+    public static int maxInFlight = 1024;
+
+    /**
+     * Number of inputs that I/O-bound stages, such as cloning repositories or extracting
+     * commit logs, process at the same time.
+     */
+    public static int ioConcurrency = 32;
+
+    /**
+     * Number of feature vectors that are counted and written to a file at once.
+     * Must be smaller than {@link #maxInFlight}.
+     */
+    public static int writeBatchSize = 512;
+
+    /**
+     * If true, the feature extraction continues after the last checkpoint of an interrupted run
+     * instead of starting over.
+     */
+    public static boolean RESUME_EXTRACTION = false;
+
+    /**
+     * Number of code changes between two checkpoints of the feature extraction.
+     */
+    public static int checkpointInterval = 50_000;
+
+    /**
+     * Number of shards the corpus is split into by the feature extraction. Each shard is extracted by its
+     * own worker to its own file, the files are concatenated at the end. 1 extracts the corpus as a whole.
+     */
+    public static int extractionShards = 1;
+
     /**
      * The path of the batch file that will processed in the {@link Mode#BATCH}-mode.
      */
@@ -91,6 +126,18 @@ public class Config {
      */
     public static int k = 5000;
 
+    /**
+     * Maximum number of results of a query. Matching stops as soon as this number of results
+     * among the best ranked candidate changes is found.
+     */
+    public static int resultLimit = Integer.MAX_VALUE;
+
+    /**
+     * Maximum number of compiled queries that are kept in memory, see
+     * {@link research.diffsearch.pipeline.QueryCache}. 0 disables the cache.
+     */
+    public static int queryCacheSize = 256;
+
     /**
      * Maximum number of candidate changes to consider. Only relevant for range search.
      */
@@ -113,6 +160,24 @@ public class Config {
      */
     public static int FEATURE_MAX_COUNT = 1;
 
+    /**
+     * Seed of the hash that maps features to the indices of their sections, see
+     * {@link research.diffsearch.pipeline.feature.FeatureHash}. The corpus and the queries must be extracted
+     * with the same seed.
+     */
+    public static int featureHashSeed = 0;
+
+    /**
+     * Number of code changes of the corpus that the collision analysis extracts.
+     */
+    public static int collisionSampleSize = 10_000;
+
+    /**
+     * Share of the distinct features that may collide with another feature in sections with the section
+     * lengths suggested by the collision analysis.
+     */
+    public static double targetCollisionRate = 0.05;
+
     /**
      * Port of the web server for each programming language.
      */
@@ -120,6 +185,11 @@ public class Config {
 
     public static boolean LOW_RAM = false;
 
+    /**
+     * If the pipelines should record metrics of each stage, such as latencies and inputs in flight.
+     */
+    public static boolean PIPELINE_METRICS = false;
+
     public static final int port_web_java = 8843;
     public static final int port_web_python = 8844;
     public static final int port_web_javascript = 8845;
@@ -173,6 +243,40 @@ public class Config {
      */
     public static boolean TFIDF = false;
 
+    /**
+     * If true, binary feature vectors are stored bit-packed and searched with the Hamming distance in a
+     * binary FAISS index. Only used if neither count vectors nor tf-idf weights are used. Query vectors
+     * are not multiplied, so every feature has the same weight. Change requires reindexing.
+     */
+    public static boolean BINARY_VECTORS = false;
+
+    /**
+     * @return true if the feature vectors are stored and searched bit-packed.
+     */
+    public static boolean useBinaryVectors() {
+        return BINARY_VECTORS && !USE_COUNT_VECTORS && !TFIDF;
+    }
+
+    /**
+     * If true, the nearest neighbor search only returns the ids of the candidate changes and they are read
+     * from the corpus store. Decided once when the python server is started.
+     */
+    public static boolean USE_CORPUS_STORE = false;
+
+    /**
+     * If true, the feature vectors of the corpus are written as CSV text instead of a binary file of
+     * floats, see {@link research.diffsearch.pipeline.feature.FeatureVectorFile}. The scalability
+     * evaluation reads CSV vectors. Not used for bit-packed vectors. Change requires reindexing.
+     */
+    public static boolean CSV_VECTORS = false;
+
+    /**
+     * @return true if the feature vectors of the corpus are stored as binary floats.
+     */
+    public static boolean useFloatVectors() {
+        return !useBinaryVectors() && !CSV_VECTORS;
+    }
+
     /**
      * After this number of seconds, the matching process gets cancelled and its assumed that a
      * candidate is not a match.
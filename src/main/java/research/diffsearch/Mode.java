@@ -29,6 +29,11 @@ public class Mode {
      * If true, detailed feature vector analysis and parse tree will be printed.
      */
     public static boolean ANALYSIS_MODE = false;
+    /**
+     * If true, DiffSearch extracts a sample of the corpus and reports the hash collisions in each section of
+     * the feature vectors.
+     */
+    public static boolean COLLISION_ANALYSIS = false;
     public static boolean PARSE_MODE = false;
     public static boolean DATASET_CREATION = false;
     /**
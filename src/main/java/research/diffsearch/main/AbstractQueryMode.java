@@ -10,6 +10,7 @@ import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.apache.commons.lang3.tuple.Pair;
 import research.diffsearch.tree.JavaTree;
 import research.diffsearch.tree.TreeUtils;
+import research.diffsearch.util.GrammarTable;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -78,39 +79,16 @@ public class AbstractQueryMode extends App {
     }
 
     public static String isPossibilePlaceholder(Tree v, Parser changeParser) {
-        String vText = Trees.getNodeText(v, changeParser);
-        String vParentText = Trees.getNodeText(v.getParent(), changeParser);
-
         if (v.getChildCount() != 0) {
             return "";
         }
 
-        if (vParentText.contains("iteral") || vParentText.equals("atom")) {
-            return "LT";
-        } else if (vParentText.equals("identifier")) {
-            return "ID";
-        } else if (vParentText.equals("binary_operators")
-                || vParentText.equals("binOperator")
-                || vParentText.equals("bin_op")) {
-            return "binOP";
-        } else if (vParentText.equals("assign_operators")
-                || vParentText.equals("assignmentOperator")
-                || vParentText.equals("expr_stmt")) {
-            return "OP";
-        } else if (vParentText.equals("unary_prefix_operators")
-                || vParentText.equals("unary_postfix_operators")) {
-            return "unOP";
-        } /*else if (vParentText.equals("expression")//v.getChildCount() == 0;
-                || vParentText.equals("methodCall")
-                || vParentText.equals("singleExpression")) {
-            return "EXPR";
-        }*/ else {
-            if (v.getChildCount() == 0) {
-                return vText;
-            } else {
-                return "";
-            }
+        var grammarTable = GrammarTable.of(changeParser);
+        var placeholder = grammarTable.getLeafPlaceholder(grammarTable.getRuleIndex(v.getParent()));
+        if (placeholder != null) {
+            return placeholder.getLabel();
         }
+        return Trees.getNodeText(v, changeParser);
     }
 
     private static List<Tree> computeNodes(Tree t) {
@@ -8,6 +8,8 @@ import org.slf4j.LoggerFactory;
 import research.diffsearch.Config;
 import research.diffsearch.Mode;
 import research.diffsearch.pipeline.EffectivenessPipeline;
+import research.diffsearch.pipeline.base.PipelineMetrics;
+import research.diffsearch.pipeline.base.PipelineRuntime;
 import research.diffsearch.server.PythonRunner;
 import research.diffsearch.tree.*;
 import research.diffsearch.util.CommandLineUtil;
@@ -40,6 +42,8 @@ public abstract class App implements Runnable, Closeable {
         CommandLineUtil.parseArgs(args);
         logger.info("DiffSearch {} for {}", Config.DIFFSEARCH_VERSION, Config.PROGRAMMING_LANGUAGE.toString());
         logger.debug("Using {} threads", Config.threadCount);
+        PipelineRuntime.ensureParallelism(Config.threadCount);
+        PipelineMetrics.setEnabled(Config.PIPELINE_METRICS);
         if (Config.LOW_RAM) {
             logger.info("DiffSearch in low ram mode.");
         }
@@ -52,6 +56,9 @@ public abstract class App implements Runnable, Closeable {
             // after execution
             app.stopPythonServer();
             app.close();
+            if (PipelineMetrics.isEnabled()) {
+                logger.info(PipelineMetrics.report());
+            }
         } else {
             logger.error("No DiffSearch mode selected.");
         }
@@ -73,6 +80,8 @@ public abstract class App implements Runnable, Closeable {
             app = new BatchMode();
         } else if (Mode.ANALYSIS_MODE) {
             app = new AnalysisMode();
+        } else if (Mode.COLLISION_ANALYSIS) {
+            app = new CollisionAnalysisMode();
         } else if (Mode.PARSE_MODE) {
             app = new ParseMode();
         } else if (Mode.EFFECTIVENESS) {
@@ -108,6 +117,8 @@ public abstract class App implements Runnable, Closeable {
      * Starts python server for nearest neighbor search.
      */
     public void startPythonServer() {
+        // the python server and the online pipeline must agree on where the candidates are read from
+        Config.USE_CORPUS_STORE = FilePathUtils.getCorpusStore(Config.PROGRAMMING_LANGUAGE) != null;
         if (!Config.ONLY_JAVA) {
             try {
                 /*
@@ -122,6 +133,9 @@ public abstract class App implements Runnable, Closeable {
                  * - tfidf: if tfidf weights are used
                  * - path to code changes
                  * - path to properties of the code changes
+                 * - low_ram: if the trees are not loaded
+                 * - binary: if the index contains bit-packed vectors
+                 * - corpus store: if java reads the candidate changes from the corpus store by their ids
                  */
                 pythonRunner = new PythonRunner(Config.NEAREST_NEIGHBOR_SEARCH_PY,
                         FilePathUtils.getIndexFilePath(Config.PROGRAMMING_LANGUAGE),
@@ -134,7 +148,9 @@ public abstract class App implements Runnable, Closeable {
                         Boolean.toString(Config.TFIDF),
                         FilePathUtils.getChangesJsonFilePath(Config.PROGRAMMING_LANGUAGE),
                         FilePathUtils.getTreesFilePath(Config.PROGRAMMING_LANGUAGE),
-                        Boolean.toString(Config.LOW_RAM));
+                        Boolean.toString(Config.LOW_RAM),
+                        Boolean.toString(Config.useBinaryVectors()),
+                        Boolean.toString(Config.USE_CORPUS_STORE));
 
                 pythonRunner.runAndWaitUntil(input -> input.toLowerCase().contains("server started"));
 
@@ -200,6 +216,9 @@ public abstract class App implements Runnable, Closeable {
             }
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
+        } finally {
+            // threads of all pipelines
+            PipelineRuntime.shutdown();
         }
     }
 
@@ -0,0 +1,95 @@
+package research.diffsearch.main;
+
+import com.google.common.collect.Iterables;
+import org.antlr.v4.runtime.tree.Tree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import research.diffsearch.Config;
+import research.diffsearch.pipeline.base.CodeChange;
+import research.diffsearch.pipeline.base.Pipeline;
+import research.diffsearch.pipeline.feature.CollisionAnalysis;
+import research.diffsearch.pipeline.feature.FeatureExtractionPipeline;
+import research.diffsearch.pipeline.feature.FeatureVector;
+import research.diffsearch.tree.TreeFactory;
+import research.diffsearch.util.ProgressWatcher;
+
+import java.util.ArrayList;
+
+import static research.diffsearch.pipeline.feature.FeatureExtractionPipeline.getDefaultFeatureExtractionPipeline;
+import static research.diffsearch.util.FilePathUtils.*;
+
+/**
+ * Extracts the features of a sample of the corpus and reports the hash collisions in each section of the
+ * feature vectors. Suggests a length for each feature extractor, so that the share of colliding features
+ * is about {@link Config#targetCollisionRate}.
+ * <p>
+ * Usage: diffsearch -ca [sample size]
+ *
+ * @author Paul Bredl
+ */
+public class CollisionAnalysisMode extends App {
+
+    private static final Logger logger = LoggerFactory.getLogger(CollisionAnalysisMode.class);
+
+    @Override
+    public void run() {
+        var featureExtractionPipeline = getDefaultFeatureExtractionPipeline(false);
+        featureExtractionPipeline.setRecordFeatures(true);
+
+        var changesPath = getChangesJsonFilePath(Config.PROGRAMMING_LANGUAGE);
+        int sampleSize = Math.min(Config.collisionSampleSize, getNumberOfCodeChanges(Config.PROGRAMMING_LANGUAGE));
+        logger.info("Analysing the collisions of {} code changes with hash seed {}.",
+                sampleSize, Config.featureHashSeed);
+
+        var collisionAnalysis = new CollisionAnalysis();
+        Pipeline.<CodeChange, Tree>from(codeChange ->
+                        TreeFactory.getTreeFromCodeChange(codeChange, Config.PROGRAMMING_LANGUAGE))
+                .connect(featureExtractionPipeline)
+                .parallelUntilHere(Config.threadCount, Config.maxInFlight)
+                .connect(new ProgressWatcher<>("Collision analysis"))
+                .connect(collisionAnalysis)
+                .connect(FeatureVector::clear)
+                .executeIgnoreResults(Iterables.limit(getCodeChanges(changesPath,
+                                Config.LOW_RAM ? null : getTreesFilePath(Config.PROGRAMMING_LANGUAGE)), sampleSize),
+                        sampleSize, Config.maxInFlight);
+
+        for (var sectionStatistics : collisionAnalysis.getSectionStatistics()) {
+            logger.info("{}, suggested length {}", sectionStatistics,
+                    sectionStatistics.getSuggestedLength(Config.targetCollisionRate));
+        }
+        logger.info("Suggested feature extractors: -extractors \"{}\"",
+                getSuggestedExtractors(featureExtractionPipeline, collisionAnalysis, Config.targetCollisionRate));
+    }
+
+    /**
+     * Scales the length of each extractor so that its section with the most collisions reaches the target
+     * rate. The sections of an extractor keep their proportions.
+     *
+     * @return the definitions of {@link Config#featureExtractors} with the suggested lengths.
+     */
+    static String getSuggestedExtractors(FeatureExtractionPipeline<?> featureExtractionPipeline,
+                                         CollisionAnalysis collisionAnalysis,
+                                         double targetCollisionRate) {
+        var definitions = Config.featureExtractors.split(";");
+        var extractors = featureExtractionPipeline.getFeatureExtractors();
+        var suggestedDefinitions = new ArrayList<String>();
+
+        int startPosition = 0;
+        for (int i = 0; i < extractors.size(); i++) {
+            int length = extractors.get(i).getFeatureVectorSectionLength();
+
+            double scale = 0;
+            for (var sectionStatistics : collisionAnalysis.getSectionStatistics(startPosition,
+                    startPosition + length)) {
+                scale = Math.max(scale, sectionStatistics.getSuggestedLength(targetCollisionRate)
+                                        / (double) sectionStatistics.getLength());
+            }
+            // multiples of 8 fit bit-packed vectors
+            int suggestedLength = scale == 0 ? length : Math.max(8, (int) Math.ceil(length * scale / 8) * 8);
+
+            suggestedDefinitions.add(definitions[i].split(":")[0].trim() + ":" + suggestedLength);
+            startPosition += length;
+        }
+        return String.join(";", suggestedDefinitions);
+    }
+}
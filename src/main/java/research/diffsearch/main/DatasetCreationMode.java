@@ -1,9 +1,13 @@
 package research.diffsearch.main;
 
+import com.google.common.hash.HashCode;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import research.diffsearch.Config;
 import research.diffsearch.pipeline.base.Pipeline;
+import research.diffsearch.pipeline.extraction.ChangeDeduplicator;
 import research.diffsearch.pipeline.extraction.ChangeExtractor;
 import research.diffsearch.pipeline.extraction.GitDiffExtractor;
 import research.diffsearch.util.ProgressWatcher;
@@ -30,33 +34,60 @@ public class DatasetCreationMode extends App {
 
         logger.info("Extracting commit logs...");
         new GitDiffExtractor(absPath.toString(), Config.PROGRAMMING_LANGUAGE)
-                .parallelUntilHere(Config.threadCount)
+                .parallelVirtual(Config.ioConcurrency)
                 .connect(new ProgressWatcher<>("Extracting commit logs"))
                 .executeIgnoreResults(List.of(Objects.requireNonNull(
                         absPath.toFile().listFiles(File::isDirectory))));
 
-        Pipeline.<File, File>from(file -> new ChangeExtractor(new File(Config.repositoryPath), Config.PROGRAMMING_LANGUAGE)
+        // forks and vendored copies contain the same code changes, only the first one is parsed and stored
+        var deduplicator = new ChangeDeduplicator();
+        Pipeline.<File, File>from(file -> new ChangeExtractor(new File(Config.repositoryPath),
+                        Config.PROGRAMMING_LANGUAGE, deduplicator)
                         .extractCodeChangesToFile(file))
                 //.parallelUntilHere(Config.threadCount)
                 .connect(new ProgressWatcher<>("Extracting code changes"))
                 .executeIgnoreResults(listFilesOfDirectory(Config.repositoryPath, ".patch"));
         logger.info("Finished extraction");
 
+        // copies that could not be parsed become occurrences of a copy that was stored
+        for (File f : listFilesOfDirectory(Config.repositoryPath, ".ccfailed")) {
+            deduplicator.addFailedOccurrences(f.getAbsolutePath());
+            deleteQuietly(f);
+        }
+
         var outputFile = new File(getChangesJsonFilePath(Config.PROGRAMMING_LANGUAGE));
 
         deleteQuietly(outputFile);
         deleteQuietly(new File(getTreesFilePath(Config.PROGRAMMING_LANGUAGE)));
+        deleteQuietly(new File(getOccurrencesFilePath(Config.PROGRAMMING_LANGUAGE)));
         logger.info("Saving code changes...");
 
         try (var outputWriter = new BufferedWriter(new FileWriter(outputFile, true))) {
 
             var treeWriter = new BufferedWriter(new FileWriter(getTreesFilePath(Config.PROGRAMMING_LANGUAGE)));
+            var occurrencesWriter = new BufferedWriter(
+                    new FileWriter(getOccurrencesFilePath(Config.PROGRAMMING_LANGUAGE)));
+            var gson = new Gson();
+            int index = 0;
 
             for (File f : listFilesOfDirectory(Config.repositoryPath, ".cc")) {
                 for (String line : getAllLines(f.getAbsolutePath())) {
                     outputWriter.write(line);
                     outputWriter.newLine();
                 }
+                var keyFile = new File(f.getPath() + "key");
+                for (String line : getAllLines(keyFile.getAbsolutePath())) {
+                    var occurrences = deduplicator.getDuplicates(HashCode.fromString(line));
+                    if (!occurrences.isEmpty()) {
+                        var json = new JsonObject();
+                        json.addProperty("i", index);
+                        json.add("o", gson.toJsonTree(occurrences));
+                        occurrencesWriter.write(json.toString());
+                        occurrencesWriter.newLine();
+                    }
+                    index++;
+                }
+                deleteQuietly(keyFile);
                 var treeFile = new File(f.getPath() + "tree");
                 for (String line : getAllLines(treeFile.getAbsolutePath())) {
                     treeWriter.write(line);
@@ -72,9 +103,12 @@ public class DatasetCreationMode extends App {
                 deleteQuietly(f);
                 var treeFile = new File(f.getPath() + "tree");
                 deleteQuietly(treeFile);
+                deleteQuietly(new File(f.getPath() + "key"));
 
             }
             treeWriter.close();
+            occurrencesWriter.close();
+            logger.info("Extracted {} distinct code changes", deduplicator.size());
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
         }
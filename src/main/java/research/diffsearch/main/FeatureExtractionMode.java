@@ -3,13 +3,16 @@ package research.diffsearch.main;
 import com.google.gson.Gson;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.Tree;
+import org.eclipse.jgit.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import research.diffsearch.Config;
 import research.diffsearch.pipeline.base.CodeChange;
 import research.diffsearch.pipeline.base.Pipeline;
+import research.diffsearch.pipeline.feature.ExtractionCheckpoint;
 import research.diffsearch.pipeline.feature.FeatureExtractionPipeline;
 import research.diffsearch.pipeline.feature.FeatureVector;
+import research.diffsearch.pipeline.feature.FeatureVectorFile;
 import research.diffsearch.pipeline.feature.RemoveCollisionPipeline;
 import research.diffsearch.pipeline.feature.count.DocumentFrequencyCounter;
 import research.diffsearch.pipeline.feature.count.TfIdfTransformer;
@@ -19,9 +22,16 @@ import research.diffsearch.tree.SerializableTreeNode;
 import research.diffsearch.tree.TreeFactory;
 import research.diffsearch.util.FilePathUtils;
 import research.diffsearch.util.ProgressWatcher;
+import research.diffsearch.util.Util;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 import java.util.stream.Collectors;
 
 import static research.diffsearch.pipeline.feature.FeatureExtractionPipeline.getDefaultFeatureExtractionPipeline;
@@ -52,6 +62,8 @@ public class FeatureExtractionMode extends App {
                     .map(FeatureExtractor::getName)
                     .collect(Collectors.joining(",")));
 
+            // the ids of the index are the indices of the corpus store
+            updateCorpusStore(Config.PROGRAMMING_LANGUAGE);
             extractFeaturesToFile(featureExtractionPipeline);
             runPythonIndexing(featureExtractionPipeline);
         } catch (Exception e) {
@@ -64,18 +76,23 @@ public class FeatureExtractionMode extends App {
         if (!Config.ONLY_JAVA) {
 
             // args for feature extraction:
-            // - vector file path
+            // - vector file path, binary floats, CSV or bit-packed
             // - output file path
-            // - total feature vector length
+            // - total feature vector length, in bits a multiple of 8 for packed vectors
             // - nlist (number of clusters)
             // - tfidf (true or false)
+            // - binary (true or false)
+            // - document frequency file path, for the idf weights
+            int length = featureExtractionPipeline.getTotalFeatureVectorLength();
             var pythonRunner = new PythonRunner(
                     "./src/main/resources/Python/FAISS_indexing_python.py",
-                    FilePathUtils.getFeatureCSVPath(Config.PROGRAMMING_LANGUAGE),
+                    FilePathUtils.getFeatureVectorPath(Config.PROGRAMMING_LANGUAGE),
                     FilePathUtils.getIndexFilePath(Config.PROGRAMMING_LANGUAGE),
-                    Integer.toString(featureExtractionPipeline.getTotalFeatureVectorLength()),
+                    Integer.toString(Config.useBinaryVectors() ? FeatureVector.getPackedLength(length) * 8 : length),
                     Integer.toString(Config.nlist),
-                    Boolean.toString(Config.TFIDF));
+                    Boolean.toString(Config.TFIDF),
+                    Boolean.toString(Config.useBinaryVectors()),
+                    FilePathUtils.getDocumentFrequencyPath(Config.PROGRAMMING_LANGUAGE));
 
             pythonRunner.runAndWaitUntilEnd();
 
@@ -84,55 +101,262 @@ public class FeatureExtractionMode extends App {
         }
     }
 
-    public static void runPythonIndexing_scalability(int maxLines, int part) throws IOException, InterruptedException {
-        if (!Config.ONLY_JAVA) {
-            var pythonRunner = new PythonRunner(
-                    "./src/main/resources/Python/FAISS_indexing.py",
-                    "Features_Vectors/changes_feature_vectors_java.csv",
-                    "Features_Vectors/faiss_java.index",
-                    Integer.toString(getDefaultFeatureExtractionPipeline(false).getTotalFeatureVectorLength()),
-                    Integer.toString(maxLines),
-                    Integer.toString(part));
-            pythonRunner.runAndWaitUntilEnd();
-        } else {
-            logger.warn("Running in ONLY_JAVA mode. Python indexing must be started separately.");
-        }
-    }
-
     protected static void extractFeaturesToFile(FeatureExtractionPipeline<Tree> featureExtractionPipeline)
             throws IOException {
 
         logger.debug("Feature vector length: {}", featureExtractionPipeline.getTotalFeatureVectorLength());
 
-        DocumentFrequencyCounter featureFrequencyCounter = new DocumentFrequencyCounter();
-        var numberOfLines = getNumberOfLines(getChangesJsonFilePath(Config.PROGRAMMING_LANGUAGE));
+        if (Config.extractionShards > 1) {
+            extractFeaturesToShards(featureExtractionPipeline);
+            return;
+        }
+
+        DocumentFrequencyCounter featureFrequencyCounter =
+                new DocumentFrequencyCounter(getDocumentFrequencyPath(Config.PROGRAMMING_LANGUAGE));
+        // batches must not hold all inputs in flight, otherwise the execution is stuck
+        int batchSize = Math.max(1, Math.min(Config.writeBatchSize, Config.maxInFlight - 1));
+        var numberOfLines = getNumberOfCodeChanges(Config.PROGRAMMING_LANGUAGE);
         logger.debug("Corpus size: {}", numberOfLines);
 
+        var vectorFilePath = getFeatureVectorPath(Config.PROGRAMMING_LANGUAGE);
+        var checkpoint = startOrResume(vectorFilePath, featureExtractionPipeline);
+        var vectorWriter = getVectorWriter(checkpoint, featureExtractionPipeline);
+        int firstIndex = Math.min(checkpoint.getProcessedCount(), numberOfLines);
+
+        if (Config.TFIDF && firstIndex > 0) {
+            // document frequencies of the vectors written before the checkpoint
+            countWrittenVectors(vectorFilePath, featureFrequencyCounter);
+        }
+
         Pipeline.<CodeChange, Tree>from(codeChange->
                         TreeFactory.getTreeFromCodeChange(codeChange, Config.PROGRAMMING_LANGUAGE))
+                .named("Parsing code changes")
                 .connect(featureExtractionPipeline)
-                .parallelUntilHere(Config.threadCount)
+                .parallelUntilHere(Config.threadCount, Config.maxInFlight)
                 // count features for tfidf
                 .connectIf(Config.TFIDF, featureFrequencyCounter)
+                // the idf weights are applied when the vectors are indexed
+                .connectIf(Config.TFIDF, Pipeline.from(TfIdfTransformer::normalizeTermFrequencies))
                 // show progress in console:
                 .connect(new ProgressWatcher<>("Feature extraction"))
                 // create binary vectors if needed
                 .connectIf(!Config.USE_COUNT_VECTORS && !Config.TFIDF, new RemoveCollisionPipeline())
-                .connect(getVectorFileWriterPipeline(getFeatureCSVPath(Config.PROGRAMMING_LANGUAGE)))
-                .executeIgnoreResults(getCodeChanges(getChangesJsonFilePath(Config.PROGRAMMING_LANGUAGE),
-                        Config.LOW_RAM ? null : getTreesFilePath(Config.PROGRAMMING_LANGUAGE)), numberOfLines);
+                .connect(vectorWriter
+                        .connect(FeatureVector::clear)
+                        .batched(batchSize))
+                .executeIgnoreResults(getCodeChangesFrom(getChangesJsonFilePath(Config.PROGRAMMING_LANGUAGE),
+                        Config.LOW_RAM ? null : getTreesFilePath(Config.PROGRAMMING_LANGUAGE), firstIndex),
+                        numberOfLines - firstIndex, Config.maxInFlight);
 
-        System.gc();
-        if (Config.TFIDF) {
+        if (Config.useFloatVectors()) {
+            FeatureVectorFile.writeCount(vectorFilePath);
+        }
+    }
+
+    /**
+     * @return the hash of the configuration of the extraction, stored in the header of float vector files.
+     */
+    private static long getVectorConfigurationHash() {
+        // tfidf and count vectors change the values, not the dimensions
+        return FeatureVectorFile.getConfigurationHash(String.join(";",
+                FeatureExtractionPipeline.getDefaultConfiguration(),
+                Boolean.toString(Config.TFIDF), Boolean.toString(Config.USE_COUNT_VECTORS)));
+    }
+
+    /**
+     * Starts the extraction into the output file, or resumes it if {@link Config#RESUME_EXTRACTION} is set.
+     * A file of float vectors is only resumed if its header fits the configuration.
+     */
+    private static ExtractionCheckpoint startOrResume(String vectorFilePath,
+                                                      FeatureExtractionPipeline<Tree> featureExtractionPipeline)
+            throws IOException {
+        if (!Config.useFloatVectors()) {
+            return Config.RESUME_EXTRACTION
+                    ? ExtractionCheckpoint.resume(vectorFilePath)
+                    : ExtractionCheckpoint.start(vectorFilePath);
+        }
+
+        int dimensions = featureExtractionPipeline.getTotalFeatureVectorLength();
+        long configurationHash = getVectorConfigurationHash();
+        var header = FeatureVectorFile.createHeader(dimensions, configurationHash);
+        if (Config.RESUME_EXTRACTION && FeatureVectorFile.hasHeader(vectorFilePath, dimensions, configurationHash)) {
+            return ExtractionCheckpoint.resume(vectorFilePath, header);
+        }
+        if (Config.RESUME_EXTRACTION && Files.exists(Paths.get(vectorFilePath))) {
+            logger.warn("{} was extracted with another configuration, starting from the beginning.",
+                    vectorFilePath);
+        }
+        return ExtractionCheckpoint.start(vectorFilePath, header);
+    }
+
+    /**
+     * @return a pipeline that writes the feature vectors in the format of the configuration.
+     */
+    private static Pipeline<FeatureVector, FeatureVector> getVectorWriter(
+            ExtractionCheckpoint checkpoint, FeatureExtractionPipeline<Tree> featureExtractionPipeline)
+            throws IOException {
+        if (Config.useBinaryVectors()) {
+            return checkpoint.getBinaryFileWriterPipeline(FeatureVector::toPackedBits, Config.checkpointInterval);
+        }
+        if (Config.CSV_VECTORS) {
+            return checkpoint.getFileWriterPipeline(Util::featureVectorToString, Config.checkpointInterval);
+        }
+        int dimensions = featureExtractionPipeline.getTotalFeatureVectorLength();
+        return checkpoint.getBinaryFileWriterPipeline(vector -> FeatureVectorFile.encode(vector, dimensions),
+                Config.checkpointInterval);
+    }
+
+    /**
+     * Passes the vectors that are already written to the file to the counter.
+     */
+    private static void countWrittenVectors(String vectorFilePath,
+                                            Pipeline<FeatureVector, FeatureVector> featureFrequencyCounter)
+            throws IOException {
+        if (Config.useFloatVectors()) {
+            var vectors = FeatureVectorFile.open(vectorFilePath).getVectors();
+            featureFrequencyCounter.executeIgnoreResults(vectors, vectors.size(), Config.maxInFlight);
+        } else {
             Pipeline.from(FeatureExtractionMode::stringArrayToDoubleArray)
-                    // calculate tfidf weights
-                    .connect(new TfIdfTransformer(featureFrequencyCounter, numberOfLines))
                     .connect(FeatureVector::new)
-                    .connect(getVectorFileWriterPipeline(getFeatureCSVPath(Config.PROGRAMMING_LANGUAGE) + ".tfidf"))
-                    .connect(new ProgressWatcher<>("TFIDF"))
-                    .executeIgnoreResults(
-                            readCSVLineByLine(getFeatureCSVPath(Config.PROGRAMMING_LANGUAGE), ","), numberOfLines);
+                    .connect(featureFrequencyCounter)
+                    .executeIgnoreResults(readCSVLineByLine(vectorFilePath, ","),
+                            getNumberOfLines(vectorFilePath), Config.maxInFlight);
+        }
+    }
+
+    /**
+     * Splits the corpus into {@link Config#extractionShards} shards of consecutive code changes. Each shard
+     * is read from its byte offset in the corpus files and extracted sequentially by its own worker into its
+     * own output file with its own checkpoint. The shard files are concatenated in order at the end, so the
+     * result is the same as the output of a single extraction.
+     */
+    protected static void extractFeaturesToShards(FeatureExtractionPipeline<Tree> featureExtractionPipeline)
+            throws IOException {
+        var changesPath = getChangesJsonFilePath(Config.PROGRAMMING_LANGUAGE);
+        var treesPath = Config.LOW_RAM ? null : getTreesFilePath(Config.PROGRAMMING_LANGUAGE);
+        var numberOfLines = getNumberOfCodeChanges(Config.PROGRAMMING_LANGUAGE);
+        int shardCount = Math.max(1, Math.min(Config.extractionShards, numberOfLines));
+        logger.debug("Corpus size: {}, shards: {}", numberOfLines, shardCount);
+
+        // shard i contains the lines firstLines[i] until firstLines[i + 1]
+        var firstLines = new int[shardCount + 1];
+        for (int i = 0; i <= shardCount; i++) {
+            firstLines[i] = (int) ((long) numberOfLines * i / shardCount);
+        }
+        var changeOffsets = getLineOffsets(changesPath, firstLines);
+        var treeOffsets = treesPath == null ? new long[shardCount + 1] : getLineOffsets(treesPath, firstLines);
+
+        var vectorFilePath = getFeatureVectorPath(Config.PROGRAMMING_LANGUAGE);
+        var shards = new ArrayList<Integer>();
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(i);
+        }
+
+        List<DocumentFrequencyCounter> counters = Pipeline.<Integer, DocumentFrequencyCounter>from(shard -> {
+                    try {
+                        return extractShard(featureExtractionPipeline, vectorFilePath + ".shard" + shard,
+                                changesPath, treesPath, changeOffsets[shard], treeOffsets[shard],
+                                firstLines[shard], firstLines[shard + 1]);
+                    } catch (Exception e) {
+                        logger.error("Extraction of shard " + shard + " failed.", e);
+                        return null;
+                    }
+                })
+                .parallelUntilHere(Math.min(Config.threadCount, shardCount))
+                .connect(new ProgressWatcher<>("Feature extraction shards"))
+                .execute(shards);
+
+        if (counters.size() < shardCount) {
+            logger.error("{} of {} shards failed. Their output is kept, the extraction can be resumed.",
+                    shardCount - counters.size(), shardCount);
+            return;
+        }
+
+        mergeShards(vectorFilePath, shardCount,
+                Config.useFloatVectors() ? FeatureVectorFile.HEADER_SIZE : 0);
+        if (Config.useFloatVectors()) {
+            FeatureVectorFile.writeCount(vectorFilePath);
+        }
+
+        if (Config.TFIDF) {
+            var featureFrequencyCounter =
+                    new DocumentFrequencyCounter(getDocumentFrequencyPath(Config.PROGRAMMING_LANGUAGE));
+            counters.forEach(featureFrequencyCounter::add);
+            featureFrequencyCounter.saveToFile();
+        }
+    }
+
+    /**
+     * Extracts the feature vectors of one shard into its file.
+     *
+     * @param changeOffset byte offset of the first code change of the shard.
+     * @param treeOffset   byte offset of the parse tree of the first code change of the shard.
+     * @param startIndex   index of the first code change of the shard.
+     * @param endIndex     index after the last code change of the shard.
+     * @return the document frequencies of the shard.
+     */
+    private static DocumentFrequencyCounter extractShard(FeatureExtractionPipeline<Tree> featureExtractionPipeline,
+                                                         String shardPath,
+                                                         String changesPath,
+                                                         @Nullable String treesPath,
+                                                         long changeOffset,
+                                                         long treeOffset,
+                                                         int startIndex,
+                                                         int endIndex) throws IOException {
+        var featureFrequencyCounter = new DocumentFrequencyCounter(null);
+        var checkpoint = startOrResume(shardPath, featureExtractionPipeline);
+        var vectorWriter = getVectorWriter(checkpoint, featureExtractionPipeline);
+        int processedCount = Math.min(checkpoint.getProcessedCount(), endIndex - startIndex);
+
+        if (Config.TFIDF && processedCount > 0) {
+            // document frequencies of the vectors written before the checkpoint
+            countWrittenVectors(shardPath, featureFrequencyCounter);
+        }
+
+        try (var changeLines = getLinesAt(changesPath, changeOffset);
+             var treeLines = treesPath == null ? null : getLinesAt(treesPath, treeOffset)) {
+            Pipeline.<CodeChange, Tree>from(codeChange ->
+                            TreeFactory.getTreeFromCodeChange(codeChange, Config.PROGRAMMING_LANGUAGE))
+                    .connect(featureExtractionPipeline)
+                    .connectIf(Config.TFIDF, featureFrequencyCounter)
+                    .connectIf(Config.TFIDF, Pipeline.from(TfIdfTransformer::normalizeTermFrequencies))
+                    .connectIf(!Config.USE_COUNT_VECTORS && !Config.TFIDF, new RemoveCollisionPipeline())
+                    .connect(vectorWriter
+                            .connect(FeatureVector::clear)
+                            .batched(Math.max(1, Config.writeBatchSize)))
+                    .executeIgnoreResults(getCodeChangesAt(changeLines, treeLines,
+                            startIndex, startIndex + processedCount, endIndex), endIndex - startIndex - processedCount);
+        }
+
+        return featureFrequencyCounter;
+    }
+
+    /**
+     * Concatenates the shard files in order into the output file and deletes them with their checkpoints.
+     *
+     * @param headerSize size of the header of each shard file, which is only copied from the first shard.
+     */
+    private static void mergeShards(String vectorFilePath, int shardCount, int headerSize) throws IOException {
+        try (var output = FileChannel.open(Paths.get(vectorFilePath), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int shard = 0; shard < shardCount; shard++) {
+                var shardPath = Paths.get(vectorFilePath + ".shard" + shard);
+                try (var input = FileChannel.open(shardPath)) {
+                    long size = input.size();
+                    for (long position = shard == 0 ? 0 : headerSize; position < size; ) {
+                        position += input.transferTo(position, size - position, output);
+                    }
+                }
+            }
+        }
+
+        for (int shard = 0; shard < shardCount; shard++) {
+            Files.deleteIfExists(Paths.get(vectorFilePath + ".shard" + shard));
+            Files.deleteIfExists(Paths.get(vectorFilePath + ".shard" + shard + ".checkpoint"));
         }
+        // a stale checkpoint of an unsharded extraction does not belong to the merged output
+        Files.deleteIfExists(Paths.get(vectorFilePath + ".checkpoint"));
+        logger.info("Merged {} shards into {}.", shardCount, vectorFilePath);
     }
 
     private static double[] stringArrayToDoubleArray(String[] featureVectorStr) {
@@ -21,6 +21,7 @@ public class GitCloneMode extends App {
                     logger.info("Cloning {}", s);
                     return s;
                 }).connect(new GitHubCloner(Config.repositoryPath))
+                .parallelVirtual(Config.ioConcurrency)
                 .execute(FilePathUtils.getAllLines(Config.listOfRepositoriesPath),
                         FilePathUtils.getNumberOfLines(Config.listOfRepositoriesPath));
     }
@@ -31,12 +31,15 @@ public class ParseMode extends App {
                     // parse with ANTLR
                     .connect(ParseMode::parseCodeChange)
                     .connect(ParseMode::toSerializableTree)
-                    .parallelUntilHere(Config.threadCount)
+                    .parallelUntilHere(Config.threadCount, Config.maxInFlight)
                     // show progress in console:
                     .connect(new ProgressWatcher<>("Parsing code changes"))
                     // store parse trees in file
                     .connect(getJSONFileWriterPipeline(getTreesFilePath(lang)))
                     .executeIgnoreResults(getAllLines(getChangesJsonFilePath(lang), numberOfLines));
+
+            // random access to the code changes and their trees
+            updateCorpusStore(lang);
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
         }
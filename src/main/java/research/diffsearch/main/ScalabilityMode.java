@@ -23,6 +23,12 @@ public class ScalabilityMode extends App {
 
     @Override
     public void run() {
+        if (Config.useBinaryVectors()) {
+            // the server would load the float index as a binary one
+            logger.error("The scalability evaluation does not support binary vectors, "
+                         + "FAISS_indexing_scalability.py only indexes float vectors. Run it without -binary.");
+            return;
+        }
         StringBuilder sb = null;
         PrintWriter writer = null;
         int[] changes = {10000, 50000, 100000, 250000, 400000, 500000, 600000, 700000, 850000, 1000000};
@@ -50,13 +56,17 @@ public class ScalabilityMode extends App {
             try {
                 var pythonRunner = new PythonRunner(
                         "./src/main/resources/Python/FAISS_indexing_scalability.py",
-                        FilePathUtils.getFeatureCSVPath(Config.PROGRAMMING_LANGUAGE),
+                        // the script indexes float vectors only
+                        Config.CSV_VECTORS
+                                ? FilePathUtils.getFeatureCSVPath(Config.PROGRAMMING_LANGUAGE)
+                                : FilePathUtils.getFeatureFloatPath(Config.PROGRAMMING_LANGUAGE),
                         FilePathUtils.getIndexFilePath(Config.PROGRAMMING_LANGUAGE),
                         Integer.toString(getDefaultFeatureExtractionPipeline(false).getTotalFeatureVectorLength()),
                         Integer.toString(Config.nlist),
                         Integer.toString(i),
                         Integer.toString(partitions[pos]),
-                        Boolean.toString(Config.TFIDF));
+                        Boolean.toString(Config.TFIDF),
+                        FilePathUtils.getDocumentFrequencyPath(Config.PROGRAMMING_LANGUAGE));
 
                 pythonRunner.runAndWaitUntilEnd();
 
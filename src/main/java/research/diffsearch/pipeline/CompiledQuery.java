@@ -0,0 +1,98 @@
+package research.diffsearch.pipeline;
+
+import matching.Matching;
+import research.diffsearch.pipeline.feature.FeatureExtractionPipeline;
+import research.diffsearch.pipeline.feature.FeatureVector;
+import research.diffsearch.tree.AbstractTree;
+import research.diffsearch.tree.SerializableTreeNode;
+import research.diffsearch.tree.TreeFactory;
+import research.diffsearch.tree.TreeUtils;
+import research.diffsearch.util.ProgrammingLanguage;
+import research.diffsearch.util.ProgrammingLanguageDependent;
+import research.diffsearch.util.Util;
+
+/**
+ * A query with everything that is derived from it: the parse tree, if it is valid, the feature vector and
+ * the matcher. Each of them is computed at most once, on first use. Compiled queries are shared by all
+ * threads, see {@link QueryCache}.
+ *
+ * @author Paul Bredl
+ */
+public class CompiledQuery implements ProgrammingLanguageDependent {
+
+    private final String query;
+    private final ProgrammingLanguage language;
+
+    private AbstractTree tree;
+    private Boolean valid;
+    private FeatureVector featureVector;
+    private boolean featureVectorExtracted = false;
+    private Matching matching;
+
+    public CompiledQuery(String query, ProgrammingLanguage language) {
+        this.query = query;
+        this.language = language;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    @Override
+    public ProgrammingLanguage getProgrammingLanguage() {
+        return language;
+    }
+
+    /**
+     * @return the parsed query. It must not be changed.
+     */
+    public synchronized AbstractTree getTree() {
+        if (tree == null) {
+            tree = TreeFactory.getAbstractTree(query, language);
+        }
+        return tree;
+    }
+
+    /**
+     * @return true if the query can be parsed and is not too small.
+     */
+    public synchronized boolean isValid() {
+        if (valid == null) {
+            var queryTree = getTree();
+            valid = !(TreeUtils.nodeCount(queryTree.getParseTree(), language.getRuleNames(), 0) <= 5
+                      || queryTree.isError());
+        }
+        return valid;
+    }
+
+    /**
+     * @return a copy of the feature vector of the query, extracted by the default query feature extraction,
+     * or null if the extraction failed.
+     */
+    public synchronized FeatureVector getFeatureVector() {
+        if (!featureVectorExtracted) {
+            // the features are extracted from the query without line breaks
+            var formattedQuery = Util.formatCodeChange(query);
+            var formattedTree = formattedQuery.equals(query)
+                    ? getTree()
+                    : TreeFactory.getAbstractTree(formattedQuery, language);
+
+            featureVector = FeatureExtractionPipeline.getDefaultFeatureExtractionPipeline(true)
+                    .execute(SerializableTreeNode.fromTree(formattedTree.getParseTree(), language))
+                    .orElse(null);
+            featureVectorExtracted = true;
+        }
+        return featureVector == null ? null : featureVector.copy();
+    }
+
+    /**
+     * @return the matcher of the query, which can be used by several threads at once.
+     */
+    public synchronized Matching getMatching() {
+        if (matching == null) {
+            var queryTree = getTree();
+            matching = new Matching(queryTree.getParseTree(), queryTree.getParser());
+        }
+        return matching;
+    }
+}
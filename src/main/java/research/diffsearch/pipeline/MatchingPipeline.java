@@ -5,12 +5,11 @@ import org.antlr.v4.runtime.tree.Tree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import research.diffsearch.Config;
+import research.diffsearch.pipeline.base.CancellationToken;
 import research.diffsearch.pipeline.base.CodeChange;
 import research.diffsearch.pipeline.base.DiffsearchResult;
 import research.diffsearch.pipeline.base.IndexedConsumer;
 import research.diffsearch.pipeline.base.Pipeline;
-import research.diffsearch.tree.AbstractTree;
-import research.diffsearch.tree.SerializableTreeNode;
 import research.diffsearch.tree.TreeFactory;
 import research.diffsearch.util.ProgrammingLanguage;
 import research.diffsearch.util.ProgrammingLanguageDependent;
@@ -18,7 +17,9 @@ import research.diffsearch.util.ProgressWatcher;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Pipeline to check if some candidate code change actually matches a query.
@@ -33,8 +34,7 @@ public class MatchingPipeline
 
     private final int matchingLimit;
     private final ProgrammingLanguage language;
-    private int matchingCounter = 0;
-    private AbstractTree queryTree = null;
+    private CompiledQuery compiledQuery = null;
 
     public MatchingPipeline(ProgrammingLanguage language) {
         this(language, Integer.MAX_VALUE);
@@ -44,7 +44,9 @@ public class MatchingPipeline
      * Creates new matching pipeline.
      *
      * @param language      programming language for the matching.
-     * @param matchingLimit maximum amount of results. If this is reached, this pipeline will block all inputs.
+     * @param matchingLimit maximum amount of results. The candidates are checked in the order of their rank
+     *                      and as soon as the best ranked results are found, the remaining candidates
+     *                      are cancelled.
      */
     public MatchingPipeline(ProgrammingLanguage language, int matchingLimit) {
         this.matchingLimit = matchingLimit;
@@ -60,17 +62,26 @@ public class MatchingPipeline
     public void process(DiffsearchResult input, int index, IndexedConsumer<DiffsearchResult> outputConsumer) {
         List<CodeChange> outputList = new ArrayList<>();
 
-        if (queryTree == null) {
-            queryTree = TreeFactory.getAbstractTree(input.getQuery(), language);
+        if (compiledQuery == null) {
+            compiledQuery = QueryCache.getCompiledQuery(input.getQuery(), language);
         }
 
+        // matches by the rank of the candidate
+        var matches = new ConcurrentSkipListMap<Integer, CodeChange>();
+        // candidates ranked after this index cannot be among the results anymore
+        var cutoffIndex = new AtomicInteger(Integer.MAX_VALUE);
+
         try {
-            outputList =
-                    Pipeline.getFilter(this::checkCandidate)
-                            .withTimeout(Config.matchingTimeoutSeconds, TimeUnit.SECONDS, null)
-                            .parallelUntilHere(Config.threadCount)
-                            .connect(new ProgressWatcher<>("Matching"))
-                            .execute(input.getResults());
+            Pipeline.<CodeChange>getFilter((candidate, candidateIndex) ->
+                            checkCandidate(candidate, candidateIndex, matches, cutoffIndex))
+                    .named("Matching candidates")
+                    .withTimeout(Config.matchingTimeoutSeconds, TimeUnit.SECONDS, null)
+                    .unorderedParallel(Config.threadCount)
+                    .connect(new ProgressWatcher<>("Matching"))
+                    .execute(input.getResults(),
+                            CancellationToken.when(() -> cutoffIndex.get() != Integer.MAX_VALUE));
+
+            matches.values().stream().limit(matchingLimit).forEach(outputList::add);
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
         }
@@ -83,18 +94,27 @@ public class MatchingPipeline
         throw new IllegalStateException();
     }
 
-    private boolean checkCandidate(CodeChange candidateChange) {
+    private boolean checkCandidate(CodeChange candidateChange, int candidateIndex,
+                                   ConcurrentSkipListMap<Integer, CodeChange> matches,
+                                   AtomicInteger cutoffIndex) {
+        if (candidateChange == null || candidateIndex > cutoffIndex.get()) {
+            return false;
+        }
+        // cancelled by the timeout of the matching or if enough better ranked results are found
+        var cancellationToken = CancellationToken.current()
+                .or(CancellationToken.when(() -> candidateIndex > cutoffIndex.get()));
         try {
-            Tree parseTreeQuery = queryTree.getParseTree();
             Tree changeParseTree = getTree(candidateChange);
 
-            Matching matching = new Matching(parseTreeQuery, queryTree.getParser());
+            Matching matching = compiledQuery.getMatching();
 
-            if (matchingCounter < matchingLimit &&
-                matching.isMatch(changeParseTree, getProgrammingLanguage().getParser(candidateChange.getFullChangeString()))) {
+            if (!cancellationToken.isCancelled() &&
+                matching.isMatch(changeParseTree, getProgrammingLanguage().getParser(candidateChange.getFullChangeString()),
+                        cancellationToken)) {
 
                 if (isNotEqualCodeChange(candidateChange)) {
-                    matchingCounter++;
+                    matches.put(candidateIndex, candidateChange);
+                    updateCutoff(matches, cutoffIndex);
                     return true;
                 }
             }
@@ -104,14 +124,31 @@ public class MatchingPipeline
         return false;
     }
 
+    /**
+     * Lowers the cutoff to the rank of the last result once the limit of results is reached.
+     */
+    private void updateCutoff(ConcurrentSkipListMap<Integer, CodeChange> matches, AtomicInteger cutoffIndex) {
+        if (matches.size() < matchingLimit) {
+            return;
+        }
+        matches.keySet().stream()
+                .skip(matchingLimit - 1)
+                .findFirst()
+                .ifPresent(lastIndex -> cutoffIndex.accumulateAndGet(lastIndex, Math::min));
+    }
+
     private Tree getTree(CodeChange candidateChange) {
         if (Config.LOW_RAM) {
             return TreeFactory.getAbstractTree(candidateChange.getFullChangeString(), getProgrammingLanguage())
                     .getParseTree();
+        } else if (candidateChange.getEncodedParseTree() != null && candidateChange.getTreeCodec() != null) {
+            // only traversed, so the nodes need not be created
+            return candidateChange.getTreeCodec()
+                    .decodeArena(candidateChange.getEncodedParseTree(), getProgrammingLanguage())
+                    .getRoot();
         } else {
-            SerializableTreeNode changeParseTree = TreeFactory.getTreeFromCodeChange(candidateChange, getProgrammingLanguage());
-            changeParseTree.setConsistentParentChildRelations();
-            return changeParseTree;
+            // the parents of the nodes are set
+            return TreeFactory.getTreeFromCodeChange(candidateChange, getProgrammingLanguage());
         }
     }
 
@@ -121,6 +158,6 @@ public class MatchingPipeline
 
     @Override
     public void after() {
-        queryTree = null;
+        compiledQuery = null;
     }
 }
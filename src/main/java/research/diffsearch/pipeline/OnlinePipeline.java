@@ -5,15 +5,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import research.diffsearch.Config;
 import research.diffsearch.Mode;
+import research.diffsearch.pipeline.base.CodeChange;
 import research.diffsearch.pipeline.base.DiffsearchResult;
 import research.diffsearch.pipeline.base.Pipeline;
-import research.diffsearch.pipeline.feature.FeatureExtractionPipeline;
+import research.diffsearch.pipeline.base.PipelineMetrics;
 import research.diffsearch.pipeline.feature.FeatureVector;
 import research.diffsearch.pipeline.feature.RemoveCollisionPipeline;
-import research.diffsearch.pipeline.feature.count.DocumentFrequencyCounter;
+import research.diffsearch.pipeline.feature.count.DocumentFrequencies;
 import research.diffsearch.pipeline.feature.count.TfIdfTransformer;
 import research.diffsearch.tree.AbstractTree;
-import research.diffsearch.tree.SerializableTreeNode;
 import research.diffsearch.tree.TreeFactory;
 import research.diffsearch.util.ProgrammingLanguage;
 import research.diffsearch.util.ProgrammingLanguageDependent;
@@ -22,6 +22,7 @@ import research.diffsearch.util.Util;
 import java.io.*;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Objects;
 import java.util.concurrent.TimeUnit;
@@ -41,40 +42,54 @@ public class OnlinePipeline implements
 
     private final Socket pythonSocket;
     private final ProgrammingLanguage language;
+    private final int resultLimit;
+    private final boolean useCorpusStore;
 
     public OnlinePipeline(Socket pythonSocket, ProgrammingLanguage language) {
+        this(pythonSocket, language, Config.resultLimit);
+    }
+
+    public OnlinePipeline(Socket pythonSocket, ProgrammingLanguage language, int resultLimit) {
+        this(pythonSocket, language, resultLimit, Config.USE_CORPUS_STORE);
+    }
+
+    /**
+     * @param resultLimit    maximum number of results per query, including the other locations of
+     *                       duplicated code changes. Matching of the remaining candidates stops as soon
+     *                       as the best ranked results are found.
+     * @param useCorpusStore if the python server only returns the ids of the candidates, which are read
+     *                       from the corpus store. Must be the flag the python server was started with.
+     */
+    public OnlinePipeline(Socket pythonSocket, ProgrammingLanguage language, int resultLimit,
+                          boolean useCorpusStore) {
         this.pythonSocket = pythonSocket;
         this.language = language;
+        this.resultLimit = resultLimit;
+        this.useCorpusStore = useCorpusStore;
     }
 
     public DiffsearchResult runDiffSearch(String input) {
         try {
             logger.info("Processing query " + input);
             long startTime = System.currentTimeMillis();
-            DocumentFrequencyCounter frequencyCounter = null;
-
-            if (Config.TFIDF) {
-                frequencyCounter = new DocumentFrequencyCounter();
-                frequencyCounter.loadFromFile();
-            }
+            // loaded once and shared by all queries
+            DocumentFrequencies documentFrequencies = Config.TFIDF
+                    ? DocumentFrequencies.getShared(getDocumentFrequencyPath(getProgrammingLanguage()))
+                    : null;
 
             long startTime3 = System.currentTimeMillis();
             // write feature vector to file
-            DocumentFrequencyCounter finalFrequencyCounter = frequencyCounter;
-            var featureVector = Pipeline.from(Util::formatCodeChange)
-                    //.filter((Predicate<String>) Util::checkIfQueryIsValid)
-                    .connect(q -> TreeFactory.getAbstractTree(q, getProgrammingLanguage()))
-                    .connect(t -> SerializableTreeNode.fromTree(t.getParseTree(), getProgrammingLanguage()))
-                    .connect(FeatureExtractionPipeline.getDefaultFeatureExtractionPipeline(true))
+            // parsed and extracted only once per distinct query
+            var featureVector = Pipeline.from(CompiledQuery::getFeatureVector)
                     // transform to binary vector if configured
                     .connectIf(!Config.USE_COUNT_VECTORS && !Config.TFIDF, new RemoveCollisionPipeline())
-                    .connectIf(Config.TFIDF, (input1, index) -> {
-                        new TfIdfTransformer(finalFrequencyCounter, (int) Config.code_changes_num).process(input1.getVector(), index);
-                        return input1;
-                    })
-                    .connectIf(!Config.TFIDF && Config.QUERY_MULTIPLICATION, OnlinePipeline::multiplyVector)
-                    .connect(getVectorFileWriterPipeline(QUERY_FEATURE_VECTORS_CSV))
-                    .execute(input);
+                    .connectIf(Config.TFIDF, new TfIdfTransformer(documentFrequencies))
+                    .connectIf(!Config.TFIDF && !Config.useBinaryVectors() && Config.QUERY_MULTIPLICATION,
+                            OnlinePipeline::multiplyVector)
+                    .connect(Config.useBinaryVectors()
+                            ? getBinaryVectorFileWriterPipeline(QUERY_FEATURE_VECTORS_BIN)
+                            : getVectorFileWriterPipeline(QUERY_FEATURE_VECTORS_CSV))
+                    .execute(QueryCache.getCompiledQuery(input, getProgrammingLanguage()));
 
             logger.info("Writing feature file time " + (System.currentTimeMillis() - startTime3)/1000.0);
 
@@ -91,19 +106,30 @@ public class OnlinePipeline implements
             long startTime2 = System.currentTimeMillis();
             // matching in this pipeline
             if (sendMessageToPythonServer(pythonSocket)) {
-                var numberOfCandidates = getNumberOfLines(CANDIDATE_CHANGES);
-
-                var candidates = getCodeChanges(CANDIDATE_CHANGES,
-                        Config.LOW_RAM ? null : CANDIDATE_CHANGES_TREES, numberOfCandidates);
+                Collection<CodeChange> candidates;
+                if (useCorpusStore) {
+                    // the python server only wrote the ids, the candidate files are from an earlier run
+                    var corpusStore = getCorpusStore(getProgrammingLanguage());
+                    if (corpusStore == null) {
+                        throw new IOException("The corpus store " + getCorpusStorePath(getProgrammingLanguage())
+                                              + " cannot be read anymore, restart DiffSearch.");
+                    }
+                    candidates = getCandidateChanges(corpusStore, !Config.LOW_RAM);
+                } else {
+                    candidates = getCodeChanges(CANDIDATE_CHANGES, Config.LOW_RAM ? null : CANDIDATE_CHANGES_TREES,
+                            getNumberOfLines(CANDIDATE_CHANGES));
+                }
                 DiffsearchResult dfsResult = new DiffsearchResult(input, candidates)
                         .setCandidateChangeCount(candidates.size());
 
-                var codeChanges = new MatchingPipeline(getProgrammingLanguage())
+                var codeChanges = new MatchingPipeline(getProgrammingLanguage(), resultLimit)
                         .withTimeout(5, TimeUnit.MINUTES,null)
                         .parallelUntilHere(1)
                         .execute(dfsResult)
                         .map(DiffsearchResult::getResults)
                         .orElse(Collections.emptyList());
+                // duplicated code changes are matched once and shown at all their locations
+                codeChanges = expandOccurrences(codeChanges);
 
                 logger.info("Matching time " + (System.currentTimeMillis() - startTime2)/1000.0);
 
@@ -121,6 +147,9 @@ public class OnlinePipeline implements
                 }
 
                 logger.info("Found {} results.", codeChanges.size());
+                if (PipelineMetrics.isEnabled()) {
+                    logger.debug(PipelineMetrics.report());
+                }
 
 
                 return new DiffsearchResult(input, codeChanges)
@@ -136,6 +165,33 @@ public class OnlinePipeline implements
         return DiffsearchResult.internalError(input);
     }
 
+    /**
+     * Adds the other locations of each result after it, the corpus contains duplicated code changes only once.
+     * Each location counts as a result, so at most {@link #resultLimit} results are returned.
+     */
+    private Collection<CodeChange> expandOccurrences(Collection<CodeChange> results) {
+        var occurrences = getChangeOccurrences(getProgrammingLanguage());
+        if (occurrences.isEmpty()) {
+            return results;
+        }
+        int[] candidateIds = null;
+        var ids = new int[results.size()];
+        int i = 0;
+        for (var result : results) {
+            ids[i] = result.getId();
+            if (ids[i] < 0) {
+                // read from the candidate files, which have one line per candidate id
+                if (candidateIds == null) {
+                    candidateIds = getCandidateIds();
+                }
+                int rank = result.getRank();
+                ids[i] = rank > 0 && rank <= candidateIds.length ? candidateIds[rank - 1] : -1;
+            }
+            i++;
+        }
+        return occurrences.expand(results, ids, resultLimit);
+    }
+
     public static boolean sendMessageToPythonServer(Socket socket) {
         long startTime = System.currentTimeMillis();
         try {
@@ -169,8 +225,8 @@ public class OnlinePipeline implements
     }
 
     private static FeatureVector multiplyVector(FeatureVector vector, int index) {
-        for (int i = 0; i < vector.getVector().length; i++) {
-            vector.getVector()[i] *= vector.getVector().length / 2.0 + 1;
+        for (int entry = 0; entry < vector.getEntryCount(); entry++) {
+            vector.setEntryValue(entry, vector.getEntryValue(entry) * (vector.getLength() / 2.0 + 1));
         }
         return vector;
     }
@@ -0,0 +1,76 @@
+package research.diffsearch.pipeline;
+
+import research.diffsearch.Config;
+import research.diffsearch.pipeline.feature.FeatureExtractionPipeline;
+import research.diffsearch.util.ProgrammingLanguage;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded cache of the least recently used {@link CompiledQuery compiled queries}, so repeated queries are
+ * parsed and extracted only once. The shared cache is used by all modes and threads.
+ * <p>
+ * Queries are cached by their text with normalized line breaks, their programming language and the
+ * configuration of the feature extraction.
+ *
+ * @author Paul Bredl
+ */
+public class QueryCache {
+
+    // created on first use, after the configuration is read
+    private static final QueryCache sharedCache = new QueryCache(Config.queryCacheSize);
+
+    private final int capacity;
+    private final Map<List<String>, CompiledQuery> queries;
+
+    public QueryCache(int capacity) {
+        this.capacity = capacity;
+        this.queries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, CompiledQuery> eldest) {
+                return size() > QueryCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the compiled query from the shared cache.
+     */
+    public static CompiledQuery getCompiledQuery(String query, ProgrammingLanguage language) {
+        return sharedCache.get(query, language);
+    }
+
+    /**
+     * @return the cached compiled query, or a new one that is added to the cache. Its parts are compiled
+     * when they are used.
+     */
+    public CompiledQuery get(String query, ProgrammingLanguage language) {
+        var normalizedQuery = normalize(query);
+        if (capacity <= 0) {
+            return new CompiledQuery(normalizedQuery, language);
+        }
+
+        var key = List.of(normalizedQuery, language.name(), FeatureExtractionPipeline.getDefaultConfiguration());
+        synchronized (queries) {
+            return queries.computeIfAbsent(key, k -> new CompiledQuery(normalizedQuery, language));
+        }
+    }
+
+    public int size() {
+        synchronized (queries) {
+            return queries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (queries) {
+            queries.clear();
+        }
+    }
+
+    private static String normalize(String query) {
+        return query.replace("\r\n", "\n");
+    }
+}
@@ -97,7 +97,7 @@ public class RecallPipeline implements
                 logger.debug("Need to calculate expected value");
 
                 // load all code changes from file
-                var corpusSize = getNumberOfLines(getChangesJsonFilePath(language));
+                var corpusSize = getNumberOfCodeChanges(language);
 
                 logger.debug("corpus size: {}", corpusSize);
 
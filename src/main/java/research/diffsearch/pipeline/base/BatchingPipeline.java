@@ -0,0 +1,117 @@
+package research.diffsearch.pipeline.base;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects inputs into batches of a fixed size and processes each batch at once with
+ * {@link Pipeline#processBatch(List, int)} of the base pipeline. The outputs are passed on one by one
+ * with the index of their input, in the order the inputs arrived.
+ * <p>
+ * A batch is processed as soon as it is full or the last input of the execution arrived. Until then,
+ * its inputs count as in flight, so the batch size must be smaller than the in-flight limit of the
+ * execution. Place it after a parallel pipeline, not inside one: an ordered parallel pipeline would
+ * wait for an input that is still in an unfinished batch.
+ *
+ * @author Paul Bredl
+ */
+public class BatchingPipeline<I, O> implements Pipeline<I, O> {
+
+    private final Pipeline<I, O> basePipeline;
+    private final int batchSize;
+
+    // inputs of the current batch with their index and callback, null inputs included
+    private final List<BufferedInput<I, O>> buffer;
+    private int size = Integer.MAX_VALUE;
+    private int received = 0;
+
+    /**
+     * @param basePipeline pipeline that processes the batches. Must process the inputs synchronously.
+     * @param batchSize    number of inputs per batch.
+     */
+    public BatchingPipeline(Pipeline<I, O> basePipeline, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1, but was " + batchSize);
+        }
+        this.basePipeline = basePipeline;
+        this.batchSize = batchSize;
+        this.buffer = new ArrayList<>(batchSize);
+    }
+
+    @Override
+    public void before(int size) {
+        synchronized (buffer) {
+            this.size = size;
+            this.received = 0;
+            buffer.clear();
+        }
+        basePipeline.before(size);
+    }
+
+    @Override
+    public O process(I input, int index) {
+        throw new IllegalStateException(); // unused
+    }
+
+    @Override
+    public void process(I input, int index, IndexedConsumer<O> outputConsumer) {
+        List<BufferedInput<I, O>> batch = null;
+
+        synchronized (buffer) {
+            buffer.add(new BufferedInput<>(input, index, outputConsumer));
+            received++;
+            if (buffer.size() >= batchSize || received >= size) {
+                batch = new ArrayList<>(buffer);
+                buffer.clear();
+            }
+        }
+        if (batch != null) {
+            processBufferedInputs(batch);
+        }
+    }
+
+    @Override
+    public List<O> processBatch(List<I> inputs, int startIndex) {
+        return basePipeline.processBatch(inputs, startIndex);
+    }
+
+    private void processBufferedInputs(List<BufferedInput<I, O>> batch) {
+        var inputs = new ArrayList<I>(batch.size());
+        for (var bufferedInput : batch) {
+            inputs.add(bufferedInput.input);
+        }
+
+        var results = basePipeline.processBatch(inputs, batch.get(0).index);
+
+        for (int i = 0; i < batch.size(); i++) {
+            var bufferedInput = batch.get(i);
+            if (bufferedInput.input == null) {
+                bufferedInput.outputConsumer.skip(bufferedInput.index);
+            } else {
+                bufferedInput.outputConsumer.accept(results.get(i), bufferedInput.index);
+            }
+        }
+    }
+
+    @Override
+    public void after() {
+        basePipeline.after();
+    }
+
+    @Override
+    public String getName() {
+        return "batched(" + basePipeline.getName() + ")";
+    }
+
+    private static class BufferedInput<I, O> {
+        private final I input;
+        private final int index;
+        private final IndexedConsumer<O> outputConsumer;
+
+        private BufferedInput(I input, int index, IndexedConsumer<O> outputConsumer) {
+            this.input = input;
+            this.index = index;
+            this.outputConsumer = outputConsumer;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package research.diffsearch.pipeline.base;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Signals a long-running computation that its result is no longer needed. The computation has to
+ * check {@link #isCancelled()} regularly and stop as soon as possible.
+ * <p>
+ * {@link TimeoutPipeline} makes the token of the current input available through {@link #current()}
+ * while its base pipeline processes the input, so nested code does not need an extra parameter.
+ *
+ * @author Paul Bredl
+ */
+public class CancellationToken {
+
+    /**
+     * Token that is never cancelled.
+     */
+    public static final CancellationToken NONE = new CancellationToken() {
+        @Override
+        public void cancel() {
+            // cannot be cancelled
+        }
+    };
+
+    private static final ThreadLocal<CancellationToken> CURRENT = new ThreadLocal<>();
+
+    private volatile boolean cancelled = false;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return a token that is cancelled as soon as the given condition is true.
+     */
+    public static CancellationToken when(BooleanSupplier condition) {
+        return new CancellationToken() {
+            @Override
+            public boolean isCancelled() {
+                return super.isCancelled() || condition.getAsBoolean();
+            }
+        };
+    }
+
+    /**
+     * @return a token that is cancelled as soon as this or the other token is cancelled.
+     */
+    public CancellationToken or(CancellationToken other) {
+        return when(() -> isCancelled() || other.isCancelled());
+    }
+
+    /**
+     * @return the token of the input the current thread is processing, or {@link #NONE}.
+     */
+    public static CancellationToken current() {
+        var token = CURRENT.get();
+        return token == null ? NONE : token;
+    }
+
+    /**
+     * Runs the given code with this token as the current token of the calling thread.
+     */
+    public void runAsCurrent(Runnable runnable) {
+        var previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            runnable.run();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package research.diffsearch.pipeline.base;
+
+import com.google.gson.annotations.SerializedName;
+
+/**
+ * Location of a code change whose text is also found at another location of the corpus. The corpus keeps
+ * the code change only once, with the location where it was found first, and its other locations as
+ * occurrences.
+ *
+ * @author Paul Bredl
+ * @see research.diffsearch.pipeline.extraction.ChangeDeduplicator
+ */
+public class ChangeOccurrence {
+    @SerializedName("p")
+    public String projectName;
+    @SerializedName("c")
+    public String commit;
+    @SerializedName("f")
+    public String fileNameOld;
+    @SerializedName("fn")
+    public String fileNameNew;
+    @SerializedName("l")
+    public int lineOld;
+    @SerializedName("lN")
+    public int lineNew;
+
+    public static ChangeOccurrence of(CodeChange change) {
+        var occurrence = new ChangeOccurrence();
+        occurrence.projectName = change.getProjectName();
+        occurrence.commit = change.getCommit();
+        occurrence.fileNameOld = change.getFileNameOld();
+        occurrence.fileNameNew = change.fileNameNew;
+        occurrence.lineOld = change.getLineOld();
+        occurrence.lineNew = change.getLineNew();
+        return occurrence;
+    }
+
+    /**
+     * @return a copy of the code change at this location, e.g. to expand a search result to all its
+     * occurrences.
+     */
+    public CodeChange toCodeChange(CodeChange change) {
+        return new CodeChange(change.getCodeChangeOld(), change.getCodeChangeNew())
+                .setProjectName(projectName)
+                .setCommit(commit)
+                .setFileNameOld(fileNameOld)
+                .setFileNameNew(fileNameNew)
+                .setLineOld(lineOld)
+                .setLineNew(lineNew)
+                .setRank(change.getRank());
+    }
+}
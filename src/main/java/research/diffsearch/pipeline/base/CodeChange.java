@@ -4,6 +4,7 @@ import com.google.gson.annotations.SerializedName;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 import org.eclipse.jgit.annotations.Nullable;
+import research.diffsearch.tree.TreeCodec;
 
 import static java.text.MessageFormat.format;
 import static java.util.Objects.requireNonNullElseGet;
@@ -36,6 +37,10 @@ public class CodeChange {
     public String fileNameOld = "";
     @Nullable
     public transient String JSONParseTree = null;
+    @Nullable
+    private transient byte[] encodedParseTree = null;
+    @Nullable
+    private transient TreeCodec treeCodec = null;
 
     @SerializedName("l")
     public int lineOld;
@@ -44,6 +49,8 @@ public class CodeChange {
 
     // rank is only given if this is a result of a search query. This is the position in the list of candidate changes
     public transient int rank = 0;
+    // index of the code change in the corpus, -1 if it is not known
+    public transient int id = -1;
 
     public CodeChange(String codeChangeOld, String codeChangeNew) {
         this.codeChangeOld = codeChangeOld;
@@ -149,6 +156,15 @@ public class CodeChange {
         return this;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public CodeChange setId(int id) {
+        this.id = id;
+        return this;
+    }
+
     public String getProjectName() {
         return projectName;
     }
@@ -167,6 +183,25 @@ public class CodeChange {
         return this;
     }
 
+    /**
+     * @return the parse tree encoded by {@link #getTreeCodec()}, or null.
+     */
+    @Nullable
+    public byte[] getEncodedParseTree() {
+        return encodedParseTree;
+    }
+
+    @Nullable
+    public TreeCodec getTreeCodec() {
+        return treeCodec;
+    }
+
+    public CodeChange setEncodedParseTree(byte[] encodedParseTree, TreeCodec treeCodec) {
+        this.encodedParseTree = encodedParseTree;
+        this.treeCodec = treeCodec;
+        return this;
+    }
+
     public String getFileNameNew() {
         if (fileNameNew == null) {
             return fileNameOld;
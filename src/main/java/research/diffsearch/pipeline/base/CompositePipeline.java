@@ -0,0 +1,10 @@
+package research.diffsearch.pipeline.base;
+
+/**
+ * Marks pipelines that only combine other pipelines, such as connected pipelines. They are not
+ * stages of their own, so they are not instrumented by {@link PipelineMetrics}.
+ *
+ * @author Paul Bredl
+ */
+interface CompositePipeline<I, O> extends Pipeline<I, O> {
+}
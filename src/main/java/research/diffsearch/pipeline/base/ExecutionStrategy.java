@@ -0,0 +1,41 @@
+package research.diffsearch.pipeline.base;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Decides in which threads a {@link ParallelPipeline} processes its inputs.
+ *
+ * @author Paul Bredl
+ */
+public enum ExecutionStrategy {
+
+    /**
+     * Runs the inputs in the shared work-stealing pool, which has about one thread per processor.
+     * Best for stages that keep the CPU busy, such as parsing or matching.
+     */
+    WORK_STEALING {
+        @Override
+        public Executor getExecutor(int maxConcurrency) {
+            PipelineRuntime.ensureParallelism(maxConcurrency);
+            return new LimitedExecutor(PipelineRuntime::execute, maxConcurrency);
+        }
+    },
+
+    /**
+     * Runs each input in its own thread, on a virtual thread if the Java runtime supports them.
+     * Best for stages that mostly wait for subprocesses, the network or the disk, because the number
+     * of concurrent inputs is not tied to the number of processors.
+     */
+    VIRTUAL {
+        @Override
+        public Executor getExecutor(int maxConcurrency) {
+            return new LimitedExecutor(task -> PipelineRuntime.getIoExecutor().execute(task), maxConcurrency);
+        }
+    };
+
+    /**
+     * @param maxConcurrency maximum number of inputs that are processed at the same time.
+     * @return the executor for the inputs of one parallel pipeline.
+     */
+    public abstract Executor getExecutor(int maxConcurrency);
+}
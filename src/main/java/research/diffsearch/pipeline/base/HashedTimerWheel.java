@@ -0,0 +1,146 @@
+package research.diffsearch.pipeline.base;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timer for a large number of timeouts that are usually cancelled before they expire.
+ * <p>
+ * Scheduling and cancelling are constant time: a timeout is put into the bucket
+ * <code>deadlineTick % wheelSize</code> and cancelling only marks it. The wheel is advanced by
+ * calling {@link #tick()} once per tick duration, which expires the due timeouts of the current
+ * bucket and drops cancelled ones. Timeouts are therefore only as exact as the tick duration.
+ * The tasks of expired timeouts run in the given executor, not in the ticking thread.
+ *
+ * @author Paul Bredl
+ */
+public class HashedTimerWheel {
+
+    private final long tickNanos;
+    private final long startNanos = System.nanoTime();
+    private final List<List<Timeout>> buckets;
+    private final int mask;
+    // timeouts that are not yet sorted into a bucket
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Executor taskExecutor;
+    // next tick to process, only accessed by the ticking thread
+    private long currentTick = 0;
+
+    /**
+     * @param tickDuration duration of one tick.
+     * @param timeUnit     unit of the tick duration.
+     * @param wheelSize    number of buckets, rounded up to the next power of two.
+     * @param taskExecutor executor in which the tasks of expired timeouts run.
+     */
+    public HashedTimerWheel(long tickDuration, TimeUnit timeUnit, int wheelSize, Executor taskExecutor) {
+        this.tickNanos = Math.max(1, timeUnit.toNanos(tickDuration));
+        int size = Integer.highestOneBit(Math.max(1, wheelSize) * 2 - 1);
+        this.buckets = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        this.mask = size - 1;
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Schedules a task that runs after the given delay, unless the returned timeout is cancelled.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit timeUnit) {
+        long deadlineNanos = System.nanoTime() - startNanos + timeUnit.toNanos(delay);
+        // round up, a timeout must never expire early
+        var timeout = new Timeout(task, (deadlineNanos + tickNanos - 1) / tickNanos);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Advances the wheel to the current time. Must not be called by several threads at the same time.
+     */
+    public void tick() {
+        long targetTick = (System.nanoTime() - startNanos) / tickNanos;
+        while (currentTick <= targetTick) {
+            sortInPending();
+            expireBucket(buckets.get((int) (currentTick & mask)));
+            currentTick++;
+        }
+    }
+
+    private void sortInPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            // overdue timeouts go into the current bucket
+            long tick = Math.max(timeout.deadlineTick, currentTick);
+            timeout.remainingRounds = (tick - currentTick) / buckets.size();
+            buckets.get((int) (tick & mask)).add(timeout);
+        }
+    }
+
+    private void expireBucket(List<Timeout> bucket) {
+        int kept = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            var timeout = bucket.get(i);
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            if (timeout.remainingRounds <= 0) {
+                timeout.expire();
+            } else {
+                timeout.remainingRounds--;
+                bucket.set(kept++, timeout);
+            }
+        }
+        bucket.subList(kept, bucket.size()).clear();
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadlineTick;
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+        // full turns of the wheel until the deadline, only accessed by the ticking thread
+        private long remainingRounds;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Cancels the timeout.
+         *
+         * @return false, if the timeout already expired.
+         */
+        public boolean cancel() {
+            return state.compareAndSet(WAITING, CANCELLED) || state.get() == CANCELLED;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        private void expire() {
+            if (state.compareAndSet(WAITING, EXPIRED)) {
+                taskExecutor.execute(task);
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package research.diffsearch.pipeline.base;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Records the metrics of a pipeline stage: invocations, inputs in flight and the latency from
+ * receiving an input until its result is passed on.
+ *
+ * @author Paul Bredl
+ */
+public class InstrumentedPipeline<I, O> implements Pipeline<I, O> {
+
+    private final Pipeline<I, O> basePipeline;
+    private final StageMetrics metrics;
+
+    public InstrumentedPipeline(Pipeline<I, O> basePipeline, StageMetrics metrics) {
+        this.basePipeline = basePipeline;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public O process(I input, int index) {
+        metrics.started();
+        long start = System.nanoTime();
+        try {
+            return basePipeline.process(input, index);
+        } finally {
+            metrics.finished(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void process(I input, int index, IndexedConsumer<O> outputConsumer) {
+        if (input == null) {
+            // absent values are only passed through
+            basePipeline.process(null, index, outputConsumer);
+            return;
+        }
+        metrics.started();
+        long start = System.nanoTime();
+        basePipeline.process(input, index, (result, index1) -> {
+            metrics.finished(System.nanoTime() - start);
+            outputConsumer.accept(result, index1);
+        });
+    }
+
+    @Override
+    public List<O> processBatch(List<I> inputs, int startIndex) {
+        long count = inputs.stream().filter(Objects::nonNull).count();
+        for (int i = 0; i < count; i++) {
+            metrics.started();
+        }
+        long start = System.nanoTime();
+        var results = basePipeline.processBatch(inputs, startIndex);
+        // the latency of a batch is shared by its inputs
+        long latency = count == 0 ? 0 : (System.nanoTime() - start) / count;
+        for (int i = 0; i < count; i++) {
+            metrics.finished(latency);
+        }
+        return results;
+    }
+
+    @Override
+    public void before(int size) {
+        basePipeline.before(size);
+    }
+
+    @Override
+    public void after() {
+        basePipeline.after();
+    }
+
+    @Override
+    public String getName() {
+        return basePipeline.getName();
+    }
+}
@@ -0,0 +1,59 @@
+package research.diffsearch.pipeline.base;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor that runs tasks in a shared executor, but never more than a fixed number at the same
+ * time. Replaces a fixed thread pool per pipeline without creating any threads.
+ *
+ * @author Paul Bredl
+ */
+public class LimitedExecutor implements Executor {
+
+    private final Executor baseExecutor;
+    private final int maxConcurrency;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    // number of drain loops that are submitted to the base executor
+    private final AtomicInteger active = new AtomicInteger(0);
+
+    /**
+     * @param baseExecutor   the executor that runs the tasks.
+     * @param maxConcurrency maximum number of tasks that run at the same time.
+     */
+    public LimitedExecutor(Executor baseExecutor, int maxConcurrency) {
+        this.baseExecutor = baseExecutor;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        tasks.add(task);
+        startDrainLoop();
+    }
+
+    private void startDrainLoop() {
+        int current;
+        while ((current = active.get()) < maxConcurrency && !tasks.isEmpty()) {
+            if (active.compareAndSet(current, current + 1)) {
+                baseExecutor.execute(this::drain);
+                return;
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        } finally {
+            active.decrementAndGet();
+            // a task may have been added after the last poll but before the decrement
+            startDrainLoop();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package research.diffsearch.pipeline.base;
+
+import java.util.List;
+
+/**
+ * Pipeline that behaves like its base pipeline, but has another name.
+ *
+ * @author Paul Bredl
+ */
+public class NamedPipeline<I, O> implements Pipeline<I, O> {
+
+    private final Pipeline<I, O> basePipeline;
+    private final String name;
+
+    public NamedPipeline(Pipeline<I, O> basePipeline, String name) {
+        this.basePipeline = basePipeline;
+        this.name = name;
+    }
+
+    @Override
+    public O process(I input, int index) {
+        return basePipeline.process(input, index);
+    }
+
+    @Override
+    public void process(I input, int index, IndexedConsumer<O> outputConsumer) {
+        basePipeline.process(input, index, outputConsumer);
+    }
+
+    @Override
+    public List<O> processBatch(List<I> inputs, int startIndex) {
+        return basePipeline.processBatch(inputs, startIndex);
+    }
+
+    @Override
+    public void before(int size) {
+        basePipeline.before(size);
+    }
+
+    @Override
+    public void after() {
+        basePipeline.after();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+}
@@ -3,30 +3,41 @@ package research.diffsearch.pipeline.base;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
 
 /**
  * Pipeline that processes inputs in other threads, but synchronizes the outputs so
  * they get returned in the right order.
+ * <p>
+ * The number of inputs in flight (submitted, but not yet passed on) is bounded. If the limit is
+ * reached, {@link #process(Object, int, IndexedConsumer)} blocks until a result leaves this pipeline,
+ * so the producer can never run ahead of the workers.
+ * <p>
+ * The outputs are brought into order by a {@link RingBufferSequencer}: the worker thread that finishes
+ * the next expected input passes on all consecutive outputs, so no synchronization thread is needed.
+ * <p>
+ * The inputs are processed in the shared threads of the {@link PipelineRuntime}, at most
+ * <code>threadCount</code> at the same time, so creating a parallel pipeline does not create threads.
+ * The {@link ExecutionStrategy} decides whether the work-stealing pool or the I/O executor is used.
  *
  * @author Paul Bredl
  */
 public class ParallelPipeline<I, O> implements Pipeline<I, O> {
 
+    /**
+     * Number of inputs per thread that may be in flight if no explicit limit is given.
+     */
+    public static final int DEFAULT_IN_FLIGHT_PER_THREAD = 64;
+
     // pipeline to parallelize
     private final Pipeline<I, O> basePipeline;
-    // queued results to synchronize
-    private final Map<Integer, Optional<O>> queue = new ConcurrentSkipListMap<>();
-    // current index of processing
-    private final AtomicInteger currentIndex = new AtomicInteger();
+    // brings the results into order, null if they are passed on unordered
+    private final RingBufferSequencer<O> sequencer;
+    // permits for inputs that are submitted but not yet passed on
+    private final Semaphore inFlight;
 
-    private final ExecutorService executorService;
-    private final ExecutorService syncExecutorService = Executors.newSingleThreadExecutor();
+    private final Executor executor;
 
     private final Logger logger = LoggerFactory.getLogger(ParallelPipeline.class);
 
@@ -37,55 +48,90 @@ public class ParallelPipeline<I, O> implements Pipeline<I, O> {
      * @param threadCount  number of threads in which the pipeline gets executed.
      */
     public ParallelPipeline(Pipeline<I, O> basePipeline, int threadCount) {
+        this(basePipeline, threadCount, Math.max(1, threadCount) * DEFAULT_IN_FLIGHT_PER_THREAD);
+    }
+
+    /**
+     * Creates a new parallel pipeline wrapping the given pipeline.
+     *
+     * @param basePipeline pipeline which should be executed in parallel.
+     * @param threadCount  number of threads in which the pipeline gets executed.
+     * @param maxInFlight  maximum number of inputs that are queued, processed or waiting to be
+     *                     passed on in order at the same time.
+     */
+    public ParallelPipeline(Pipeline<I, O> basePipeline, int threadCount, int maxInFlight) {
+        this(basePipeline, threadCount, maxInFlight, ExecutionStrategy.WORK_STEALING);
+    }
+
+    /**
+     * Creates a new parallel pipeline wrapping the given pipeline.
+     *
+     * @param basePipeline pipeline which should be executed in parallel.
+     * @param threadCount  number of inputs that get processed at the same time.
+     * @param maxInFlight  maximum number of inputs that are queued, processed or waiting to be
+     *                     passed on in order at the same time.
+     * @param strategy     decides in which threads the inputs are processed.
+     */
+    public ParallelPipeline(Pipeline<I, O> basePipeline, int threadCount, int maxInFlight,
+                            ExecutionStrategy strategy) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1, but was " + maxInFlight);
+        }
         this.basePipeline = basePipeline;
-        executorService = Executors.newFixedThreadPool(threadCount);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.executor = strategy.getExecutor(threadCount);
+        if (reordersResults()) {
+            // at most maxInFlight results can wait for a preceding result
+            this.sequencer = new RingBufferSequencer<>(maxInFlight);
+            if (PipelineMetrics.isEnabled()) {
+                PipelineMetrics.getStage(getName()).setReorderDepth(sequencer::getWaitingCount);
+            }
+        } else {
+            this.sequencer = null;
+        }
+    }
+
+    /**
+     * @return true, if the results are passed on in the order of the inputs. Called by the constructor,
+     * so it must not depend on the state of the subclass.
+     */
+    protected boolean reordersResults() {
+        return true;
     }
 
     @Override
     public void before(int size) {
-        queue.clear();
         basePipeline.before(size);
     }
 
-    private void passOnResult(O o, int innerIndex, IndexedConsumer<O> outputConsumer) {
-        synchronized (currentIndex) {
-            if (innerIndex == currentIndex.get()) {
-                currentIndex.getAndIncrement();
-
-                outputConsumer.accept(o, innerIndex);
-            } else {
-                // process later
-                queue.put(innerIndex, Optional.ofNullable(o));
-            }
-        }
+    /**
+     * Called by the worker threads as soon as the result for an input is available.
+     */
+    protected void passOnResult(O o, int innerIndex, IndexedConsumer<O> outputConsumer) {
+        sequencer.publish(o, innerIndex, (result, index) -> emit(result, index, outputConsumer));
     }
 
-    private void manageQueue(O o, int innerIndex, IndexedConsumer<O> outputConsumer) {
-        // synchronize in synchronizer thread
-        syncExecutorService.submit(() -> {
-            try {
-                passOnResult(o, innerIndex, outputConsumer);
-                // check queued vales
-                for (var entry : queue.entrySet()) {
-                    synchronized (currentIndex) {
-                        if (entry.getKey() == currentIndex.get()) {
-                            queue.remove(entry.getKey());
-                            passOnResult(entry.getValue().orElse(null), entry.getKey(), outputConsumer);
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                logger.error(e.getMessage(), e);
-            }
-        });
+    /**
+     * Passes a result to the next pipeline and frees its in-flight permit.
+     */
+    protected void emit(O result, int index, IndexedConsumer<O> outputConsumer) {
+        try {
+            outputConsumer.accept(result, index);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+        } finally {
+            inFlight.release();
+        }
     }
 
     @Override
     public void process(I input, int index, IndexedConsumer<O> outputConsumer) {
-        executorService.submit(() -> {
+        // blocks the producer while the pipeline is saturated
+        PipelineRuntime.acquire(inFlight);
+        executor.execute(() -> {
             try {
                 basePipeline.process(input, index,
-                        (o, innerIndex) -> ParallelPipeline.this.manageQueue(o, innerIndex, outputConsumer));
+                        (o, innerIndex) -> ParallelPipeline.this.passOnResult(o, innerIndex, outputConsumer));
             } catch (Exception e) {
                 logger.error(e.getMessage(), e);
                 e.printStackTrace();
@@ -100,10 +146,13 @@ public class ParallelPipeline<I, O> implements Pipeline<I, O> {
 
     @Override
     public void after() {
-        executorService.shutdown();
-        syncExecutorService.shutdown();
         basePipeline.after();
     }
 
+    @Override
+    public String getName() {
+        return "parallel(" + basePipeline.getName() + ")";
+    }
+
 
 }
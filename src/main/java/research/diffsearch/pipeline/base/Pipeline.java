@@ -1,7 +1,10 @@
 package research.diffsearch.pipeline.base;
 
+import research.diffsearch.Config;
+
 import java.util.*;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.*;
@@ -49,6 +52,26 @@ public interface Pipeline<I, O> {
         }
     }
 
+    /**
+     * Processes a batch of inputs at once.
+     *
+     * @param inputs     the inputs. Can contain null, representing an absent value.
+     * @param startIndex the index of the first input, the inputs of a batch built from ordered
+     *                   inputs have consecutive indices.
+     * @return the results in the order of the inputs, null for absent or filtered out inputs.
+     * @implNote the default implementation calls {@link #process(Object, int)} for each input.
+     * Subclasses should overwrite this if they can amortize work over many inputs, such as
+     * writing a file.
+     */
+    default List<O> processBatch(List<I> inputs, int startIndex) {
+        var results = new ArrayList<O>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            var input = inputs.get(i);
+            results.add(input == null ? null : process(input, startIndex + i));
+        }
+        return results;
+    }
+
     /**
      * Executes the pipeline on the given inputs.
      *
@@ -57,9 +80,37 @@ public interface Pipeline<I, O> {
      * @return the calculated outputs.
      */
     default List<O> execute(Iterable<I> inputs, int size) {
+        return execute(inputs, size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Executes the pipeline on the given inputs. At most <code>maxInFlight</code> inputs are
+     * processed at the same time, reading the next input blocks until an earlier one is finished.
+     *
+     * @param inputs      the inputs to process
+     * @param size        the number of inputs
+     * @param maxInFlight maximum number of inputs that are read but not yet processed.
+     * @return the calculated outputs.
+     */
+    default List<O> execute(Iterable<I> inputs, int size, int maxInFlight) {
+        var collectedResults = new ArrayList<O>();
+
+        return execute(inputs, size, maxInFlight, CancellationToken.NONE, collectedResults);
+    }
+
+    /**
+     * Executes the pipeline on the given inputs until the stop token is cancelled. After that, no more
+     * inputs are read and the remaining indices are passed through the pipeline as absent values, so
+     * the pipeline finishes as soon as the inputs in progress are done.
+     *
+     * @param inputs    the inputs to process
+     * @param stopToken stops reading inputs if cancelled.
+     * @return the outputs calculated until the pipeline was stopped.
+     */
+    default List<O> execute(Collection<I> inputs, CancellationToken stopToken) {
         var collectedResults = new ArrayList<O>();
 
-        return execute(inputs, size, collectedResults);
+        return execute(inputs, inputs.size(), Integer.MAX_VALUE, stopToken, collectedResults);
     }
 
     /**
@@ -82,54 +133,60 @@ public interface Pipeline<I, O> {
         return execute(List.of(input)).stream().findFirst();
     }
 
-    private List<O> execute(Iterable<I> inputs, int size, ArrayList<O> collectedResults) {
+    private List<O> execute(Iterable<I> inputs, int size, int maxInFlight, CancellationToken stopToken,
+                            ArrayList<O> collectedResults) {
         if (!inputs.iterator().hasNext()) {
             return Collections.emptyList();
         }
-        Object sync = new Object();
-        var executor = Executors.newSingleThreadExecutor();
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1, but was " + maxInFlight);
+        }
+        var finished = new CountDownLatch(1);
+        var pipeline = PipelineMetrics.instrument(this);
 
-        before(size);
+        pipeline.before(size);
 
-        executor.submit(() -> processAllInputs(inputs, size, sync, collectedResults));
+        PipelineRuntime.getProducerPool().execute(() ->
+                processAllInputs(pipeline, inputs, size, new Semaphore(maxInFlight), stopToken, finished,
+                        collectedResults));
 
-        synchronized (sync) {
-            try {
-                sync.wait();
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        }
-        after();
-        executor.shutdown();
+        PipelineRuntime.await(finished);
+        pipeline.after();
         return collectedResults;
     }
 
-    private void processAllInputs(Iterable<I> inputs, int size, Object sync, ArrayList<O> collectedResults) {
+    private static <I, O> void processAllInputs(Pipeline<I, O> pipeline, Iterable<I> inputs, int size,
+                                                Semaphore inFlight, CancellationToken stopToken,
+                                                CountDownLatch finished, ArrayList<O> collectedResults) {
         int index = 0;
         AtomicInteger processed = new AtomicInteger(0);
 
-        for (I input : inputs) {
-            process(input, index, (result, index1) -> {
-                synchronized (processed) {
-                    processed.getAndIncrement();
-                }
-                if (collectedResults != null && result != null) {
-                    synchronized (collectedResults) {
-                        collectedResults.add(result);
-                    }
+        IndexedConsumer<O> resultConsumer = (result, index1) -> {
+            if (collectedResults != null && result != null) {
+                synchronized (collectedResults) {
+                    collectedResults.add(result);
                 }
-                synchronized (processed) {
-                    if (processed.get() >= size) {
-                        // all inputs processed
-                        synchronized (sync) {
-                            sync.notifyAll();
-                        }
-                    }
-                }
-            });
+            }
+            inFlight.release();
+            if (processed.incrementAndGet() >= size) {
+                // all inputs processed
+                finished.countDown();
+            }
+        };
+
+        for (I input : inputs) {
+            if (stopToken.isCancelled()) {
+                break;
+            }
+            PipelineRuntime.acquire(inFlight);
+            pipeline.process(input, index, resultConsumer);
             index++;
         }
+        // inputs that are not read are absent
+        for (; index < size; index++) {
+            PipelineRuntime.acquire(inFlight);
+            pipeline.process(null, index, resultConsumer);
+        }
     }
 
     /**
@@ -139,7 +196,18 @@ public interface Pipeline<I, O> {
      * @param size   number of inputs.
      */
     default void executeIgnoreResults(Iterable<I> inputs, int size) {
-        execute(inputs, size, null);
+        executeIgnoreResults(inputs, size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Executes the pipeline on all given inputs but does not collect the results.
+     *
+     * @param inputs      inputs that should be processed.
+     * @param size        number of inputs.
+     * @param maxInFlight maximum number of inputs that are read but not yet processed.
+     */
+    default void executeIgnoreResults(Iterable<I> inputs, int size, int maxInFlight) {
+        execute(inputs, size, maxInFlight, CancellationToken.NONE, null);
     }
 
     /**
@@ -158,11 +226,14 @@ public interface Pipeline<I, O> {
      * @return a pipeline object that combines this and the other pipeline.
      */
     default <N> Pipeline<I, N> connect(Pipeline<O, N> otherPipeline) {
-        return new Pipeline<>() {
+        var first = PipelineMetrics.instrument(this);
+        var second = PipelineMetrics.instrument(otherPipeline);
+
+        return new CompositePipeline<>() {
             @Override
             public void before(int size) {
-                Pipeline.this.before(size);
-                otherPipeline.before(size);
+                first.before(size);
+                second.before(size);
             }
 
             @Override
@@ -172,14 +243,24 @@ public interface Pipeline<I, O> {
 
             @Override
             public void process(I input, int index, IndexedConsumer<N> outputConsumer) {
-                Pipeline.this.process(input, index, (firstOutput, index2) ->
-                        otherPipeline.process(firstOutput, index2, outputConsumer));
+                first.process(input, index, (firstOutput, index2) ->
+                        second.process(firstOutput, index2, outputConsumer));
+            }
+
+            @Override
+            public List<N> processBatch(List<I> inputs, int startIndex) {
+                return second.processBatch(first.processBatch(inputs, startIndex), startIndex);
             }
 
             @Override
             public void after() {
-                Pipeline.this.after();
-                otherPipeline.after();
+                first.after();
+                second.after();
+            }
+
+            @Override
+            public String getName() {
+                return first.getName() + " -> " + second.getName();
             }
         };
     }
@@ -211,7 +292,7 @@ public interface Pipeline<I, O> {
     }
 
     default Pipeline<I, O> peek(Consumer<O> watcher) {
-        return new Pipeline<>() {
+        return new CompositePipeline<>() {
             @Override
             public void before(int size) {
                 Pipeline.this.before(size);
@@ -233,15 +314,31 @@ public interface Pipeline<I, O> {
                 });
             }
 
+            @Override
+            public List<O> processBatch(List<I> inputs, int startIndex) {
+                var results = Pipeline.this.processBatch(inputs, startIndex);
+                for (int i = 0; i < results.size(); i++) {
+                    if (inputs.get(i) != null) {
+                        watcher.accept(results.get(i));
+                    }
+                }
+                return results;
+            }
+
             @Override
             public void after() {
                 Pipeline.this.after();
             }
+
+            @Override
+            public String getName() {
+                return Pipeline.this.getName();
+            }
         };
     }
 
     default Pipeline<I, O> peek(BiConsumer<O, Integer> watcher) {
-        return new Pipeline<>() {
+        return new CompositePipeline<>() {
             @Override
             public void before(int size) {
                 Pipeline.this.before(size);
@@ -262,10 +359,26 @@ public interface Pipeline<I, O> {
                 });
             }
 
+            @Override
+            public List<O> processBatch(List<I> inputs, int startIndex) {
+                var results = Pipeline.this.processBatch(inputs, startIndex);
+                for (int i = 0; i < results.size(); i++) {
+                    if (inputs.get(i) != null) {
+                        watcher.accept(results.get(i), startIndex + i);
+                    }
+                }
+                return results;
+            }
+
             @Override
             public void after() {
                 Pipeline.this.after();
             }
+
+            @Override
+            public String getName() {
+                return Pipeline.this.getName();
+            }
         };
     }
 
@@ -277,10 +390,82 @@ public interface Pipeline<I, O> {
         return new ParallelPipeline<>(this, threadCount);
     }
 
+    /**
+     * Executes this pipeline in parallel. Blocks the producer as soon as
+     * <code>maxInFlight</code> inputs are not yet passed on.
+     */
+    default Pipeline<I, O> parallelUntilHere(int threadCount, int maxInFlight) {
+        return new ParallelPipeline<>(this, threadCount, maxInFlight);
+    }
+
+    /**
+     * Executes this pipeline in parallel for I/O-bound work, such as running subprocesses or reading
+     * files. Each input runs in its own (virtual, if supported) thread, at most
+     * {@link Config#ioConcurrency} at the same time.
+     */
+    default Pipeline<I, O> parallelVirtual() {
+        return parallelVirtual(Config.ioConcurrency);
+    }
+
+    /**
+     * Executes this pipeline in parallel for I/O-bound work with at most <code>maxConcurrency</code>
+     * inputs at the same time. The outputs keep their order.
+     */
+    default Pipeline<I, O> parallelVirtual(int maxConcurrency) {
+        return new ParallelPipeline<>(this, maxConcurrency,
+                Math.max(1, maxConcurrency) * ParallelPipeline.DEFAULT_IN_FLIGHT_PER_THREAD,
+                ExecutionStrategy.VIRTUAL);
+    }
+
+    /**
+     * Executes this pipeline in parallel, but passes on the results in the order they are finished
+     * instead of the order of the inputs. The results keep their index.
+     */
+    default Pipeline<I, O> unorderedParallel(int threadCount) {
+        return new UnorderedParallelPipeline<>(this, threadCount);
+    }
+
+    /**
+     * Collects the inputs of this pipeline into batches of <code>batchSize</code> and processes
+     * them with {@link #processBatch(List, int)}. This pipeline must process its inputs synchronously.
+     * Use it after a parallel pipeline, see {@link BatchingPipeline}.
+     */
+    default Pipeline<I, O> batched(int batchSize) {
+        return new BatchingPipeline<>(this, batchSize);
+    }
+
     default Pipeline<I, O> withTimeout(int timeout, TimeUnit timeUnit, O defaultResult) {
         return new TimeoutPipeline<>(timeout, timeUnit, this, defaultResult);
     }
 
+    /**
+     * Gives this pipeline a name, which identifies it in the {@link PipelineMetrics}.
+     */
+    default Pipeline<I, O> named(String name) {
+        return new NamedPipeline<>(this, name);
+    }
+
+    /**
+     * @return the name of this pipeline stage for metrics and logging. By default the class name,
+     * or the name of the defining class for lambdas and anonymous classes. Lambdas and method
+     * references get a suffix that is unique per declaration, so that the stages of one class do
+     * not share their metrics. Use {@link #named(String)} for a readable name.
+     */
+    default String getName() {
+        return getStageName(this);
+    }
+
+    private static String getStageName(Object stage) {
+        var className = stage.getClass().getName();
+        int lambdaIndex = className.indexOf("$$Lambda");
+        if (lambdaIndex >= 0) {
+            // one class is generated per lambda expression or method reference
+            className = className.substring(0, lambdaIndex) + " lambda@"
+                    + Integer.toHexString(System.identityHashCode(stage.getClass()));
+        }
+        return className.substring(className.lastIndexOf('.') + 1);
+    }
+
     /**
      * This method is called before the first input gets processed.
      *
@@ -298,30 +483,40 @@ public interface Pipeline<I, O> {
     }
 
     static <T> Pipeline<T, T> getFilter(Predicate<T> predicate) {
-        return (input, index) -> {
-            if (predicate.test(input)) {
-                return input;
-            } else {
-                return null;
-            }
-        };
+        return getFilter((input, index) -> predicate.test(input), predicate);
     }
 
     static <T> Pipeline<T, T> getFilter(BiPredicate<T, Integer> predicate) {
-        return (input, index) -> {
-            if (predicate.test(input, index)) {
-                return input;
-            } else {
-                return null;
-            }
-        };
+        return getFilter(predicate, predicate);
+    }
+
+    private static <T> Pipeline<T, T> getFilter(BiPredicate<T, Integer> predicate, Object declaration) {
+        return from((input, index) -> predicate.test(input, index) ? input : null, declaration);
     }
 
     static <T, R> Pipeline<T, R> from(Function<T, R> function) {
-        return (input, index) -> function.apply(input);
+        return from((input, index) -> function.apply(input), function);
     }
 
     static <T, R> Pipeline<T, R> from(BiFunction<T, Integer, R> function) {
-        return function::apply;
+        return from(function, function);
+    }
+
+    /**
+     * @param declaration the lambda or object the stage is named after, instead of the
+     *                    wrapping lambda of this interface.
+     */
+    private static <T, R> Pipeline<T, R> from(BiFunction<T, Integer, R> function, Object declaration) {
+        return new Pipeline<>() {
+            @Override
+            public R process(T input, int index) {
+                return function.apply(input, index);
+            }
+
+            @Override
+            public String getName() {
+                return getStageName(declaration);
+            }
+        };
     }
 }
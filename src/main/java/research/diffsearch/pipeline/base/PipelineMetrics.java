@@ -0,0 +1,80 @@
+package research.diffsearch.pipeline.base;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide registry of the metrics of all pipeline stages. If enabled, each stage of a connected
+ * or executed pipeline is wrapped in an {@link InstrumentedPipeline} when the pipeline is built, so
+ * it must be enabled before the pipelines are created. Disabled by default, then it has no overhead.
+ * <p>
+ * Stages are identified by {@link Pipeline#getName()}, stages with the same name share their metrics.
+ *
+ * @author Paul Bredl
+ */
+public final class PipelineMetrics {
+
+    private static volatile boolean enabled = false;
+    private static final Map<String, StageMetrics> stages = new LinkedHashMap<>();
+
+    private PipelineMetrics() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        PipelineMetrics.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the metrics of the stage with the given name, created if necessary.
+     */
+    public static StageMetrics getStage(String name) {
+        synchronized (stages) {
+            return stages.computeIfAbsent(name, StageMetrics::new);
+        }
+    }
+
+    /**
+     * @return the metrics of all stages in the order the stages were created.
+     */
+    public static List<StageMetrics> getStages() {
+        synchronized (stages) {
+            return new ArrayList<>(stages.values());
+        }
+    }
+
+    /**
+     * Removes the metrics of all stages.
+     */
+    public static void reset() {
+        synchronized (stages) {
+            stages.clear();
+        }
+    }
+
+    /**
+     * @return one line per stage with its current metrics.
+     */
+    public static String report() {
+        var report = new StringBuilder("Pipeline metrics:");
+        for (var stage : getStages()) {
+            report.append(System.lineSeparator()).append("  ").append(stage);
+        }
+        return report.toString();
+    }
+
+    /**
+     * Wraps the pipeline so its metrics are recorded, if metrics are enabled.
+     */
+    static <I, O> Pipeline<I, O> instrument(Pipeline<I, O> pipeline) {
+        if (!enabled || pipeline instanceof InstrumentedPipeline || pipeline instanceof CompositePipeline) {
+            return pipeline;
+        }
+        return new InstrumentedPipeline<>(pipeline, getStage(pipeline.getName()));
+    }
+}
@@ -0,0 +1,254 @@
+package research.diffsearch.pipeline.base;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide threads shared by all pipelines: a work-stealing pool for the parallel pipelines,
+ * an executor for I/O-bound stages, a pool for the threads that feed inputs into a pipeline and a
+ * single timer. The timer drives a
+ * {@link HashedTimerWheel} for the timeouts of the pipelines.
+ * <p>
+ * The threads are created lazily and live until {@link #shutdown()} is called. After a shutdown the
+ * runtime is created again on the next use, so several apps can run one after another.
+ *
+ * @author Paul Bredl
+ */
+public final class PipelineRuntime {
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelineRuntime.class);
+
+    /**
+     * Resolution of the timeouts of the timer wheel in milliseconds.
+     */
+    public static final long TIMER_WHEEL_TICK_MILLIS = 100;
+    private static final int TIMER_WHEEL_SIZE = 512;
+
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private static volatile ForkJoinPool workerPool = null;
+    private static volatile ExecutorService producerPool = null;
+    private static volatile ExecutorService ioExecutor = null;
+    private static volatile ScheduledThreadPoolExecutor timer = null;
+    private static volatile HashedTimerWheel timerWheel = null;
+
+    private PipelineRuntime() {
+    }
+
+    /**
+     * Makes sure the worker pool has at least the given number of threads. If the current pool is
+     * smaller, it is replaced by a larger one and finishes the tasks that are already submitted.
+     *
+     * @param threadCount number of tasks that should be able to run at the same time.
+     */
+    public static synchronized void ensureParallelism(int threadCount) {
+        if (threadCount <= parallelism) {
+            return;
+        }
+        parallelism = threadCount;
+        if (workerPool != null) {
+            workerPool.shutdown();
+            workerPool = null;
+        }
+    }
+
+    /**
+     * Runs the task in the worker pool.
+     */
+    public static void execute(Runnable task) {
+        while (true) {
+            var pool = getWorkerPool();
+            try {
+                pool.execute(task);
+                return;
+            } catch (RejectedExecutionException e) {
+                if (!pool.isShutdown()) {
+                    throw e;
+                }
+                // the pool was replaced in the meantime, try the new one
+            }
+        }
+    }
+
+    /**
+     * @return the work-stealing pool in which parallel pipelines process their inputs.
+     */
+    public static ForkJoinPool getWorkerPool() {
+        var pool = workerPool;
+        if (pool != null && !pool.isShutdown()) {
+            return pool;
+        }
+        return createWorkerPool();
+    }
+
+    private static synchronized ForkJoinPool createWorkerPool() {
+        if (workerPool == null || workerPool.isShutdown()) {
+            workerPool = new ForkJoinPool(parallelism, pool -> {
+                var thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("pipeline-worker-" + thread.getPoolIndex());
+                return thread;
+            }, (thread, e) -> logger.error(e.getMessage(), e), true);
+        }
+        return workerPool;
+    }
+
+    /**
+     * @return the executor for I/O-bound stages. Starts a virtual thread per task if the Java runtime
+     * supports virtual threads (Java 21 or newer), otherwise a thread of a growing thread pool.
+     */
+    public static ExecutorService getIoExecutor() {
+        var executor = ioExecutor;
+        if (executor != null && !executor.isShutdown()) {
+            return executor;
+        }
+        return createIoExecutor();
+    }
+
+    private static synchronized ExecutorService createIoExecutor() {
+        if (ioExecutor == null || ioExecutor.isShutdown()) {
+            try {
+                // looked up at runtime, the project is compiled for Java 11
+                ioExecutor = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+                logger.debug("Using virtual threads for I/O stages");
+            } catch (ReflectiveOperationException e) {
+                ioExecutor = Executors.newCachedThreadPool(daemonThreadFactory("pipeline-io-"));
+            }
+        }
+        return ioExecutor;
+    }
+
+    /**
+     * @return the pool in which {@link Pipeline#execute} reads the inputs. These threads block while
+     * the pipeline is saturated, so they are not part of the worker pool.
+     */
+    public static synchronized ExecutorService getProducerPool() {
+        if (producerPool == null || producerPool.isShutdown()) {
+            producerPool = Executors.newCachedThreadPool(daemonThreadFactory("pipeline-producer-"));
+        }
+        return producerPool;
+    }
+
+    /**
+     * @return the timer for all timeouts of pipelines.
+     */
+    public static synchronized ScheduledExecutorService getTimer() {
+        if (timer == null || timer.isShutdown()) {
+            timer = new ScheduledThreadPoolExecutor(1, daemonThreadFactory("pipeline-timer-"));
+            // cancelled timeouts should not stay in the queue until they are due
+            timer.setRemoveOnCancelPolicy(true);
+        }
+        return timer;
+    }
+
+    /**
+     * @return the timer wheel for the timeouts of all pipelines. Expired tasks run in the worker pool.
+     */
+    public static HashedTimerWheel getTimerWheel() {
+        var wheel = timerWheel;
+        if (wheel != null) {
+            return wheel;
+        }
+        return createTimerWheel();
+    }
+
+    private static synchronized HashedTimerWheel createTimerWheel() {
+        if (timerWheel == null) {
+            var wheel = new HashedTimerWheel(TIMER_WHEEL_TICK_MILLIS, TimeUnit.MILLISECONDS, TIMER_WHEEL_SIZE,
+                    PipelineRuntime::execute);
+            getTimer().scheduleAtFixedRate(() -> {
+                try {
+                    wheel.tick();
+                } catch (Exception e) {
+                    // an exception would stop the periodic task
+                    logger.error(e.getMessage(), e);
+                }
+            }, TIMER_WHEEL_TICK_MILLIS, TIMER_WHEEL_TICK_MILLIS, TimeUnit.MILLISECONDS);
+            timerWheel = wheel;
+        }
+        return timerWheel;
+    }
+
+    /**
+     * Acquires a permit of the semaphore. If called from a worker thread, the pool may start
+     * another thread while this one is blocked, so blocked stages cannot starve the pool.
+     */
+    public static void acquire(Semaphore semaphore) {
+        block(new ForkJoinPool.ManagedBlocker() {
+            @Override
+            public boolean block() throws InterruptedException {
+                semaphore.acquire();
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return semaphore.tryAcquire();
+            }
+        });
+    }
+
+    /**
+     * Waits for the latch. If called from a worker thread, the pool may start another thread
+     * while this one is blocked.
+     */
+    public static void await(CountDownLatch latch) {
+        block(new ForkJoinPool.ManagedBlocker() {
+            @Override
+            public boolean block() throws InterruptedException {
+                latch.await();
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                return latch.getCount() == 0;
+            }
+        });
+    }
+
+    private static void block(ForkJoinPool.ManagedBlocker blocker) {
+        try {
+            ForkJoinPool.managedBlock(blocker);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Stops all threads of the runtime. Tasks that are already submitted are still executed.
+     */
+    public static synchronized void shutdown() {
+        if (workerPool != null) {
+            workerPool.shutdown();
+            workerPool = null;
+        }
+        if (producerPool != null) {
+            producerPool.shutdown();
+            producerPool = null;
+        }
+        if (ioExecutor != null) {
+            ioExecutor.shutdown();
+            ioExecutor = null;
+        }
+        if (timer != null) {
+            timer.shutdown();
+            timer = null;
+        }
+        timerWheel = null;
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        var counter = new AtomicInteger();
+        return runnable -> {
+            var thread = new Thread(runnable, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
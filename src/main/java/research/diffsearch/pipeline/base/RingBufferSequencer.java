@@ -0,0 +1,124 @@
+package research.diffsearch.pipeline.base;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Passes on results that arrive in arbitrary order strictly ordered by their index, starting at index 0.
+ * <p>
+ * Results are stored in a ring buffer, the slot of an index is <code>index % capacity</code>. Whichever
+ * thread publishes the result the sequencer is waiting for drains all consecutive results, so there is
+ * no dedicated synchronization thread and no lock. Results are passed on by one thread at a time.
+ * Indices that are too far ahead for the ring buffer are kept in an overflow map until the ring buffer
+ * has caught up, this only happens if the inputs of the parallel pipeline arrive out of order.
+ *
+ * @param <O> type of the results
+ * @author Paul Bredl
+ */
+public class RingBufferSequencer<O> {
+
+    /**
+     * Upper bound of the ring buffer size, larger windows use the overflow map.
+     */
+    private static final int MAX_CAPACITY = 1 << 16;
+
+    private final AtomicReferenceArray<Entry<O>> slots;
+    private final int mask;
+    private final Map<Integer, Entry<O>> overflow = new ConcurrentHashMap<>();
+    // true while a thread passes on results
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+    // next index to pass on, only written by the draining thread
+    private volatile int nextIndex = 0;
+    // results that are published but not yet passed on
+    private final AtomicInteger waiting = new AtomicInteger(0);
+
+    /**
+     * @param capacity number of results that may wait for a preceding result. Rounded up to the
+     *                 next power of two.
+     */
+    public RingBufferSequencer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, Math.min(capacity, MAX_CAPACITY)) * 2 - 1);
+        slots = new AtomicReferenceArray<>(size);
+        mask = size - 1;
+    }
+
+    /**
+     * Publishes the result for the given index. If this is the next expected index, the calling
+     * thread passes on this result and all consecutive results that are already published.
+     *
+     * @param result   the result, may be null.
+     * @param index    the index of the result. Each index must be published exactly once.
+     * @param consumer gets called with the result as soon as all preceding results are passed on.
+     */
+    public void publish(O result, int index, IndexedConsumer<O> consumer) {
+        var entry = new Entry<>(result, consumer);
+        waiting.incrementAndGet();
+
+        if (index - nextIndex >= slots.length() || !slots.compareAndSet(index & mask, null, entry)) {
+            overflow.put(index, entry);
+        }
+        drain();
+    }
+
+    /**
+     * @return the index of the next result that will be passed on.
+     */
+    public int getNextIndex() {
+        return nextIndex;
+    }
+
+    /**
+     * @return the number of results that are published but wait for a preceding result.
+     */
+    public int getWaitingCount() {
+        return waiting.get();
+    }
+
+    private void drain() {
+        do {
+            if (!draining.compareAndSet(false, true)) {
+                // the draining thread checks for newly published results before it stops
+                return;
+            }
+            try {
+                Entry<O> entry;
+                while ((entry = take(nextIndex)) != null) {
+                    int index = nextIndex;
+                    nextIndex = index + 1;
+                    waiting.decrementAndGet();
+                    entry.consumer.accept(entry.result, index);
+                }
+            } finally {
+                draining.set(false);
+            }
+            // a result may have been published after the last check but before the flag was reset
+        } while (isPublished(nextIndex));
+    }
+
+    private Entry<O> take(int index) {
+        int slot = index & mask;
+        var entry = slots.get(slot);
+        if (entry != null) {
+            slots.set(slot, null);
+            return entry;
+        }
+        return overflow.remove(index);
+    }
+
+    private boolean isPublished(int index) {
+        return slots.get(index & mask) != null || overflow.containsKey(index);
+    }
+
+    private static class Entry<O> {
+        private final O result;
+        private final IndexedConsumer<O> consumer;
+
+        private Entry(O result, IndexedConsumer<O> consumer) {
+            this.result = result;
+            this.consumer = consumer;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package research.diffsearch.pipeline.base;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import static java.text.MessageFormat.format;
+
+/**
+ * Metrics of one pipeline stage. Stages with the same name share their metrics.
+ *
+ * @author Paul Bredl
+ */
+public class StageMetrics {
+
+    private final String name;
+    private final LongAdder invocations = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    // number of results waiting for a preceding result, only for ordered parallel pipelines
+    private volatile IntSupplier reorderDepth = null;
+    private final AtomicInteger maxReorderDepth = new AtomicInteger();
+
+    public StageMetrics(String name) {
+        this.name = name;
+    }
+
+    void started() {
+        invocations.increment();
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        updateReorderDepth();
+    }
+
+    void finished(long latencyNanos) {
+        inFlight.decrementAndGet();
+        latencies.record(latencyNanos);
+    }
+
+    void setReorderDepth(IntSupplier reorderDepth) {
+        this.reorderDepth = reorderDepth;
+    }
+
+    private void updateReorderDepth() {
+        var depth = reorderDepth;
+        if (depth != null) {
+            maxReorderDepth.accumulateAndGet(depth.getAsInt(), Math::max);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getInvocations() {
+        return invocations.sum();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight.get();
+    }
+
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /**
+     * @return the current number of results waiting to be passed on in order, or -1 if the stage
+     * does not reorder its results.
+     */
+    public int getReorderDepth() {
+        var depth = reorderDepth;
+        return depth == null ? -1 : depth.getAsInt();
+    }
+
+    public int getMaxReorderDepth() {
+        return maxReorderDepth.get();
+    }
+
+    @Override
+    public String toString() {
+        var text = format("{0}: {1} calls, in flight {2} (max {3}), mean {4,number,#.###} ms, "
+                          + "p50 {5,number,#.###} ms, p99 {6,number,#.###} ms, max {7,number,#.###} ms",
+                name, getInvocations(), getInFlight(), getMaxInFlight(), latencies.getMeanMillis(),
+                latencies.getPercentileMillis(0.5), latencies.getPercentileMillis(0.99), latencies.getMaxMillis());
+        if (reorderDepth != null) {
+            text += format(", reorder queue {0} (max {1})", getReorderDepth(), getMaxReorderDepth());
+        }
+        return text;
+    }
+}
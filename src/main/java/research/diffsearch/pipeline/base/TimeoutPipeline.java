@@ -1,21 +1,26 @@
 package research.diffsearch.pipeline.base;
 
+import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Pipeline that times out the processing of an input after a certain time.
+ * Pipeline that times out the processing of an input after a certain time. The timeouts are
+ * scheduled in the shared timer wheel of the {@link PipelineRuntime}.
+ * <p>
+ * Each input gets a {@link CancellationToken} that is cancelled when the timeout expires. It is the
+ * current token while the base pipeline processes the input, so the base pipeline can stop working
+ * on inputs that already timed out.
  *
  * @author Paul Bredl
  */
 public class TimeoutPipeline<I, O> implements Pipeline<I, O> {
 
-    private volatile boolean[] processed;
+    private static final Logger logger = LoggerFactory.getLogger(TimeoutPipeline.class);
+
     private final long timeoutMillis;
-    private ScheduledExecutorService executorService;
     private final Pipeline<I, O> basePipeline;
     private final O defaultResult;
 
@@ -32,32 +37,33 @@ public class TimeoutPipeline<I, O> implements Pipeline<I, O> {
 
     @Override
     public void process(I input, int index, IndexedConsumer<O> outputConsumer) {
+        // either the result or the timeout passes on a value, whichever comes first
+        var processed = new AtomicBoolean(false);
+        var cancellationToken = new CancellationToken();
+
         try {
-            executorService.schedule(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        if (!processed[index]) {
-                            processed[index] = true;
-                            LoggerFactory.getLogger(getClass()).warn("Timout for " + input.toString().lines().findFirst().orElse(" an input"));
-                            outputConsumer.accept(defaultResult, index);
-                        }
-                    } catch (Exception e) {
-                        e.printStackTrace();
+            var timeout = PipelineRuntime.getTimerWheel().schedule(() -> {
+                try {
+                    if (processed.compareAndSet(false, true)) {
+                        cancellationToken.cancel();
+                        logger.warn("Timout for " + String.valueOf(input).lines().findFirst().orElse(" an input"));
+                        outputConsumer.accept(defaultResult, index);
                     }
+                } catch (Exception e) {
+                    e.printStackTrace();
                 }
             }, timeoutMillis, TimeUnit.MILLISECONDS);
 
-            basePipeline.process(input, index, (result, index1) -> {
+            cancellationToken.runAsCurrent(() -> basePipeline.process(input, index, (result, index1) -> {
+                timeout.cancel();
                 try {
-                    if (!processed[index1]) {
-                        processed[index1] = true;
+                    if (processed.compareAndSet(false, true)) {
                         outputConsumer.accept(result, index1);
                     }
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
-            });
+            }));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -66,13 +72,15 @@ public class TimeoutPipeline<I, O> implements Pipeline<I, O> {
     @Override
     public void before(int size) {
         basePipeline.before(size);
-        executorService = Executors.newSingleThreadScheduledExecutor();
-        processed = new boolean[size];
     }
 
     @Override
     public void after() {
-        executorService.shutdown();
         basePipeline.after();
     }
+
+    @Override
+    public String getName() {
+        return "timeout(" + basePipeline.getName() + ")";
+    }
 }
@@ -0,0 +1,54 @@
+package research.diffsearch.pipeline.base;
+
+/**
+ * Pipeline that processes inputs in other threads and passes on each result as soon as it is
+ * available, regardless of its index. Use this if the order of the outputs does not matter, then
+ * a slow input does not hold back the results of the following inputs.
+ * <p>
+ * The results keep their original index. They are passed on by one thread at a time, so the
+ * following pipelines do not need to be thread safe.
+ *
+ * @author Paul Bredl
+ */
+public class UnorderedParallelPipeline<I, O> extends ParallelPipeline<I, O> {
+
+    private final Object emitLock = new Object();
+
+    /**
+     * Creates a new unordered parallel pipeline wrapping the given pipeline.
+     *
+     * @param basePipeline pipeline which should be executed in parallel.
+     * @param threadCount  number of threads in which the pipeline gets executed.
+     */
+    public UnorderedParallelPipeline(Pipeline<I, O> basePipeline, int threadCount) {
+        super(basePipeline, threadCount);
+    }
+
+    /**
+     * Creates a new unordered parallel pipeline wrapping the given pipeline.
+     *
+     * @param basePipeline pipeline which should be executed in parallel.
+     * @param threadCount  number of threads in which the pipeline gets executed.
+     * @param maxInFlight  maximum number of inputs that are queued or processed at the same time.
+     */
+    public UnorderedParallelPipeline(Pipeline<I, O> basePipeline, int threadCount, int maxInFlight) {
+        super(basePipeline, threadCount, maxInFlight);
+    }
+
+    @Override
+    protected boolean reordersResults() {
+        return false;
+    }
+
+    @Override
+    public String getName() {
+        return "unordered" + super.getName();
+    }
+
+    @Override
+    protected void passOnResult(O o, int innerIndex, IndexedConsumer<O> outputConsumer) {
+        synchronized (emitLock) {
+            emit(o, innerIndex, outputConsumer);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package research.diffsearch.pipeline.extraction;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import research.diffsearch.pipeline.base.ChangeOccurrence;
+import research.diffsearch.pipeline.base.CodeChange;
+import research.diffsearch.util.FilePathUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recognizes code changes that were already extracted, e.g. from a fork or a vendored copy of a project.
+ * Code changes are identified by a hash of their text with normalized whitespace. Only the first
+ * occurrence of a code change that can be parsed is stored, the others are kept as {@link ChangeOccurrence}s
+ * of it.
+ * <p>
+ * Copies that could not be parsed are not kept in memory, as most of them are never stored. The extractor
+ * writes them to a side file, which is resolved with {@link #addFailedOccurrences(String)} once all patch
+ * files are extracted.
+ * <p>
+ * One deduplicator is shared by the extractors of all patch files, it is thread-safe.
+ *
+ * @author Paul Bredl
+ */
+public class ChangeDeduplicator {
+
+    private static final Gson gson = new Gson();
+
+    private final Map<HashCode, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @return the key of the text of the code change, which is equal for code changes that only differ in
+     * whitespace.
+     */
+    public static HashCode getKey(String codeChangeOld, String codeChangeNew) {
+        return Hashing.murmur3_128().newHasher()
+                .putString(normalize(codeChangeOld), StandardCharsets.UTF_8)
+                .putString(" --> ", StandardCharsets.UTF_8)
+                .putString(normalize(codeChangeNew), StandardCharsets.UTF_8)
+                .hash();
+    }
+
+    private static String normalize(String code) {
+        return code.trim().replaceAll("\\s+", " ");
+    }
+
+    /**
+     * @return true, if a code change with the key is already stored, so the code change need not be parsed.
+     */
+    public boolean isClaimed(HashCode key) {
+        var entry = entries.get(key);
+        return entry != null && entry.isClaimed();
+    }
+
+    /**
+     * Marks the code change with the key as stored. Call this only after the code change was parsed
+     * successfully, so a later copy is still tried if an earlier one could not be parsed.
+     *
+     * @return true, if no other code change with the key was stored before.
+     */
+    public boolean claim(HashCode key) {
+        if (entries.computeIfAbsent(key, k -> new Entry()).claim()) {
+            size.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds the location of the code change to the occurrences of the key. Ignored if no code change with the
+     * key is stored.
+     */
+    public void addOccurrence(HashCode key, CodeChange change) {
+        addOccurrence(key, ChangeOccurrence.of(change));
+    }
+
+    private void addOccurrence(HashCode key, ChangeOccurrence occurrence) {
+        var entry = entries.get(key);
+        if (entry != null && entry.isClaimed()) {
+            entry.add(occurrence);
+        }
+    }
+
+    /**
+     * @return a line of the side file of the copies that could not be parsed.
+     * @see #addFailedOccurrences(String)
+     */
+    public static String toFailedOccurrenceLine(HashCode key, CodeChange change) {
+        var json = new JsonObject();
+        json.addProperty("k", key.toString());
+        json.add("o", gson.toJsonTree(ChangeOccurrence.of(change)));
+        return json.toString();
+    }
+
+    /**
+     * Adds the copies of the side file that could not be parsed as occurrences of the stored copies with the
+     * same key. Copies without a stored copy are dropped. Call this after all patch files are extracted.
+     */
+    public void addFailedOccurrences(String path) {
+        for (var line : FilePathUtils.getAllLines(path)) {
+            if (line.isBlank()) {
+                continue;
+            }
+            var json = gson.fromJson(line, JsonObject.class);
+            addOccurrence(HashCode.fromString(json.get("k").getAsString()),
+                    gson.fromJson(json.get("o"), ChangeOccurrence.class));
+        }
+    }
+
+    /**
+     * @return the locations of the duplicates of the stored code change with the key, without the location
+     * of the stored code change. Empty if no code change with the key is stored.
+     */
+    public List<ChangeOccurrence> getDuplicates(HashCode key) {
+        var entry = entries.get(key);
+        return entry == null || !entry.isClaimed() ? Collections.emptyList() : entry.getOccurrences();
+    }
+
+    /**
+     * @return the number of stored distinct code changes.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    private static class Entry {
+        private boolean claimed;
+        private final List<ChangeOccurrence> occurrences = new ArrayList<>(0);
+
+        synchronized boolean isClaimed() {
+            return claimed;
+        }
+
+        synchronized boolean claim() {
+            if (claimed) {
+                return false;
+            }
+            claimed = true;
+            return true;
+        }
+
+        synchronized void add(ChangeOccurrence occurrence) {
+            occurrences.add(occurrence);
+        }
+
+        synchronized List<ChangeOccurrence> getOccurrences() {
+            return new ArrayList<>(occurrences);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package research.diffsearch.pipeline.extraction;
 
+import com.google.common.hash.HashCode;
 import com.google.gson.Gson;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,6 +26,7 @@ public class ChangeExtractor implements Pipeline<File, File>, ProgrammingLanguag
     private static final Logger logger = LoggerFactory.getLogger(ChangeExtractor.class);
     private final File pathOutput;
     private final ProgrammingLanguage language;
+    private final ChangeDeduplicator deduplicator;
 
     // parsing properties
     private String commit;
@@ -42,15 +44,28 @@ public class ChangeExtractor implements Pipeline<File, File>, ProgrammingLanguag
     private String previousLine;
     private String lineBeforeCodeChange;
     private String jsonTree;
+    private HashCode key;
+    private long duplicates;
 
     private static final int MAX_LENGTH = 300;
 
     private BufferedWriter writer;
     private BufferedWriter jsonWriter;
+    private BufferedWriter keyWriter;
+    private BufferedWriter failedWriter;
 
     public ChangeExtractor(File pathOutput, ProgrammingLanguage language) {
+        this(pathOutput, language, new ChangeDeduplicator());
+    }
+
+    /**
+     * @param deduplicator recognizes the code changes that were already extracted, share it to skip the
+     *                     duplicates across patch files.
+     */
+    public ChangeExtractor(File pathOutput, ProgrammingLanguage language, ChangeDeduplicator deduplicator) {
         this.pathOutput = pathOutput;
         this.language = language;
+        this.deduplicator = deduplicator;
     }
 
     @Override
@@ -70,6 +85,8 @@ public class ChangeExtractor implements Pipeline<File, File>, ProgrammingLanguag
             projectName = f.getName().replace(".patch", "");
             writer = getWriter(pathOutput.getAbsolutePath() + "/" + f.getName() + ".cc");
             jsonWriter = getWriter(pathOutput.getAbsolutePath() + "/" + f.getName() + ".cctree");
+            keyWriter = getWriter(pathOutput.getAbsolutePath() + "/" + f.getName() + ".cckey");
+            failedWriter = getWriter(pathOutput.getAbsolutePath() + "/" + f.getName() + ".ccfailed");
 
             try (BufferedReader reader = new BufferedReader(new FileReader(f))) {
                 reader.lines()
@@ -87,7 +104,10 @@ public class ChangeExtractor implements Pipeline<File, File>, ProgrammingLanguag
 
             writer.close();
             jsonWriter.close();
+            keyWriter.close();
+            failedWriter.close();
             logger.info("Found {} code changes in {}", numberOfChanges, f.getName());
+            logger.info("Skipped {} duplicate code changes", duplicates);
             logger.warn("Could not parse {} code changes ({}%)", errors,
                     (int) (((double) errors) / (double) (numberOfChanges + errors) * 100));
         } catch (IOException e) {
@@ -223,22 +243,19 @@ public class ChangeExtractor implements Pipeline<File, File>, ProgrammingLanguag
         }
 
         if (isValidCodeChange(old, newS)) {
-            codeChange.setCodeChangeOld(old);
-            codeChange.setCodeChangeNew(newS);
-
-            if (!checkCodeChange(codeChange.getFullChangeString())
-                && !tryErrorCorrectionWithCommentsRemoved(codeChange)) {
-                if (isValidCodeChange(codeChange.getCodeChangeOld(), codeChange.getCodeChangeNew())) {
-                    if (!tryErrorCorrectionWithPreviousAndNextLine(codeChange)
-                        && !tryErrorCorrectionWithRemovedComma(codeChange)) {
-                        // System.out.println(codeChange.getFullChangeString().replaceAll("\n", ""));
-                        errors++;
-                    } else {
-                        saveCodeChange(codeChange);
-                    }
+            key = ChangeDeduplicator.getKey(old, newS);
+            if (deduplicator.isClaimed(key)) {
+                // parsed before, only its location is kept
+                deduplicator.addOccurrence(key, codeChange);
+                duplicates++;
+            } else if (!checkAndSaveCodeChange(codeChange, old, newS)) {
+                if (deduplicator.isClaimed(key)) {
+                    // another extractor stored the same code change meanwhile
+                    deduplicator.addOccurrence(key, codeChange);
+                } else {
+                    // becomes an occurrence if another copy can be parsed
+                    saveFailedCodeChange(codeChange);
                 }
-            } else {
-                saveCodeChange(codeChange);
             }
         }
 
@@ -248,6 +265,30 @@ public class ChangeExtractor implements Pipeline<File, File>, ProgrammingLanguag
         workListNew.clear();
     }
 
+    /**
+     * @return true, if the code change is stored.
+     */
+    private boolean checkAndSaveCodeChange(CodeChange codeChange, String old, String newS) {
+        codeChange.setCodeChangeOld(old);
+        codeChange.setCodeChangeNew(newS);
+
+        if (!checkCodeChange(codeChange.getFullChangeString())
+            && !tryErrorCorrectionWithCommentsRemoved(codeChange)) {
+            if (isValidCodeChange(codeChange.getCodeChangeOld(), codeChange.getCodeChangeNew())) {
+                if (!tryErrorCorrectionWithPreviousAndNextLine(codeChange)
+                    && !tryErrorCorrectionWithRemovedComma(codeChange)) {
+                    // System.out.println(codeChange.getFullChangeString().replaceAll("\n", ""));
+                    errors++;
+                } else {
+                    return saveCodeChange(codeChange);
+                }
+            }
+            return false;
+        } else {
+            return saveCodeChange(codeChange);
+        }
+    }
+
     private boolean isValidCodeChange(String old, String newS) {
         return !old.trim().equals(newS.trim())
                && !(old + newS).matches("(\\W|_)*")
@@ -256,9 +297,12 @@ public class ChangeExtractor implements Pipeline<File, File>, ProgrammingLanguag
 
     private final Gson gson = new Gson();
 
-    public void saveCodeChange(CodeChange codeChange) {
-        if (!MatchingPipeline.isNotEqualCodeChange(codeChange)) {
-            return;
+    /**
+     * @return true, if the code change is stored, false if it is empty or a copy of it was stored before.
+     */
+    public boolean saveCodeChange(CodeChange codeChange) {
+        if (!MatchingPipeline.isNotEqualCodeChange(codeChange) || !deduplicator.claim(key)) {
+            return false;
         }
         codeChange.setJSONParseTree(jsonTree);
 
@@ -267,10 +311,22 @@ public class ChangeExtractor implements Pipeline<File, File>, ProgrammingLanguag
             writer.newLine();
             jsonWriter.write(codeChange.getJSONParseTree());
             jsonWriter.newLine();
+            keyWriter.write(key.toString());
+            keyWriter.newLine();
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
         }
         numberOfChanges++;
+        return true;
+    }
+
+    private void saveFailedCodeChange(CodeChange codeChange) {
+        try {
+            failedWriter.write(ChangeDeduplicator.toFailedOccurrenceLine(key, codeChange));
+            failedWriter.newLine();
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+        }
     }
 
     @Override
@@ -0,0 +1,190 @@
+package research.diffsearch.pipeline.feature;
+
+import research.diffsearch.pipeline.base.Pipeline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Measures the hash collisions in each section of feature vectors that record their features, see
+ * {@link FeatureExtractionPipeline#setRecordFeatures(boolean)}. Unlike {@link RemoveCollisionPipeline},
+ * repeated occurrences of a feature are not counted as collisions, only distinct features at the same
+ * index.
+ *
+ * @author Paul Bredl
+ */
+public class CollisionAnalysis implements Pipeline<FeatureVector, FeatureVector> {
+
+    private final Map<FeatureVector.Section, SectionStatistics> statistics = new HashMap<>();
+
+    @Override
+    public synchronized FeatureVector process(FeatureVector input, int index) {
+        for (var section : input.getSections()) {
+            statistics.computeIfAbsent(section, SectionStatistics::new)
+                    .add(input.getFeatureList(section));
+        }
+        return input;
+    }
+
+    /**
+     * @return the statistics of all sections that contain features, ordered by their position.
+     */
+    public synchronized List<SectionStatistics> getSectionStatistics() {
+        return statistics.values()
+                .stream()
+                .sorted((a, b) -> Integer.compare(a.getStartPosition(), b.getStartPosition()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * @return the statistics of the sections in the range of positions.
+     */
+    public List<SectionStatistics> getSectionStatistics(int startPosition, int endPosition) {
+        var result = new ArrayList<SectionStatistics>();
+        for (var sectionStatistics : getSectionStatistics()) {
+            if (sectionStatistics.getStartPosition() >= startPosition
+                && sectionStatistics.getStartPosition() < endPosition) {
+                result.add(sectionStatistics);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the fraction of features that share their index with another feature, if each of the given
+     * number of distinct features is hashed independently and uniformly into a section of the given length.
+     */
+    public static double getExpectedCollisionRate(int distinctFeatures, int length) {
+        if (distinctFeatures <= 1 || length <= 0) {
+            return 0;
+        }
+        return 1 - Math.pow(1 - 1.0 / length, distinctFeatures - 1);
+    }
+
+    /**
+     * @return the smallest section length whose expected collision rate is at most the target rate for the
+     * given number of distinct features.
+     */
+    public static int getSuggestedLength(int distinctFeatures, double targetCollisionRate) {
+        if (distinctFeatures <= 1) {
+            return 1;
+        }
+        // 1 - (1 - 1/length)^(n - 1) <= rate  <=>  length >= 1 / (1 - (1 - rate)^(1 / (n - 1)))
+        double length = 1 / (1 - Math.pow(1 - targetCollisionRate, 1.0 / (distinctFeatures - 1)));
+        return (int) Math.min(Integer.MAX_VALUE, Math.ceil(length));
+    }
+
+    /**
+     * Collisions of one section. Corpus collisions are distinct features of all vectors that share an index,
+     * vector collisions are distinct features of the same vector that share an index.
+     */
+    public static class SectionStatistics {
+
+        private final String name;
+        private final int startPosition;
+        private final int length;
+
+        // index of each distinct feature, relative to the start of the section
+        private final Map<String, Integer> featureIndices = new HashMap<>();
+        private int vectorCount = 0;
+        private long vectorFeatures = 0;
+        private long vectorCollidingFeatures = 0;
+
+        SectionStatistics(FeatureVector.Section section) {
+            this.name = section.getName();
+            this.startPosition = section.getStartPosition();
+            this.length = section.getLength();
+        }
+
+        void add(List<FeatureVector.Feature> features) {
+            var distinctFeatures = new HashMap<String, Integer>();
+            for (var feature : features) {
+                if (feature.featureString != null) {
+                    distinctFeatures.putIfAbsent(feature.featureString, feature.index - startPosition);
+                }
+            }
+            featureIndices.putAll(distinctFeatures);
+
+            vectorCount++;
+            vectorFeatures += distinctFeatures.size();
+            vectorCollidingFeatures += countCollidingFeatures(distinctFeatures);
+        }
+
+        private static int countCollidingFeatures(Map<String, Integer> featureIndices) {
+            var featuresPerIndex = new HashMap<Integer, Integer>();
+            for (var index : featureIndices.values()) {
+                featuresPerIndex.merge(index, 1, Integer::sum);
+            }
+            int collidingFeatures = 0;
+            for (var count : featuresPerIndex.values()) {
+                if (count > 1) {
+                    collidingFeatures += count;
+                }
+            }
+            return collidingFeatures;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getStartPosition() {
+            return startPosition;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getDistinctFeatures() {
+            return featureIndices.size();
+        }
+
+        public int getUsedIndices() {
+            return new HashSet<>(featureIndices.values()).size();
+        }
+
+        /**
+         * @return the share of the distinct features of the sample that share their index with another one.
+         */
+        public double getCorpusCollisionRate() {
+            return featureIndices.isEmpty()
+                    ? 0
+                    : countCollidingFeatures(featureIndices) / (double) featureIndices.size();
+        }
+
+        /**
+         * @return the share of the distinct features of a vector that share their index with another
+         * feature of the same vector, over all vectors.
+         */
+        public double getVectorCollisionRate() {
+            return vectorFeatures == 0 ? 0 : vectorCollidingFeatures / (double) vectorFeatures;
+        }
+
+        public double getAverageFeaturesPerVector() {
+            return vectorCount == 0 ? 0 : vectorFeatures / (double) vectorCount;
+        }
+
+        public double getExpectedCollisionRate() {
+            return CollisionAnalysis.getExpectedCollisionRate(getDistinctFeatures(), length);
+        }
+
+        public int getSuggestedLength(double targetCollisionRate) {
+            return CollisionAnalysis.getSuggestedLength(getDistinctFeatures(), targetCollisionRate);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s [%d, %d): %d distinct features at %d indices, "
+                                 + "corpus collisions %.2f%% (uniform hashing %.2f%%), "
+                                 + "vector collisions %.2f%% of %.1f features",
+                    name, startPosition, startPosition + length, getDistinctFeatures(), getUsedIndices(),
+                    100 * getCorpusCollisionRate(), 100 * getExpectedCollisionRate(),
+                    100 * getVectorCollisionRate(), getAverageFeaturesPerVector());
+        }
+    }
+}
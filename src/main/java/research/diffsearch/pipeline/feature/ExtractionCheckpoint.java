@@ -0,0 +1,221 @@
+package research.diffsearch.pipeline.feature;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import research.diffsearch.pipeline.base.Pipeline;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Function;
+
+/**
+ * Progress of the feature extraction on the corpus, saved next to the output file. A checkpoint consists of
+ * the number of code changes whose feature vectors are completely written and the size of the flushed
+ * output at that moment. An interrupted extraction resumes by truncating the output to this size and
+ * skipping the processed code changes.
+ *
+ * @author Paul Bredl
+ */
+public class ExtractionCheckpoint {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExtractionCheckpoint.class);
+
+    private static final String PROCESSED_COUNT = "processedCount";
+    private static final String OUTPUT_OFFSET = "outputOffset";
+
+    // large writes keep the number of system calls low for big vectors
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private final Path outputPath;
+    private final Path checkpointPath;
+    private int processedCount;
+    private long outputOffset;
+
+    private ExtractionCheckpoint(String outputPath, int processedCount, long outputOffset) {
+        this.outputPath = Paths.get(outputPath);
+        this.checkpointPath = Paths.get(outputPath + ".checkpoint");
+        this.processedCount = processedCount;
+        this.outputOffset = outputOffset;
+    }
+
+    /**
+     * Starts a new extraction. Previous output and checkpoints are discarded.
+     */
+    public static ExtractionCheckpoint start(String outputPath) throws IOException {
+        return start(outputPath, new byte[0]);
+    }
+
+    /**
+     * Starts a new extraction whose output begins with the given header. Previous output and checkpoints are
+     * discarded.
+     */
+    public static ExtractionCheckpoint start(String outputPath, byte[] header) throws IOException {
+        var checkpoint = new ExtractionCheckpoint(outputPath, 0, header.length);
+        Files.deleteIfExists(checkpoint.checkpointPath);
+        Files.write(checkpoint.outputPath, header, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        return checkpoint;
+    }
+
+    /**
+     * Resumes the extraction from the last checkpoint of the given output file. Output written after the
+     * checkpoint is discarded. Starts a new extraction if there is no usable checkpoint.
+     */
+    public static ExtractionCheckpoint resume(String outputPath) throws IOException {
+        return resume(outputPath, new byte[0]);
+    }
+
+    /**
+     * Like {@link #resume(String)}, but a new extraction begins with the given header.
+     */
+    public static ExtractionCheckpoint resume(String outputPath, byte[] header) throws IOException {
+        var checkpointPath = Paths.get(outputPath + ".checkpoint");
+        if (!Files.exists(checkpointPath)) {
+            logger.info("No checkpoint found for {}, starting from the beginning.", outputPath);
+            return start(outputPath, header);
+        }
+
+        var properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(checkpointPath, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        var checkpoint = new ExtractionCheckpoint(outputPath,
+                Integer.parseInt(properties.getProperty(PROCESSED_COUNT, "0")),
+                Long.parseLong(properties.getProperty(OUTPUT_OFFSET, "0")));
+
+        long outputSize = Files.exists(checkpoint.outputPath) ? Files.size(checkpoint.outputPath) : 0;
+        if (outputSize < checkpoint.outputOffset) {
+            logger.warn("Output {} is shorter than its checkpoint, starting from the beginning.", outputPath);
+            return start(outputPath, header);
+        }
+        checkpoint.truncateOutput();
+        logger.info("Resuming after {} code changes.", checkpoint.processedCount);
+        return checkpoint;
+    }
+
+    /**
+     * @return the number of code changes that are already processed.
+     */
+    public int getProcessedCount() {
+        return processedCount;
+    }
+
+    public long getOutputOffset() {
+        return outputOffset;
+    }
+
+    private void truncateOutput() throws IOException {
+        try (var channel = FileChannel.open(outputPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.truncate(outputOffset);
+        }
+    }
+
+    private void save(int processedCount, long outputOffset) throws IOException {
+        var properties = new Properties();
+        properties.setProperty(PROCESSED_COUNT, Integer.toString(processedCount));
+        properties.setProperty(OUTPUT_OFFSET, Long.toString(outputOffset));
+
+        // replace the checkpoint at once, so a crash never leaves a partial checkpoint
+        var temporaryPath = Paths.get(checkpointPath + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temporaryPath, StandardCharsets.UTF_8)) {
+            properties.store(writer, null);
+        }
+        Files.move(temporaryPath, checkpointPath,
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        this.processedCount = processedCount;
+        this.outputOffset = outputOffset;
+    }
+
+    /**
+     * Creates a pipeline that appends its inputs as lines to the output file and saves a checkpoint every
+     * {@code interval} code changes. The inputs must arrive in the order of their indices, which start at 0
+     * with the first code change after the checkpoint.
+     *
+     * @param mapper   converts an input to a line of the output.
+     * @param interval number of code changes between two checkpoints.
+     */
+    public <T> Pipeline<T, T> getFileWriterPipeline(Function<T, String> mapper, int interval) throws IOException {
+        return getBinaryFileWriterPipeline(input -> (mapper.apply(input) + "\n").getBytes(StandardCharsets.UTF_8),
+                interval);
+    }
+
+    /**
+     * Like {@link #getFileWriterPipeline(Function, int)}, but appends the bytes of each input.
+     *
+     * @param encoder converts an input to the bytes that are written.
+     */
+    public <T> Pipeline<T, T> getBinaryFileWriterPipeline(Function<T, byte[]> encoder, int interval)
+            throws IOException {
+        final int firstIndex = processedCount;
+
+        return new Pipeline<>() {
+            private final OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(outputPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), BUFFER_SIZE);
+            private int processed = firstIndex;
+
+            @Override
+            public T process(T input, int index) {
+                try {
+                    outputStream.write(encoder.apply(input));
+                    afterWrite(firstIndex + index + 1);
+                } catch (IOException e) {
+                    logger.error(e.getMessage(), e);
+                    throw new RuntimeException(e);
+                }
+                return input;
+            }
+
+            @Override
+            public List<T> processBatch(List<T> inputs, int startIndex) {
+                try {
+                    for (T input : inputs) {
+                        if (input != null) {
+                            outputStream.write(encoder.apply(input));
+                        }
+                    }
+                    afterWrite(firstIndex + startIndex + inputs.size());
+                } catch (IOException e) {
+                    logger.error(e.getMessage(), e);
+                    throw new RuntimeException(e);
+                }
+                return inputs;
+            }
+
+            private void afterWrite(int processedCount) throws IOException {
+                processed = Math.max(processed, processedCount);
+                if (processed - ExtractionCheckpoint.this.processedCount >= interval) {
+                    checkpoint();
+                }
+            }
+
+            private void checkpoint() throws IOException {
+                outputStream.flush();
+                save(processed, Files.size(outputPath));
+            }
+
+            @Override
+            public void after() {
+                logger.debug("Closing writer.");
+                try {
+                    checkpoint();
+                    outputStream.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+    }
+}
@@ -6,6 +6,7 @@ import org.slf4j.LoggerFactory;
 import research.diffsearch.Config;
 import research.diffsearch.pipeline.base.Pipeline;
 import research.diffsearch.pipeline.feature.extractor.FeatureExtractor;
+import research.diffsearch.pipeline.feature.extractor.FusedTraversal;
 import research.diffsearch.tree.SerializableTreeNode;
 
 import java.util.ArrayList;
@@ -23,6 +24,7 @@ public class FeatureExtractionPipeline <T extends Tree> implements Pipeline<T, F
     private final byte countBits;
     private final int quadraticProbingMaxCount;
     private final boolean isQuery;
+    private boolean recordFeatures = false;
 
     public FeatureExtractionPipeline(byte countBits, int quadraticProbingMaxCount, boolean isQuery) {
         this.countBits = countBits;
@@ -41,6 +43,14 @@ public class FeatureExtractionPipeline <T extends Tree> implements Pipeline<T, F
         return this.extractorList;
     }
 
+    /**
+     * @param recordFeatures if true, the extracted vectors save their features, see
+     *                       {@link FeatureVector#setFeatureVectorAnalysis(boolean)}.
+     */
+    public void setRecordFeatures(boolean recordFeatures) {
+        this.recordFeatures = recordFeatures;
+    }
+
     /**
      * @return the length of the resulting feature vector.
      */
@@ -56,15 +66,26 @@ public class FeatureExtractionPipeline <T extends Tree> implements Pipeline<T, F
                 getTotalFeatureVectorLength() / countBits,
                 countBits,
                 quadraticProbingMaxCount);
+        if (recordFeatures) {
+            featureVector.setFeatureVectorAnalysis(true);
+        }
         try {
             var startPosition = 0;
+            // with count bits, the order of the features matters, so each extractor runs on its own
+            var traversal = countBits == 1 ? new FusedTraversal() : null;
 
             for (FeatureExtractor extractor : getFeatureExtractors()) {
                 var section = featureVector.getSection(extractor.getName(),
                         startPosition, extractor.getFeatureVectorSectionLength());
-                extractor.extractFeatures(codeChangeTree, section, isQuery);
+                if (traversal == null || !extractor.addTo(traversal, codeChangeTree, section)) {
+                    extractor.extractFeatures(codeChangeTree, section, isQuery);
+                }
                 startPosition += extractor.getFeatureVectorSectionLength();
             }
+
+            if (traversal != null) {
+                traversal.run(codeChangeTree, isQuery);
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -82,6 +103,17 @@ public class FeatureExtractionPipeline <T extends Tree> implements Pipeline<T, F
         return extractFeatures(input);
     }
 
+    /**
+     * @return a description of the configuration of the default pipelines. Two default pipelines with the
+     * same description extract the same feature vectors.
+     */
+    public static String getDefaultConfiguration() {
+        return String.join(";", Config.PROGRAMMING_LANGUAGE.name(), Config.featureExtractors,
+                Integer.toString(Config.SINGLE_FEATURE_VECTOR_LENGTH), Integer.toString(Config.COUNT_BITS),
+                Integer.toString(Config.FEATURE_MAX_COUNT), Boolean.toString(Config.DIVIDE_EXTRACTORS),
+                Boolean.toString(Config.EXTRACT_QUERY_KEYWORDS), Integer.toString(Config.featureHashSeed));
+    }
+
     public static <T extends Tree> FeatureExtractionPipeline<T> getDefaultFeatureExtractionPipeline(boolean isQuery) {
         var pipeline = new FeatureExtractionPipeline<T>(Config.COUNT_BITS, Config.FEATURE_MAX_COUNT, isQuery);
 
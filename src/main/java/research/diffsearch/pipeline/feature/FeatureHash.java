@@ -0,0 +1,75 @@
+package research.diffsearch.pipeline.feature;
+
+import research.diffsearch.Config;
+
+/**
+ * Calculates hash codes of features that consist of several node labels without building the feature
+ * string. Appending to a hash code gives the same result as {@link String#hashCode()} of the
+ * concatenated string, so each feature keeps its index in the feature vector.
+ * <p>
+ * The hash code of a feature is mixed with the seeded 32-bit murmur3 hash before it is mapped to an index
+ * of a section, see {@link #indexOf(int, int)}. The low bits of {@link String#hashCode()} hardly differ for
+ * similar labels, so taking it modulo the section length directly leads to many collisions.
+ *
+ * @author Paul Bredl
+ */
+public final class FeatureHash {
+
+    private FeatureHash() {
+    }
+
+    /**
+     * @return the hash code of the feature <code>first + separator + second</code>.
+     */
+    public static int of(String first, char separator, String second) {
+        return append(append(first.hashCode(), separator), second);
+    }
+
+    /**
+     * @param hash  hash code of a feature.
+     * @param label label that is appended to the feature.
+     * @return the hash code of the feature with the label appended.
+     */
+    public static int append(int hash, String label) {
+        for (int i = 0; i < label.length(); i++) {
+            hash = 31 * hash + label.charAt(i);
+        }
+        return hash;
+    }
+
+    public static int append(int hash, char character) {
+        return 31 * hash + character;
+    }
+
+    /**
+     * @param hash   hash code of a feature.
+     * @param length length of the section.
+     * @return the index of the feature in the section, between 0 and <code>length - 1</code>.
+     */
+    public static int indexOf(int hash, int length) {
+        return Integer.remainderUnsigned(murmur3(hash, Config.featureHashSeed), length);
+    }
+
+    /**
+     * @return the 32-bit murmur3 hash of the four bytes of the value, like
+     * <code>Hashing.murmur3_32(seed).hashInt(value)</code> of Guava.
+     */
+    static int murmur3(int value, int seed) {
+        int k = value * 0xcc9e2d51;
+        k = Integer.rotateLeft(k, 15);
+        k *= 0x1b873593;
+
+        int h = seed ^ k;
+        h = Integer.rotateLeft(h, 13);
+        h = h * 5 + 0xe6546b64;
+
+        // finalization with the length of 4 bytes
+        h ^= 4;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
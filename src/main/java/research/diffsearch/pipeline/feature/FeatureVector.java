@@ -9,12 +9,24 @@ import java.util.stream.Collectors;
 
 /**
  * This class represents a feature vector. It contains different section for each feature extractor.
+ * <p>
+ * Vectors of extracted features are sparse: only the indices of non-zero entries and their counts are
+ * stored. {@link #getVector()} converts a vector to a dense array, while the entry methods, such as
+ * {@link #getEntryCount()}, read both representations without conversion.
  *
  * @author Paul Bredl
  */
 public class FeatureVector {
 
+    private static final int INITIAL_CAPACITY = 32;
+
+    private final int length;
+    // dense representation, null while the vector is sparse
     private double[] vector;
+    // sparse representation, sorted indices of the non-zero entries and their values
+    private int[] indices;
+    private double[] values;
+    private int nonZeroCount = 0;
     private Map<Section, List<Feature>> typeToFeaturesMap = new HashMap<>();
     private final int countBits;
     private final int quadraticProbingMaxCount;
@@ -30,17 +42,43 @@ public class FeatureVector {
      *                                 on a hash collision
      */
     public FeatureVector(int size, int countBits, int quadraticProbingMaxCount) {
-        this.vector = new double[size * countBits];
+        this.length = size * countBits;
+        this.indices = new int[INITIAL_CAPACITY];
+        this.values = new double[INITIAL_CAPACITY];
         this.countBits = countBits;
         this.quadraticProbingMaxCount = quadraticProbingMaxCount;
     }
 
     public FeatureVector(double[] array) {
         this.countBits = 0;
+        this.length = array.length;
         this.vector = array;
         this.quadraticProbingMaxCount = 0;
     }
 
+    private FeatureVector(FeatureVector other) {
+        this.length = other.length;
+        this.vector = other.vector == null ? null : other.vector.clone();
+        this.indices = other.indices == null ? null : other.indices.clone();
+        this.values = other.values == null ? null : other.values.clone();
+        this.nonZeroCount = other.nonZeroCount;
+        if (other.typeToFeaturesMap != null) {
+            this.typeToFeaturesMap = new HashMap<>();
+            other.typeToFeaturesMap.forEach((section, features) ->
+                    typeToFeaturesMap.put(section, new ArrayList<>(features)));
+        }
+        this.countBits = other.countBits;
+        this.quadraticProbingMaxCount = other.quadraticProbingMaxCount;
+        this.featureVectorAnalysis = other.featureVectorAnalysis;
+    }
+
+    /**
+     * @return a copy of this vector that can be changed independently.
+     */
+    public FeatureVector copy() {
+        return new FeatureVector(this);
+    }
+
     /**
      * Adds a feature to the feature vector at the given index. Uses quadratic probing and
      * count bits on hash collisions.
@@ -57,14 +95,14 @@ public class FeatureVector {
         outer:
         for (var probingFactor = 0; probingFactor < quadraticProbingMaxCount; probingFactor++) {
             int probingOffset = probingFactor * probingFactor;
-            actualIndex = (actualIndex + probingOffset) % vector.length;
+            actualIndex = (actualIndex + probingOffset) % length;
 
             // use count bits
             for (var offset = 0; offset < countBits; offset++) {
-                actualIndex = (countBits * actualIndex + offset) % vector.length;
-                if (vector[actualIndex] == 0 || offset == countBits - 1) {
+                actualIndex = (countBits * actualIndex + offset) % length;
+                if (get(actualIndex) == 0 || offset == countBits - 1) {
 
-                    vector[actualIndex]++;
+                    increment(actualIndex);
                     break outer;
                 }
             }
@@ -89,10 +127,123 @@ public class FeatureVector {
         return new Section(startPosition, length, name);
     }
 
+    /**
+     * @return the dense array of this vector. A sparse vector is converted to a dense vector, so
+     * changes of the array change the vector.
+     */
     public double[] getVector() {
+        if (vector == null && indices != null) {
+            vector = new double[length];
+            for (int entry = 0; entry < nonZeroCount; entry++) {
+                vector[indices[entry]] = values[entry];
+            }
+            indices = null;
+            values = null;
+        }
         return vector;
     }
 
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * @return a bitset of the non-zero values, bit <code>i % 64</code> of word <code>i / 64</code>
+     * is set if the value at index <code>i</code> is not zero.
+     */
+    public long[] getBits() {
+        var bits = new long[(length + 63) / 64];
+        for (int entry = 0; entry < getEntryCount(); entry++) {
+            if (getEntryValue(entry) != 0) {
+                int index = getEntryIndex(entry);
+                bits[index / 64] |= 1L << (index % 64);
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * @return the bitset of the non-zero values packed into {@link #getPackedLength(int)} bytes, bit
+     * <code>i % 8</code> of byte <code>i / 8</code> stands for the value at index <code>i</code>.
+     * This is the layout of the binary FAISS indexes.
+     */
+    public byte[] toPackedBits() {
+        var bits = getBits();
+        var bytes = new byte[getPackedLength(length)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (bits[i / 8] >>> (8 * (i % 8)));
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of bytes of a packed vector with the given length.
+     */
+    public static int getPackedLength(int length) {
+        return (length + 7) / 8;
+    }
+
+    /**
+     * @return the number of entries, which are the non-zero values of a sparse vector or all values
+     * of a dense vector. Values that are not an entry are zero.
+     */
+    public int getEntryCount() {
+        return vector != null ? vector.length : nonZeroCount;
+    }
+
+    /**
+     * @return the index of the entry in the vector. Entries are sorted by their index.
+     */
+    public int getEntryIndex(int entry) {
+        return vector != null ? entry : indices[entry];
+    }
+
+    public double getEntryValue(int entry) {
+        return vector != null ? vector[entry] : values[entry];
+    }
+
+    public void setEntryValue(int entry, double value) {
+        if (vector != null) {
+            vector[entry] = value;
+        } else {
+            values[entry] = value;
+        }
+    }
+
+    /**
+     * @return the value at the given index of the vector.
+     */
+    public double get(int index) {
+        if (vector != null) {
+            return vector[index];
+        }
+        int entry = Arrays.binarySearch(indices, 0, nonZeroCount, index);
+        return entry >= 0 ? values[entry] : 0;
+    }
+
+    private void increment(int index) {
+        if (vector != null) {
+            vector[index]++;
+            return;
+        }
+        int entry = Arrays.binarySearch(indices, 0, nonZeroCount, index);
+        if (entry >= 0) {
+            values[entry]++;
+            return;
+        }
+
+        int insertionPoint = -entry - 1;
+        if (nonZeroCount == indices.length) {
+            indices = Arrays.copyOf(indices, nonZeroCount * 2);
+            values = Arrays.copyOf(values, nonZeroCount * 2);
+        }
+        System.arraycopy(indices, insertionPoint, indices, insertionPoint + 1, nonZeroCount - insertionPoint);
+        System.arraycopy(values, insertionPoint, values, insertionPoint + 1, nonZeroCount - insertionPoint);
+        indices[insertionPoint] = index;
+        values[insertionPoint] = 1;
+        nonZeroCount++;
+    }
+
     /**
      * @param featureVectorAnalysis if this is true, the feature vector saves all features so
      *                              that they can be returned by {@link #getFeatureList(String)}.
@@ -127,8 +278,25 @@ public class FeatureVector {
                 .orElse(Collections.emptyList());
     }
 
+    /**
+     * Returns the sections that contain features. This only works if <b>featureVectorAnalysis</b> is true.
+     */
+    public Set<Section> getSections() {
+        return typeToFeaturesMap.keySet();
+    }
+
+    /**
+     * Returns all features in a section. This only works if <b>featureVectorAnalysis</b> is true.
+     */
+    public List<Feature> getFeatureList(Section section) {
+        return typeToFeaturesMap.getOrDefault(section, Collections.emptyList());
+    }
+
     public FeatureVector clear() {
         this.vector = null;
+        this.indices = null;
+        this.values = null;
+        this.nonZeroCount = 0;
         this.typeToFeaturesMap = null;
         return null;
     }
@@ -149,8 +317,25 @@ public class FeatureVector {
         }
 
         public void addFeature(String featureString) {
+            addHashedFeature(featureString.hashCode(), featureString);
+        }
+
+        /**
+         * Adds a feature by its hash code, see {@link FeatureHash}.
+         *
+         * @param featureHash   hash code of the feature string.
+         * @param featureString the feature, only needed if {@link #isRecordingFeatures()}. May be null otherwise.
+         */
+        public void addHashedFeature(int featureHash, String featureString) {
             FeatureVector.this.addFeature(this,
-                    featureString, startPosition + Math.abs(featureString.hashCode() % length));
+                    featureString, startPosition + FeatureHash.indexOf(featureHash, length));
+        }
+
+        /**
+         * @return true if the feature strings are saved for the feature vector analysis.
+         */
+        public boolean isRecordingFeatures() {
+            return featureVectorAnalysis;
         }
 
         public void addFeature(String featureString, int index) {
@@ -0,0 +1,226 @@
+package research.diffsearch.pipeline.feature;
+
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Binary file of dense feature vectors, read by memory mapping. The file has a header of
+ * {@link #HEADER_SIZE} bytes followed by one row of little-endian 32-bit floats per vector, which is the
+ * layout FAISS indexes.
+ * <p>
+ * Header, all values little-endian:
+ * <ul>
+ *     <li>bytes 0 - 3: the magic number <code>DSFV</code></li>
+ *     <li>bytes 4 - 7: the version of the format, 1</li>
+ *     <li>bytes 8 - 11: the number of dimensions of the vectors</li>
+ *     <li>bytes 16 - 23: the number of vectors</li>
+ *     <li>bytes 24 - 31: the hash of the configuration of the feature extraction</li>
+ * </ul>
+ * The other bytes of the header are zero. The number of vectors is written when the file is complete,
+ * readers of an incomplete file use its size.
+ *
+ * @author Paul Bredl
+ */
+public class FeatureVectorFile {
+
+    public static final int HEADER_SIZE = 64;
+
+    private static final int MAGIC = 0x56465344; // "DSFV" in little-endian
+    private static final int VERSION = 1;
+    private static final int COUNT_POSITION = 16;
+
+    // rows of a mapped region, which must not exceed 2 GB
+    private static final long MAX_REGION_SIZE = Integer.MAX_VALUE;
+
+    private final int dimensions;
+    private final long count;
+    private final long configurationHash;
+    private final int rowsPerRegion;
+    private final MappedByteBuffer[] regions;
+
+    private FeatureVectorFile(int dimensions, long count, long configurationHash, int rowsPerRegion,
+                              MappedByteBuffer[] regions) {
+        this.dimensions = dimensions;
+        this.count = count;
+        this.configurationHash = configurationHash;
+        this.rowsPerRegion = rowsPerRegion;
+        this.regions = regions;
+    }
+
+    /**
+     * @return the hash of a configuration of the feature extraction, such as
+     * {@link FeatureExtractionPipeline#getDefaultConfiguration()}.
+     */
+    public static long getConfigurationHash(String configuration) {
+        return Hashing.murmur3_128().hashString(configuration, StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * @return the header of a file with the given number of dimensions and no vectors.
+     */
+    public static byte[] createHeader(int dimensions, long configurationHash) {
+        var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(dimensions)
+                .putInt(0)
+                .putLong(0)
+                .putLong(configurationHash);
+        return header.array();
+    }
+
+    /**
+     * @return the row of a vector with the given number of dimensions as little-endian floats.
+     */
+    public static byte[] encode(FeatureVector vector, int dimensions) {
+        var row = ByteBuffer.allocate(dimensions * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        // zero values are already zero
+        for (int entry = 0; entry < vector.getEntryCount(); entry++) {
+            row.putFloat(vector.getEntryIndex(entry) * Float.BYTES, (float) vector.getEntryValue(entry));
+        }
+        return row.array();
+    }
+
+    /**
+     * Writes the number of vectors to the header of a complete file.
+     *
+     * @return the number of vectors.
+     */
+    public static long writeCount(String path) throws IOException {
+        try (var channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var header = readHeader(channel, path);
+            long count = getCount(channel.size(), header.getInt(8), path);
+
+            var countBuffer = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN).putLong(0, count);
+            channel.write(countBuffer, COUNT_POSITION);
+            return count;
+        }
+    }
+
+    /**
+     * @return true if the file exists and has a header with the given dimensions and configuration.
+     */
+    public static boolean hasHeader(String path, int dimensions, long configurationHash) throws IOException {
+        var filePath = Paths.get(path);
+        if (!Files.exists(filePath) || Files.size(filePath) < HEADER_SIZE) {
+            return false;
+        }
+        try (var channel = FileChannel.open(filePath)) {
+            var header = readHeader(channel, path);
+            return header.getInt(8) == dimensions && header.getLong(24) == configurationHash;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Maps the vectors of the file into memory.
+     */
+    public static FeatureVectorFile open(String path) throws IOException {
+        try (var channel = FileChannel.open(Paths.get(path))) {
+            var header = readHeader(channel, path);
+            int dimensions = header.getInt(8);
+            long count = getCount(channel.size(), dimensions, path);
+
+            long rowSize = (long) dimensions * Float.BYTES;
+            int rowsPerRegion = (int) Math.max(1,
+                    Math.min(Integer.MAX_VALUE, MAX_REGION_SIZE / Math.max(1, rowSize)));
+            var regions = new MappedByteBuffer[(int) ((count + rowsPerRegion - 1) / rowsPerRegion)];
+            for (int i = 0; i < regions.length; i++) {
+                long firstRow = (long) i * rowsPerRegion;
+                long rows = Math.min(rowsPerRegion, count - firstRow);
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE + firstRow * rowSize, rows * rowSize);
+                regions[i].order(ByteOrder.LITTLE_ENDIAN);
+            }
+            return new FeatureVectorFile(dimensions, count, header.getLong(24), rowsPerRegion, regions);
+        }
+    }
+
+    private static ByteBuffer readHeader(FileChannel channel, String path) throws IOException {
+        var header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // read until the header is complete or the file ends
+        }
+        if (header.hasRemaining() || header.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a feature vector file.");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported version " + header.getInt(4) + " of " + path);
+        }
+        return header;
+    }
+
+    private static long getCount(long fileSize, int dimensions, String path) throws IOException {
+        long rowSize = (long) dimensions * Float.BYTES;
+        if (rowSize == 0) {
+            return 0;
+        }
+        if ((fileSize - HEADER_SIZE) % rowSize != 0) {
+            throw new IOException(path + " ends with an incomplete vector.");
+        }
+        return (fileSize - HEADER_SIZE) / rowSize;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * @return the number of vectors in the file.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getConfigurationHash() {
+        return configurationHash;
+    }
+
+    /**
+     * @return a value of a vector, without copying the vector.
+     */
+    public float get(long row, int dimension) {
+        return regions[(int) (row / rowsPerRegion)]
+                .getFloat((int) ((row % rowsPerRegion) * dimensions + dimension) * Float.BYTES);
+    }
+
+    /**
+     * @return a copy of the vector in the given row.
+     */
+    public FeatureVector getVector(long row) {
+        var values = new double[dimensions];
+        for (int dimension = 0; dimension < dimensions; dimension++) {
+            values[dimension] = get(row, dimension);
+        }
+        return new FeatureVector(values);
+    }
+
+    /**
+     * @return the vectors of the file, each copied when it is accessed.
+     */
+    public List<FeatureVector> getVectors() {
+        return new AbstractList<>() {
+            @Override
+            public FeatureVector get(int index) {
+                return getVector(index);
+            }
+
+            @Override
+            public int size() {
+                return (int) Math.min(Integer.MAX_VALUE, count);
+            }
+        };
+    }
+}
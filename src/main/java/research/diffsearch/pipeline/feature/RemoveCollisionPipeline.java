@@ -22,15 +22,16 @@ public class RemoveCollisionPipeline implements Pipeline<FeatureVector, FeatureV
     @Override
     public FeatureVector process(FeatureVector input, int index) {
         try {
-            for (int i = 0; i < input.getVector().length; i++) {
-                if (input.getVector()[i] >= 1) {
-                    if (maxCount < input.getVector()[i]) {
-                        maxCount = input.getVector()[i];
+            for (int entry = 0; entry < input.getEntryCount(); entry++) {
+                double count = input.getEntryValue(entry);
+                if (count >= 1) {
+                    if (maxCount < count) {
+                        maxCount = count;
                     }
 
                     sum += 1;
-                    collisions += input.getVector()[i] - 1;
-                    input.getVector()[i] = 1;
+                    collisions += count - 1;
+                    input.setEntryValue(entry, 1);
                     greaterZeroOccurrences++;
                 }
             }
@@ -7,24 +7,31 @@ import java.util.HashMap;
 import java.util.Map;
 
 /**
+ * Matches of the nodes of an old and a new tree, at most one for each old node.
+ *
  * @author Paul Bredl
  */
 public class MatchList {
 
     private final Map<Integer, Match> matchMap = new HashMap<>();
+    // number of matches of each new node by its id
+    private final Map<Integer, Integer> newNodeMatchCounts = new HashMap<>();
 
     public Collection<Match> getMatches() {
         return matchMap.values();
     }
 
     public void addMatch(ParseTreeNode oldNode, ParseTreeNode newNode, double similarity) {
-        var match = new Match(oldNode, newNode, similarity);
-
-        matchMap.put(oldNode.getId(), match);
+        addMatch(new Match(oldNode, newNode, similarity));
     }
 
     public void addMatch(Match match) {
-        matchMap.put(match.getOldNode().getId(), match);
+        var replacedMatch = matchMap.put(match.getOldNode().getId(), match);
+        if (replacedMatch != null) {
+            newNodeMatchCounts.computeIfPresent(replacedMatch.getNewNode().getId(),
+                    (id, count) -> count == 1 ? null : count - 1);
+        }
+        newNodeMatchCounts.merge(match.getNewNode().getId(), 1, Integer::sum);
     }
 
     public Match getMatchFor(ParseTreeNode node) {
@@ -39,14 +46,7 @@ public class MatchList {
     }
 
     public boolean hasMatchFor(ParseTreeNode node) {
-        var hasKey = matchMap.containsKey(node.getId());
-        if (!hasKey) {
-            return matchMap.values().stream()
-                    .map(Match::getNewNode)
-                    .map(ParseTreeNode::getId)
-                    .anyMatch(id -> node.getId() == id);
-        }
-        return true;
+        return matchMap.containsKey(node.getId()) || newNodeMatchCounts.containsKey(node.getId());
     }
 
     public boolean hasMatch(Match match) {
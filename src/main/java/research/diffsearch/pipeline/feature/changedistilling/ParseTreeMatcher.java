@@ -3,11 +3,21 @@ package research.diffsearch.pipeline.feature.changedistilling;
 import research.diffsearch.tree.ParseTreeNode;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
+ * Matches the nodes of the old and the new tree of a code change like change distilling: first the leaves
+ * by the similarity of their labels, then the inner nodes by the share of their matched leaves.
+ * <p>
+ * The bigrams of each label are computed once. Inner nodes only match if they have matched leaves in
+ * common, so the candidates for an old node are the ancestors of the partners of its leaves, counted in a
+ * single pass instead of comparing the leaves of every pair of nodes.
+ *
  * @author Paul Bredl
  */
 public class ParseTreeMatcher {
@@ -21,6 +31,9 @@ public class ParseTreeMatcher {
     private final ParseTreeNode oldCodeRoot;
     private final ParseTreeNode newCodeRoot;
 
+    // sorted bigrams of each label
+    private final Map<String, int[]> biGrams = new HashMap<>();
+
     public ParseTreeMatcher(ParseTreeNode oldCodeRoot, ParseTreeNode newCodeRoot) {
         this.oldCodeRoot = oldCodeRoot;
         this.newCodeRoot = newCodeRoot;
@@ -45,68 +58,112 @@ public class ParseTreeMatcher {
         var tempMatches = new ArrayList<Match>();
 
         // leaf matching
+        var newLeaves = newCodeRoot.getLeaves();
         for (var oldLeave : oldCodeRoot.getLeaves()) {
-            for (var newLeave : newCodeRoot.getLeaves()) {
-                var match = matchLeaves(oldLeave, newLeave);
+            for (var newLeave : newLeaves) {
+                var similarity = calculateStringSimilarity(oldLeave.getNodeLabel(), newLeave.getNodeLabel(),
+                        stringSimilarityThreshold);
 
-                if (match.getSimilarity() >= stringSimilarityThreshold) {
-                    tempMatches.add(match);
+                if (similarity >= stringSimilarityThreshold) {
+                    tempMatches.add(new Match(oldLeave, newLeave, similarity));
                 }
             }
         }
 
         // find best matches
 
-        // sort by similarity descending
-        tempMatches.stream()
-                .sorted(Comparator
-                        .comparingDouble(Match::getSimilarity)
-                        .reversed()
-                        .thenComparingInt(m ->
-                                Math.abs(m.getNewNode().getPosition() - m.getOldNode().getPosition())))
-                .forEachOrdered(match -> {
-                    // add match with best similarity
-                    if (!match.getOldNode().isMatched() &&
-                        !match.getNewNode().isMatched() &&
-                        !matches.hasMatch(match)) {
-
-                        addMatch(match);
-                    }
-                });
+        // sort by similarity descending, the sort is stable
+        tempMatches.sort(Comparator
+                .comparingDouble(Match::getSimilarity)
+                .reversed()
+                .thenComparingInt(m ->
+                        Math.abs(m.getNewNode().getPosition() - m.getOldNode().getPosition())));
+        for (var match : tempMatches) {
+            // add match with best similarity
+            if (!match.getOldNode().isMatched() &&
+                !match.getNewNode().isMatched() &&
+                !matches.hasMatch(match)) {
+
+                addMatch(match);
+            }
+        }
     }
 
     private void innerNodeMatching() {
-        oldCodeRoot.forEachPostOrder(oldTreeNode -> {
-            newCodeRoot.forEachPostOrder(newTreeNode -> {
+        var oldNodes = new PostOrderTree(oldCodeRoot);
+        var newNodes = new PostOrderTree(newCodeRoot);
+
+        // index of the matched new leaf of each old leaf, leaves are only matched before this phase
+        var partners = new int[oldNodes.size()];
+        for (int i = 0; i < oldNodes.size(); i++) {
+            var match = matches.getMatchFor(oldNodes.get(i));
+            partners[i] = match != null && match.getOldNode().isLeaf() && match.getOldNode() == oldNodes.get(i)
+                    ? newNodes.indexOf(match.getNewNode())
+                    : -1;
+        }
 
-                if (!oldTreeNode.isMatched() && !newTreeNode.isMatched()) {
-                    Match innerNodeMatch = new Match(oldTreeNode, newTreeNode,
-                            getCommonScore(oldTreeNode, newTreeNode));
-
-                    var stringSimilarity = calculateStringSimilarity(oldTreeNode.getNodeLabel(),
-                            newTreeNode.getNodeLabel());
-
-                    if (stringSimilarity >= stringSimilarityThreshold) {
-                        if (innerNodeMatch.getSimilarity() >= commonNodesThreshold) {
-                            addMatch(innerNodeMatch);
-                        } else {
-                            // smaller threshold for nodes with small subtrees
-                            var leavesCount = Math.min(oldTreeNode.getLeaves().size(),
-                                    newTreeNode.getLeaves().size());
-
-                            if (leavesCount <= 4
-                                && innerNodeMatch.getSimilarity() >= commonNodesSmallSubtreeThreshold) {
-                                addMatch(innerNodeMatch);
-                            }
-                        }
-                    } else {
-                        if (innerNodeMatch.getSimilarity() >= commonNodesNoStringSimilarityThreshold) {
-                            addMatch(innerNodeMatch);
-                        }
+        // number of leaves of the current old node that are matched with leaves below each new node
+        var commonCounts = new int[newNodes.size()];
+        var candidates = new int[newNodes.size()];
+
+        for (int oldIndex = 0; oldIndex < oldNodes.size(); oldIndex++) {
+            var oldTreeNode = oldNodes.get(oldIndex);
+            // leaves have no common leaves, so their score never reaches a threshold
+            if (oldTreeNode.isLeaf() || oldTreeNode.isMatched()) {
+                continue;
+            }
+
+            int candidateCount = 0;
+            for (int i = oldNodes.getFirstDescendant(oldIndex); i < oldIndex; i++) {
+                if (partners[i] < 0) {
+                    continue;
+                }
+                for (int ancestor = newNodes.getParent(partners[i]); ancestor >= 0;
+                     ancestor = newNodes.getParent(ancestor)) {
+                    if (commonCounts[ancestor]++ == 0) {
+                        candidates[candidateCount++] = ancestor;
                     }
                 }
-            });
-        });
+            }
+
+            // the first match in post order wins
+            Arrays.sort(candidates, 0, candidateCount);
+            for (int c = 0; c < candidateCount; c++) {
+                var newTreeNode = newNodes.get(candidates[c]);
+                if (!oldTreeNode.isMatched() && !newTreeNode.isMatched()) {
+                    matchInnerNodes(oldTreeNode, newTreeNode, commonCounts[candidates[c]],
+                            oldNodes.getLeafCount(oldIndex), newNodes.getLeafCount(candidates[c]));
+                }
+                commonCounts[candidates[c]] = 0;
+            }
+        }
+    }
+
+    private void matchInnerNodes(ParseTreeNode oldTreeNode, ParseTreeNode newTreeNode,
+                                 int commonCount, int oldLeavesCount, int newLeavesCount) {
+        Match innerNodeMatch = new Match(oldTreeNode, newTreeNode,
+                1.0 * commonCount / Math.max(oldLeavesCount, newLeavesCount));
+
+        var stringSimilarity = calculateStringSimilarity(oldTreeNode.getNodeLabel(),
+                newTreeNode.getNodeLabel(), 0);
+
+        if (stringSimilarity >= stringSimilarityThreshold) {
+            if (innerNodeMatch.getSimilarity() >= commonNodesThreshold) {
+                addMatch(innerNodeMatch);
+            } else {
+                // smaller threshold for nodes with small subtrees
+                var leavesCount = Math.min(oldLeavesCount, newLeavesCount);
+
+                if (leavesCount <= 4
+                    && innerNodeMatch.getSimilarity() >= commonNodesSmallSubtreeThreshold) {
+                    addMatch(innerNodeMatch);
+                }
+            }
+        } else {
+            if (innerNodeMatch.getSimilarity() >= commonNodesNoStringSimilarityThreshold) {
+                addMatch(innerNodeMatch);
+            }
+        }
     }
 
     private void addMatch(Match match) {
@@ -115,60 +172,130 @@ public class ParseTreeMatcher {
         match.getNewNode().setMatched(true);
     }
 
-    private static Match matchLeaves(ParseTreeNode oldCodeNode, ParseTreeNode newCodeNode) {
-        // leaf similarity
-        if (oldCodeNode.isLeaf() && newCodeNode.isLeaf()) {
+    /**
+     * Dice coefficient of the bigrams of the labels, 2.0 for equal labels.
+     *
+     * @param threshold similarities that cannot reach the threshold because of the numbers of bigrams are
+     *                  returned as 0.
+     */
+    private double calculateStringSimilarity(String a, String b, double threshold) {
+        if (a.equals(b)) {
+            return 2.0;
+        }
 
-            var similarity = calculateStringSimilarity(oldCodeNode.getNodeLabel(),
-                    newCodeNode.getNodeLabel());
+        var biGramsA = getBiGrams(a);
+        var biGramsB = getBiGrams(b);
 
-            return new Match(oldCodeNode, newCodeNode, similarity);
+        // the intersection is at most the smaller set and the union at least the larger set
+        int min = Math.min(biGramsA.length, biGramsB.length);
+        int max = Math.max(biGramsA.length, biGramsB.length);
+        if (max > 0 && 2.0 * min / max < threshold) {
+            return 0;
+        }
 
-        } else {
-            throw new IllegalArgumentException();
+        int biGramsIntersectionSize = 0;
+        for (int i = 0, j = 0; i < biGramsA.length && j < biGramsB.length; ) {
+            if (biGramsA[i] < biGramsB[j]) {
+                i++;
+            } else if (biGramsA[i] > biGramsB[j]) {
+                j++;
+            } else {
+                biGramsIntersectionSize++;
+                i++;
+                j++;
+            }
         }
+        int unionSize = biGramsA.length + biGramsB.length - biGramsIntersectionSize;
+
+        return (2.0 * biGramsIntersectionSize) / unionSize;
     }
 
-    private double getCommonScore(ParseTreeNode a, ParseTreeNode b) {
-        var leavesA = a.getLeaves();
-        var leavesB = b.getLeaves();
+    private int[] getBiGrams(String s) {
+        return biGrams.computeIfAbsent(s, ParseTreeMatcher::calculateBiGrams);
+    }
 
-        int commonCount = 0;
-        for (var leafA : leavesA) {
-            for (var leafB : leavesB) {
-                if (matches.hasMatch(leafA, leafB)) {
-                    commonCount++;
-                }
-            }
+    /**
+     * @return the distinct bigrams of the string in ascending order, each encoded as its two characters.
+     */
+    private static int[] calculateBiGrams(String s) {
+        if (s.length() < 2) {
+            return new int[0];
         }
+        var result = new int[s.length() - 1];
+        for (int i = 0; i < s.length() - 1; i++) {
+            result[i] = s.charAt(i) << 16 | s.charAt(i + 1);
+        }
+        Arrays.sort(result);
 
-        return 1.0 * commonCount / Math.max(leavesA.size(), leavesB.size());
+        int distinct = 1;
+        for (int i = 1; i < result.length; i++) {
+            if (result[i] != result[distinct - 1]) {
+                result[distinct++] = result[i];
+            }
+        }
+        return Arrays.copyOf(result, distinct);
     }
 
-    private static double calculateStringSimilarity(String a, String b) {
-        if (a.equals(b)) {
-            return 2.0;
+    /**
+     * The nodes of a tree in post order, so the subtree of each node is the range of indices from its first
+     * descendant to itself.
+     */
+    private static class PostOrderTree {
+
+        private final List<ParseTreeNode> nodes = new ArrayList<>();
+        private final Map<ParseTreeNode, Integer> indices = new IdentityHashMap<>();
+        private final int[] parents;
+        private final int[] firstDescendants;
+        private final int[] leafCounts;
+
+        PostOrderTree(ParseTreeNode root) {
+            root.forEachPostOrder(node -> {
+                indices.put(node, nodes.size());
+                nodes.add(node);
+            });
+
+            parents = new int[nodes.size()];
+            firstDescendants = new int[nodes.size()];
+            leafCounts = new int[nodes.size()];
+            for (int i = 0; i < nodes.size(); i++) {
+                var node = nodes.get(i);
+                parents[i] = node == root ? -1 : indices.get(node.getParent());
+
+                // the children precede their parent
+                firstDescendants[i] = i;
+                for (var child : node.getChildren()) {
+                    int childIndex = indices.get(child);
+                    firstDescendants[i] = Math.min(firstDescendants[i], firstDescendants[childIndex]);
+                    leafCounts[i] += child.isLeaf() ? 1 : leafCounts[childIndex];
+                }
+            }
         }
 
-        var biGramsA = calculateBiGrams(a);
-        var biGramsB = calculateBiGrams(b);
+        int size() {
+            return nodes.size();
+        }
 
-        var biGramsIntersectionSize = biGramsA.stream()
-                .filter(biGramsB::contains)
-                .count();
-        // union
-        biGramsA.addAll(biGramsB);
+        ParseTreeNode get(int index) {
+            return nodes.get(index);
+        }
 
-        return (2.0 * biGramsIntersectionSize) / biGramsA.size();
-    }
+        int indexOf(ParseTreeNode node) {
+            return indices.get(node);
+        }
 
-    private static Set<String> calculateBiGrams(String s) {
-        var result = new HashSet<String>();
+        int getParent(int index) {
+            return parents[index];
+        }
 
-        for (int i = 0; i < s.length() - 1; i++) {
-            result.add("" + s.charAt(i) + s.charAt(i + 1));
+        int getFirstDescendant(int index) {
+            return firstDescendants[index];
         }
 
-        return result;
+        /**
+         * @return the number of leaves below the node, like {@link ParseTreeNode#getLeaves()}.
+         */
+        int getLeafCount(int index) {
+            return leafCounts[index];
+        }
     }
 }
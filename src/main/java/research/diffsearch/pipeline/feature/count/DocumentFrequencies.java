@@ -0,0 +1,109 @@
+package research.diffsearch.pipeline.feature.count;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable document frequencies of the features of a corpus and the inverse document frequencies derived
+ * from them.
+ * <p>
+ * The binary file consists of big-endian 32-bit integers: the number of documents, the number of features
+ * and then the document frequency of each feature.
+ *
+ * @author Paul Bredl
+ */
+public class DocumentFrequencies {
+
+    private static final Logger logger = LoggerFactory.getLogger(DocumentFrequencies.class);
+
+    // loaded files, shared by all queries
+    private static final Map<String, DocumentFrequencies> sharedFrequencies = new HashMap<>();
+    // last modification time of the loaded files
+    private static final Map<String, Long> sharedLastModified = new HashMap<>();
+
+    private final int numberOfDocuments;
+    private final int[] documentFrequencies;
+    private final double[] inverseDocumentFrequencies;
+
+    public DocumentFrequencies(int numberOfDocuments, int[] documentFrequencies) {
+        this.numberOfDocuments = numberOfDocuments;
+        this.documentFrequencies = documentFrequencies.clone();
+        this.inverseDocumentFrequencies = new double[documentFrequencies.length];
+        for (int i = 0; i < documentFrequencies.length; i++) {
+            if (documentFrequencies[i] != 0) {
+                inverseDocumentFrequencies[i] = Math.log(numberOfDocuments / (double) documentFrequencies[i]);
+            }
+        }
+    }
+
+    /**
+     * Loads the document frequencies from the binary file once and shares them afterwards. A file that was
+     * written again is loaded again.
+     */
+    public static synchronized DocumentFrequencies getShared(String path) throws IOException {
+        var frequencies = sharedFrequencies.get(path);
+        long lastModified = new File(path).lastModified();
+        if (frequencies == null || sharedLastModified.get(path) != lastModified) {
+            frequencies = load(path);
+            sharedFrequencies.put(path, frequencies);
+            sharedLastModified.put(path, lastModified);
+        }
+        return frequencies;
+    }
+
+    public static DocumentFrequencies load(String path) throws IOException {
+        try (var inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(path))))) {
+            int numberOfDocuments = inputStream.readInt();
+            var documentFrequencies = new int[inputStream.readInt()];
+            for (int i = 0; i < documentFrequencies.length; i++) {
+                documentFrequencies[i] = inputStream.readInt();
+            }
+            logger.debug("Loaded document frequencies of {} documents from {}.", numberOfDocuments, path);
+            return new DocumentFrequencies(numberOfDocuments, documentFrequencies);
+        }
+    }
+
+    public void save(String path) throws IOException {
+        try (var outputStream = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(Paths.get(path))))) {
+            outputStream.writeInt(numberOfDocuments);
+            outputStream.writeInt(documentFrequencies.length);
+            for (int documentFrequency : documentFrequencies) {
+                outputStream.writeInt(documentFrequency);
+            }
+        }
+    }
+
+    public int getNumberOfDocuments() {
+        return numberOfDocuments;
+    }
+
+    /**
+     * @return the number of features.
+     */
+    public int getLength() {
+        return documentFrequencies.length;
+    }
+
+    public int getDocumentFrequency(int featureIndex) {
+        return documentFrequencies[featureIndex];
+    }
+
+    /**
+     * @return the inverse document frequency of the feature, 0 for features that appear in no document.
+     */
+    public double getInverseDocumentFrequency(int featureIndex) {
+        return inverseDocumentFrequencies[featureIndex];
+    }
+}
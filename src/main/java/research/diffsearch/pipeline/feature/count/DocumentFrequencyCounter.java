@@ -1,62 +1,98 @@
 package research.diffsearch.pipeline.feature.count;
 
-import com.google.common.primitives.Ints;
+import org.eclipse.jgit.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import research.diffsearch.pipeline.base.Pipeline;
 import research.diffsearch.pipeline.feature.FeatureVector;
-import research.diffsearch.util.FilePathUtils;
 
 import java.io.IOException;
-import java.util.stream.StreamSupport;
-
-import static research.diffsearch.util.FilePathUtils.getAllLines;
+import java.util.Arrays;
 
 /**
+ * Counts in how many feature vectors each feature appears and saves the counts to a binary file after
+ * execution, see {@link DocumentFrequencies}. Counters without a file only count, so that the counts of
+ * several counters can be {@link #add(DocumentFrequencyCounter) added}.
+ *
  * @author Paul Bredl
  */
 public class DocumentFrequencyCounter implements Pipeline<FeatureVector, FeatureVector> {
 
+    @Nullable
+    private final String path;
     private int[] documentFrequencies;
+    private int numberOfDocuments = 0;
 
     private static final Logger logger = LoggerFactory.getLogger(DocumentFrequencyCounter.class);
 
+    /**
+     * @param path file the document frequencies are saved to, or null if they are not saved.
+     */
+    public DocumentFrequencyCounter(@Nullable String path) {
+        this.path = path;
+    }
+
     @Override
     public FeatureVector process(FeatureVector input, int index) {
         if (documentFrequencies == null) {
-            documentFrequencies = new int[input.getVector().length];
+            documentFrequencies = new int[input.getLength()];
         }
 
-        for (int i = 0; i < input.getVector().length; i++) {
-            if (input.getVector()[i] > 0) {
-                documentFrequencies[i]++;
+        // only the non-zero entries of sparse vectors
+        for (int entry = 0; entry < input.getEntryCount(); entry++) {
+            if (input.getEntryValue(entry) > 0) {
+                documentFrequencies[input.getEntryIndex(entry)]++;
             }
         }
+        numberOfDocuments++;
 
         return input;
     }
 
+    /**
+     * Adds the counts of the other counter to this counter, e.g. of a shard of the corpus.
+     */
+    public synchronized void add(DocumentFrequencyCounter other) {
+        if (other.documentFrequencies != null) {
+            if (documentFrequencies == null) {
+                documentFrequencies = new int[other.documentFrequencies.length];
+            } else if (documentFrequencies.length < other.documentFrequencies.length) {
+                documentFrequencies = Arrays.copyOf(documentFrequencies, other.documentFrequencies.length);
+            }
+            for (int i = 0; i < other.documentFrequencies.length; i++) {
+                documentFrequencies[i] += other.documentFrequencies[i];
+            }
+        }
+        numberOfDocuments += other.numberOfDocuments;
+    }
+
+    public int getNumberOfDocuments() {
+        return numberOfDocuments;
+    }
+
     public int getDocumentFrequency(int featureIndex) {
         return documentFrequencies[featureIndex];
     }
 
+    /**
+     * @return a copy of the document frequencies counted so far.
+     */
+    public DocumentFrequencies getDocumentFrequencies() {
+        return new DocumentFrequencies(numberOfDocuments,
+                documentFrequencies == null ? new int[0] : documentFrequencies);
+    }
+
     public void saveToFile() {
+        if (path == null) {
+            return;
+        }
         try {
-            FilePathUtils
-                    .<Integer>getStringFileWriterPipeline("./src/main/resources/frequency.csv")
-                    .execute(Ints.asList(documentFrequencies));
+            getDocumentFrequencies().save(path);
         } catch (IOException e) {
             logger.error(e.getMessage(), e);
         }
     }
 
-    public void loadFromFile() {
-        documentFrequencies = StreamSupport.stream(getAllLines(
-                "./src/main/resources/frequency.csv").spliterator(), false)
-                .mapToInt(Integer::parseInt)
-                .toArray();
-    }
-
     @Override
     public void after() {
         Pipeline.super.after();
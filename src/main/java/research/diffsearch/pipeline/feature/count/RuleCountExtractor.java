@@ -4,12 +4,9 @@ import org.antlr.v4.runtime.tree.Tree;
 import org.antlr.v4.runtime.tree.Trees;
 import research.diffsearch.pipeline.feature.FeatureVector;
 import research.diffsearch.pipeline.feature.extractor.AbstractRecursiveFeatureExtractor;
+import research.diffsearch.util.GrammarTable;
 import research.diffsearch.util.ProgrammingLanguage;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 /**
  * @author Paul Bredl
  */
@@ -19,35 +16,38 @@ public class RuleCountExtractor extends AbstractRecursiveFeatureExtractor {
         super(language, length);
     }
 
-    public static Map<String, Integer> getRuleCountMapForTree(Tree node,
-                                                              List<String> ruleNames,
-                                                              Map<String, Integer> countMap) {
-        var nodeText = Trees.getNodeText(node,ruleNames);
-        if (ruleNames.contains(nodeText)) {
-            var count = countMap.getOrDefault(nodeText, 0);
-            countMap.put(nodeText, count + 1);
+    /**
+     * Counts the nodes of the tree per rule.
+     *
+     * @param counts number of nodes per rule index, incremented for the nodes of the tree.
+     */
+    public static int[] getRuleCountsForTree(Tree node, GrammarTable grammarTable, int[] counts) {
+        var nodeText = Trees.getNodeText(node, grammarTable.getRuleNames());
+        int ruleIndex = grammarTable.getRuleIndex(nodeText);
+        if (ruleIndex >= 0) {
+            counts[ruleIndex]++;
         }
 
         for (int i = 0; i < node.getChildCount(); i++) {
-            countMap = getRuleCountMapForTree(node.getChild(i), ruleNames, countMap);
+            getRuleCountsForTree(node.getChild(i), grammarTable, counts);
         }
 
-        return countMap;
+        return counts;
     }
 
     @Override
     public void extractFeaturesRecursive(Tree t, FeatureVector.Section section,
                                          boolean isQuery) {
 
-        var ruleNames = getProgrammingLanguage().getRuleNames();
-        var nodeText = Trees.getNodeText(t, ruleNames);
-        var countMap = getRuleCountMapForTree(t, ruleNames, new HashMap<>());
+        var grammarTable = getProgrammingLanguage().getGrammarTable();
+        var ruleNames = grammarTable.getRuleNames();
+        var counts = getRuleCountsForTree(t, grammarTable, new int[grammarTable.getRuleCount()]);
+        var ruleMaxCount = this.getFeatureVectorSectionLength() / ruleNames.size();
 
         var index = 0;
-        for (var rule : ruleNames) {
-            var ruleMaxCount = this.getFeatureVectorSectionLength() / ruleNames.size();
-
-            var countForCurrentCodeChange = countMap.getOrDefault(rule, 0);
+        for (int ruleIndex = 0; ruleIndex < ruleNames.size(); ruleIndex++) {
+            var rule = ruleNames.get(ruleIndex);
+            var countForCurrentCodeChange = counts[ruleIndex];
             if (isNotBlacklisted(rule)) {
                 for (int i = 0; i < ruleMaxCount && i < countForCurrentCodeChange; i++) {
                     section.addFeature(rule, section.getStartPosition() + index + i);
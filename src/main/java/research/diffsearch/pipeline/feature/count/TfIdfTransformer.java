@@ -1,40 +1,51 @@
 package research.diffsearch.pipeline.feature.count;
 
 import research.diffsearch.pipeline.base.Pipeline;
+import research.diffsearch.pipeline.feature.FeatureVector;
 
-import java.util.Arrays;
 
 /**
+ * Weights the features of a vector with tf-idf. The term frequencies are normalized by the maximum term
+ * frequency of the vector.
+ * <p>
+ * The corpus only needs the normalized term frequencies, see {@link #normalizeTermFrequencies(FeatureVector)},
+ * its vectors are weighted with the inverse document frequencies when they are indexed.
+ *
  * @author Paul Bredl
  */
-public class TfIdfTransformer implements Pipeline<double[], double[]> {
+public class TfIdfTransformer implements Pipeline<FeatureVector, FeatureVector> {
 
-    private final DocumentFrequencyCounter counter;
-    private final int numberOfDocuments;
+    private final DocumentFrequencies documentFrequencies;
 
-    public TfIdfTransformer(DocumentFrequencyCounter counter, int numberOfDocuments) {
-        this.counter = counter;
-        this.numberOfDocuments = numberOfDocuments;
+    public TfIdfTransformer(DocumentFrequencies documentFrequencies) {
+        this.documentFrequencies = documentFrequencies;
+    }
+
+    /**
+     * Divides the values of the vector by its maximum value.
+     */
+    public static FeatureVector normalizeTermFrequencies(FeatureVector input) {
+        double maxTermFrequency = 0;
+        for (int entry = 0; entry < input.getEntryCount(); entry++) {
+            maxTermFrequency = Math.max(maxTermFrequency, input.getEntryValue(entry));
+        }
+
+        // zero values stay zero, so only the entries are transformed
+        for (int entry = 0; entry < input.getEntryCount(); entry++) {
+            double tf = input.getEntryValue(entry) / maxTermFrequency;
+            input.setEntryValue(entry, Double.isNaN(tf) ? 0 : tf);
+        }
+        return input;
     }
 
     @Override
-    public double[] process(double[] input, int index) {
-        var maxTermFrequency = Arrays.stream(input)
-                .max()
-                .orElse(1);
-
-        for (int i = 0; i < input.length; i++) {
-            double tf = input[i] / maxTermFrequency;
-            var documentFrequency = counter.getDocumentFrequency(i);
-
-            double idf = Math.log(numberOfDocuments / (double) documentFrequency);
-            if (documentFrequency == 0) {
-                idf = 0;
-            }
-            input[i] = tf * idf;
-            if (Double.isNaN(tf * idf)) {
-                input[i] = 0;
-            }
+    public FeatureVector process(FeatureVector input, int index) {
+        normalizeTermFrequencies(input);
+
+        for (int entry = 0; entry < input.getEntryCount(); entry++) {
+            double idf = documentFrequencies.getInverseDocumentFrequency(input.getEntryIndex(entry));
+            double tfIdf = input.getEntryValue(entry) * idf;
+            input.setEntryValue(entry, Double.isNaN(tfIdf) ? 0 : tfIdf);
         }
 
         return input;
@@ -1,6 +1,7 @@
 package research.diffsearch.pipeline.feature.extractor;
 
 import org.antlr.v4.runtime.tree.Tree;
+import research.diffsearch.pipeline.feature.FeatureHash;
 import research.diffsearch.pipeline.feature.FeatureVector;
 import research.diffsearch.util.ProgrammingLanguage;
 
@@ -23,7 +24,7 @@ public abstract class AbstractRecursiveFeatureExtractor implements FeatureExtrac
     }
 
     public static int getFeatureVectorIndex(int startIndex, int hashValue, long vectorLength) {
-        return (int) (startIndex + Math.abs(hashValue % vectorLength));
+        return startIndex + FeatureHash.indexOf(hashValue, (int) vectorLength);
     }
 
     public abstract void extractFeaturesRecursive(Tree t, FeatureVector.Section section,
@@ -44,6 +45,14 @@ public abstract class AbstractRecursiveFeatureExtractor implements FeatureExtrac
         return programmingLanguage;
     }
 
+    /**
+     * Adds the feature <code>first + ' ' + second</code> without building the string.
+     */
+    protected static void addFeature(FeatureVector.Section section, String first, String second) {
+        section.addHashedFeature(FeatureHash.of(first, ' ', second),
+                section.isRecordingFeatures() ? first + ' ' + second : null);
+    }
+
     protected static boolean isNotBlacklisted(String nodeText) {
         return !Objects.equals("querySnippet", nodeText);
     }
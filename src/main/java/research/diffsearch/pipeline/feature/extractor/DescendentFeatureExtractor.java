@@ -36,7 +36,7 @@ public class DescendentFeatureExtractor extends AbstractRecursiveFeatureExtracto
         var childNodeText = Trees.getNodeText(t, getProgrammingLanguage().getRuleNames());
         if (shouldExtractFeature(childNodeText, isQuery)) {
 
-            section.addFeature(parentNode + ' ' + childNodeText);
+            addFeature(section, parentNode, childNodeText);
         }
 
         for (int i = 0; i < t.getChildCount(); i++) {
@@ -26,25 +26,44 @@ public class DividedFeatureExtractor implements FeatureExtractor {
     public void extractFeatures(Tree tree, FeatureVector.Section section, boolean isQuery) {
 
         if (tree.getChildCount() >= 3) {
+            var oldSection = section.getSubsection(baseExtractor.getName() + " [old]",
+                    0, baseExtractor.getFeatureVectorSectionLength());
             for (var child : getRootsOfOldPart(tree)) {
-                baseExtractor.extractFeaturesRecursive(child,
-                        section.getSubsection(baseExtractor.getName() + " [old]",
-                                0, baseExtractor.getFeatureVectorSectionLength()),
-                        isQuery);
+                baseExtractor.extractFeaturesRecursive(child, oldSection, isQuery);
             }
 
+            var newSection = section.getSubsection(baseExtractor.getName() + " [new]",
+                    baseExtractor.getFeatureVectorSectionLength(),
+                    baseExtractor.getFeatureVectorSectionLength());
             for (var child : getRootsOfNewPart(tree)) {
-                baseExtractor.extractFeaturesRecursive(child,
-                        section.getSubsection(baseExtractor.getName() + " [new]",
-                                baseExtractor.getFeatureVectorSectionLength(),
-                                baseExtractor.getFeatureVectorSectionLength()),
-                        isQuery);
+                baseExtractor.extractFeaturesRecursive(child, newSection, isQuery);
             }
         } else {
             baseExtractor.extractFeaturesRecursive(tree, section, isQuery);
         }
     }
 
+    @Override
+    public boolean addTo(FusedTraversal traversal, Tree tree, FeatureVector.Section section) {
+        if (!(baseExtractor instanceof NodeFeatureExtractor) || traversal.getFreeVisits() < 2) {
+            return false;
+        }
+        var nodeExtractor = (NodeFeatureExtractor) baseExtractor;
+
+        if (tree.getChildCount() >= 3) {
+            traversal.add(getRootsOfOldPart(tree), nodeExtractor,
+                    section.getSubsection(baseExtractor.getName() + " [old]",
+                            0, baseExtractor.getFeatureVectorSectionLength()));
+            traversal.add(getRootsOfNewPart(tree), nodeExtractor,
+                    section.getSubsection(baseExtractor.getName() + " [new]",
+                            baseExtractor.getFeatureVectorSectionLength(),
+                            baseExtractor.getFeatureVectorSectionLength()));
+        } else {
+            traversal.add(List.of(tree), nodeExtractor, section);
+        }
+        return true;
+    }
+
     public List<Tree> getRootsOfOldPart(Tree tree) {
         var result = new ArrayList<Tree>();
         for (int i = 0; i < tree.getChildCount(); i++) {
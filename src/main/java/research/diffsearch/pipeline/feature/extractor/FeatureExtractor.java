@@ -36,6 +36,16 @@ public interface FeatureExtractor extends ProgrammingLanguageDependent {
                          FeatureVector.Section section,
                          boolean isQuery);
 
+    /**
+     * Adds this extractor to a traversal that is shared by several extractors, instead of extracting
+     * the features with {@link #extractFeatures(Tree, FeatureVector.Section, boolean)}.
+     *
+     * @return false if this extractor cannot be added and must extract its features itself.
+     */
+    default boolean addTo(FusedTraversal traversal, Tree codeChangeTree, FeatureVector.Section section) {
+        return false;
+    }
+
     /**
      * Finds a feature extraction by name. <br>
      * Following names are allowed:
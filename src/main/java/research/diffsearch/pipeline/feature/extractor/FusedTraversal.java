@@ -0,0 +1,130 @@
+package research.diffsearch.pipeline.feature.extractor;
+
+import org.antlr.v4.runtime.tree.Tree;
+import org.antlr.v4.runtime.tree.Trees;
+import research.diffsearch.pipeline.feature.FeatureVector.Section;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single traversal of a code change tree that feeds several {@link NodeFeatureExtractor}s. Each node
+ * and the texts of its children are looked up once for all extractors. The traversal uses an explicit
+ * stack, so deep trees cannot overflow the call stack.
+ * <p>
+ * The extractors are called node by node, so the features of different extractors are interleaved.
+ * This does not change the vector if each feature is counted at its own index, i.e. without count bits.
+ *
+ * @author Paul Bredl
+ */
+public class FusedTraversal {
+
+    /**
+     * Maximum number of visits, one bit of the visit masks each.
+     */
+    public static final int MAX_VISITS = Long.SIZE;
+
+    private final NodeFeatureExtractor[] extractors = new NodeFeatureExtractor[MAX_VISITS];
+    private final Section[] sections = new Section[MAX_VISITS];
+    private int visitCount = 0;
+    // visits that start at a node
+    private final Map<Tree, Long> startMasks = new IdentityHashMap<>();
+    private List<String> ruleNames;
+
+    // stack of the nodes to visit, with their text and the visits they belong to
+    private Tree[] nodes = new Tree[64];
+    private String[] texts = new String[64];
+    private long[] masks = new long[64];
+    private String[] childTexts = new String[16];
+
+    /**
+     * @return the number of visits that can still be added.
+     */
+    public int getFreeVisits() {
+        return MAX_VISITS - visitCount;
+    }
+
+    /**
+     * Adds a visit of the given roots with an extractor. The roots must be the tree the traversal runs on
+     * or children of it.
+     *
+     * @return false if there are no free visits left. The extractor must extract its features itself then.
+     */
+    public boolean add(List<Tree> roots, NodeFeatureExtractor extractor, Section section) {
+        if (visitCount >= MAX_VISITS) {
+            return false;
+        }
+        if (ruleNames == null) {
+            ruleNames = extractor.getProgrammingLanguage().getRuleNames();
+        }
+        long visitBit = 1L << visitCount;
+        for (Tree root : roots) {
+            startMasks.merge(root, visitBit, (mask1, mask2) -> mask1 | mask2);
+        }
+        extractors[visitCount] = extractor;
+        sections[visitCount] = section;
+        visitCount++;
+        return true;
+    }
+
+    /**
+     * Visits all nodes of the tree in pre-order and extracts the features of all added visits.
+     */
+    public void run(Tree tree, boolean isQuery) {
+        if (visitCount == 0) {
+            return;
+        }
+        int size = 0;
+        nodes[size] = tree;
+        texts[size] = Trees.getNodeText(tree, ruleNames);
+        masks[size] = startMasks.getOrDefault(tree, 0L);
+        size++;
+
+        while (size > 0) {
+            size--;
+            Tree node = nodes[size];
+            String nodeText = texts[size];
+            long mask = masks[size];
+            nodes[size] = null;
+
+            int childCount = node.getChildCount();
+            if (childTexts.length < childCount) {
+                childTexts = new String[Math.max(childCount, childTexts.length * 2)];
+            }
+            for (int i = 0; i < childCount; i++) {
+                childTexts[i] = Trees.getNodeText(node.getChild(i), ruleNames);
+            }
+
+            for (long bits = mask; bits != 0; bits &= bits - 1) {
+                int visit = Long.numberOfTrailingZeros(bits);
+                extractors[visit].extractNodeFeatures(node, nodeText, childTexts, childCount,
+                        sections[visit], isQuery);
+            }
+
+            // push in reverse, so the children are visited in order
+            for (int i = childCount - 1; i >= 0; i--) {
+                var child = node.getChild(i);
+                long childMask = node == tree ? startMasks.getOrDefault(child, 0L) : 0L;
+                for (long bits = mask; bits != 0; bits &= bits - 1) {
+                    int visit = Long.numberOfTrailingZeros(bits);
+                    if (extractors[visit].visitsChild(childTexts[i])) {
+                        childMask |= 1L << visit;
+                    }
+                }
+                if (childMask != 0) {
+                    if (size == nodes.length) {
+                        nodes = Arrays.copyOf(nodes, size * 2);
+                        texts = Arrays.copyOf(texts, size * 2);
+                        masks = Arrays.copyOf(masks, size * 2);
+                    }
+                    nodes[size] = child;
+                    texts[size] = childTexts[i];
+                    masks[size] = childMask;
+                    size++;
+                }
+            }
+        }
+    }
+}
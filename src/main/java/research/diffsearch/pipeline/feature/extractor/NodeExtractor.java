@@ -1,7 +1,6 @@
 package research.diffsearch.pipeline.feature.extractor;
 
 import org.antlr.v4.runtime.tree.Tree;
-import org.antlr.v4.runtime.tree.Trees;
 import research.diffsearch.Config;
 import research.diffsearch.pipeline.feature.FeatureVector;
 import research.diffsearch.util.ProgrammingLanguage;
@@ -12,22 +11,17 @@ import research.diffsearch.util.Util;
  *
  * @author Paul Bredl
  */
-public class NodeExtractor extends AbstractRecursiveFeatureExtractor {
+public class NodeExtractor extends NodeFeatureExtractor {
     public NodeExtractor(ProgrammingLanguage language, int featureVectorLength) {
         super(language, featureVectorLength);
     }
 
     @Override
-    public void extractFeaturesRecursive(Tree t, FeatureVector.Section section, boolean isQuery) {
-        var nodeText = Trees.getNodeText(t, getProgrammingLanguage().getRuleNames());
-
+    protected void extractNodeFeatures(Tree node, String nodeText, String[] childTexts, int childCount,
+                                       FeatureVector.Section section, boolean isQuery) {
         if (shouldExtractFeature(nodeText, isQuery)) {
             section.addFeature(nodeText);
         }
-
-        for (int i = 0; i < t.getChildCount(); i++) {
-            extractFeaturesRecursive(t.getChild(i), section, isQuery);
-        }
     }
 
     private static boolean shouldExtractFeature(String nodeText, boolean isQuery) {
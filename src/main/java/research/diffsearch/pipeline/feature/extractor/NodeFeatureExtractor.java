@@ -0,0 +1,51 @@
+package research.diffsearch.pipeline.feature.extractor;
+
+import org.antlr.v4.runtime.tree.Tree;
+import research.diffsearch.pipeline.feature.FeatureVector.Section;
+import research.diffsearch.util.ProgrammingLanguage;
+
+import java.util.List;
+
+/**
+ * A feature extractor whose features of a node only depend on the node and its children. The tree is
+ * traversed iteratively, so deep trees cannot overflow the stack, and several of these extractors can
+ * share a single traversal of the tree, see {@link FusedTraversal}.
+ *
+ * @author Paul Bredl
+ */
+public abstract class NodeFeatureExtractor extends AbstractRecursiveFeatureExtractor {
+
+    public NodeFeatureExtractor(ProgrammingLanguage language, int featureVectorLength) {
+        super(language, featureVectorLength);
+    }
+
+    /**
+     * Extracts the features of a single node.
+     *
+     * @param node       the node.
+     * @param nodeText   text of the node.
+     * @param childTexts texts of the children of the node, only the first <code>childCount</code> are valid.
+     * @param childCount number of children of the node.
+     */
+    protected abstract void extractNodeFeatures(Tree node, String nodeText, String[] childTexts, int childCount,
+                                                Section section, boolean isQuery);
+
+    /**
+     * @return false if the subtree of a child with the given text should not be visited.
+     */
+    protected boolean visitsChild(String childText) {
+        return true;
+    }
+
+    @Override
+    public void extractFeaturesRecursive(Tree t, Section section, boolean isQuery) {
+        var traversal = new FusedTraversal();
+        traversal.add(List.of(t), this, section);
+        traversal.run(t, isQuery);
+    }
+
+    @Override
+    public boolean addTo(FusedTraversal traversal, Tree codeChangeTree, Section section) {
+        return traversal.add(List.of(codeChangeTree), this, section);
+    }
+}
@@ -1,7 +1,6 @@
 package research.diffsearch.pipeline.feature.extractor;
 
 import org.antlr.v4.runtime.tree.Tree;
-import org.antlr.v4.runtime.tree.Trees;
 import research.diffsearch.Config;
 import research.diffsearch.pipeline.feature.FeatureVector;
 import research.diffsearch.util.ProgrammingLanguage;
@@ -14,32 +13,22 @@ import static research.diffsearch.util.Util.isQueryPlaceholder;
  * @author Paul Bredl
  * @author Luca Di Grazia
  */
-public class ParentChildFeatureExtractor extends AbstractRecursiveFeatureExtractor {
+public class ParentChildFeatureExtractor extends NodeFeatureExtractor {
 
     public ParentChildFeatureExtractor(ProgrammingLanguage language, int featureVectorLength) {
         super(language, featureVectorLength);
     }
 
     @Override
-    public void extractFeaturesRecursive(Tree t, FeatureVector.Section section, boolean isQuery) {
-        var ruleNames = getProgrammingLanguage().getRuleNames();
-        String parentChildText = Trees.getNodeText(t, ruleNames);
-
-        if (!parentChildText.equals("querySnippet")) {
-            for (int i = 0; i < t.getChildCount(); i++) {
-                var child = t.getChild(i);
-                var childNodeText = Trees.getNodeText(child, ruleNames);
-                if (shouldExtractFeature(parentChildText, childNodeText, isQuery)) {
-                    var feature = parentChildText + ' ' + childNodeText;
-
-                    section.addFeature(feature);
+    protected void extractNodeFeatures(Tree node, String nodeText, String[] childTexts, int childCount,
+                                       FeatureVector.Section section, boolean isQuery) {
+        if (!nodeText.equals("querySnippet")) {
+            for (int i = 0; i < childCount; i++) {
+                if (shouldExtractFeature(nodeText, childTexts[i], isQuery)) {
+                    addFeature(section, nodeText, childTexts[i]);
                 }
             }
         }
-
-        for (int i = 0; i < t.getChildCount(); i++) {
-            extractFeaturesRecursive(t.getChild(i), section, isQuery);
-        }
     }
 
     private static boolean shouldExtractFeature(String parentChildText, String childNodeText, boolean isQuery) {
@@ -1,7 +1,6 @@
 package research.diffsearch.pipeline.feature.extractor;
 
 import org.antlr.v4.runtime.tree.Tree;
-import org.antlr.v4.runtime.tree.Trees;
 import research.diffsearch.Config;
 import research.diffsearch.pipeline.feature.FeatureVector;
 import research.diffsearch.util.ProgrammingLanguage;
@@ -13,31 +12,22 @@ import static research.diffsearch.util.Util.isQueryPlaceholder;
  *
  * @author Paul Bredl
  */
-public class SiblingFeatureExtractor extends AbstractRecursiveFeatureExtractor {
+public class SiblingFeatureExtractor extends NodeFeatureExtractor {
 
     public SiblingFeatureExtractor(ProgrammingLanguage language, int featureVectorLength) {
         super(language, featureVectorLength);
     }
 
     @Override
-    public void extractFeaturesRecursive(Tree t, FeatureVector.Section section, boolean isQuery) {
-        var ruleNames = getProgrammingLanguage().getRuleNames();
-        for (int i = 0; i < t.getChildCount() - 1; i++) {
-            for (int j = i + 1; j < t.getChildCount(); j++) {
-                var child = t.getChild(i);
-                var child2 = t.getChild(j);
-                var childNodeText = Trees.getNodeText(child, ruleNames);
-                var child2NodeText = Trees.getNodeText(child2, ruleNames);
-
-                if (shouldExtractFeature(childNodeText, child2NodeText, isQuery)) {
-                    section.addFeature(childNodeText + ' ' + child2NodeText);
+    protected void extractNodeFeatures(Tree node, String nodeText, String[] childTexts, int childCount,
+                                       FeatureVector.Section section, boolean isQuery) {
+        for (int i = 0; i < childCount - 1; i++) {
+            for (int j = i + 1; j < childCount; j++) {
+                if (shouldExtractFeature(childTexts[i], childTexts[j], isQuery)) {
+                    addFeature(section, childTexts[i], childTexts[j]);
                 }
             }
         }
-
-        for (int i = 0; i < t.getChildCount(); i++) {
-            extractFeaturesRecursive(t.getChild(i), section, isQuery);
-        }
     }
 
     private static boolean shouldExtractFeature(String nodeText1, String nodeText2, boolean isQuery) {
@@ -1,8 +1,8 @@
 package research.diffsearch.pipeline.feature.extractor;
 
 import org.antlr.v4.runtime.tree.Tree;
-import org.antlr.v4.runtime.tree.Trees;
 import research.diffsearch.Config;
+import research.diffsearch.pipeline.feature.FeatureHash;
 import research.diffsearch.pipeline.feature.FeatureVector;
 import research.diffsearch.util.ProgrammingLanguage;
 import research.diffsearch.util.Util;
@@ -13,40 +13,47 @@ import research.diffsearch.util.Util;
  * @author Paul Bredl
  * @author Luca Di Grazia
  */
-public class TriangleFeatureExtractor extends AbstractRecursiveFeatureExtractor {
+public class TriangleFeatureExtractor extends NodeFeatureExtractor {
 
     public TriangleFeatureExtractor(ProgrammingLanguage language, int featureVectorLength) {
         super(language, featureVectorLength);
     }
 
     @Override
-    public void extractFeaturesRecursive(Tree t, FeatureVector.Section section, boolean isQuery) {
-        var ruleNames = getProgrammingLanguage().getRuleNames();
-        StringBuilder sum = new StringBuilder();
-        sum.append(Trees.getNodeText(t, ruleNames));
+    protected void extractNodeFeatures(Tree node, String nodeText, String[] childTexts, int childCount,
+                                       FeatureVector.Section section, boolean isQuery) {
+        // the feature is the node text followed by each child text and a space
+        int featureHash = nodeText.hashCode();
+        boolean isBlank = nodeText.isBlank();
 
         int i;
-        for (i = 0; i < t.getChildCount(); i++) {
-            String childNodeText = Trees.getNodeText(t.getChild(i), ruleNames);
+        for (i = 0; i < childCount; i++) {
+            String childNodeText = childTexts[i];
             if (!isQuery || Config.EXTRACT_QUERY_KEYWORDS || !Util.isQueryPlaceholder(childNodeText)) {
-                sum.append(childNodeText).append(" ");
+                featureHash = FeatureHash.append(FeatureHash.append(featureHash, childNodeText), ' ');
+                isBlank = isBlank && childNodeText.isBlank();
             } else {
-                sum = new StringBuilder();
+                isBlank = true;
                 break;
             }
         }
 
-        if (!sum.toString().isBlank() && i > 0 /*&& !sum.toString().contains("querySnippet") */) {
-            section.addFeature(sum.toString());
+        if (!isBlank && i > 0) {
+            section.addHashedFeature(featureHash,
+                    section.isRecordingFeatures() ? getFeatureString(nodeText, childTexts, childCount) : null);
         }
+    }
 
-        for (i = 0; i < t.getChildCount(); i++) {
-            String childNodeText = Trees.getNodeText(t.getChild(i), ruleNames);
-            if (childNodeText.contains("literal")) {
-                continue;
-            }
+    @Override
+    protected boolean visitsChild(String childText) {
+        return !childText.contains("literal");
+    }
 
-            extractFeaturesRecursive(t.getChild(i), section, isQuery);
+    private static String getFeatureString(String nodeText, String[] childTexts, int childCount) {
+        StringBuilder feature = new StringBuilder(nodeText);
+        for (int i = 0; i < childCount; i++) {
+            feature.append(childTexts[i]).append(' ');
         }
+        return feature.toString();
     }
 }
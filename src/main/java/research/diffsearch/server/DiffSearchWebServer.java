@@ -19,6 +19,7 @@ import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.regex.Pattern;
 
 /**
  * @author Paul Bredl
@@ -80,7 +81,7 @@ public class DiffSearchWebServer extends Thread {
             flagFirstConnection = true;
             query = getQuery(postData);
             if(Util.checkIfQueryIsValid(query)){
-                result = performSearch(query);
+                result = performSearch(query, getLimit(postData));
             }
             else{
                 logger.trace("INVALID QUERY");
@@ -241,13 +242,30 @@ public class DiffSearchWebServer extends Thread {
 
     protected static String getQuery(StringBuilder postData) {
         return Util.formatCodeChange(URLDecoder.decode(postData.toString()
+                .replaceAll("&Limit=[^&]*", "")
                 .replaceAll("Text1=", "")
                 .replaceAll("&Text2=", "-->"), StandardCharsets.UTF_8));
     }
 
-    protected DiffsearchResult performSearch(String query) {
+    /**
+     * @return the maximum number of results given in the post data, or {@link Config#resultLimit}.
+     */
+    protected static int getLimit(StringBuilder postData) {
+        var matcher = Pattern.compile("&Limit=(\\d+)").matcher(postData);
+        if (matcher.find()) {
+            try {
+                int limit = Integer.parseInt(matcher.group(1));
+                return limit > 0 ? limit : Config.resultLimit;
+            } catch (NumberFormatException e) {
+                logger.warn("Invalid result limit {}", matcher.group(1));
+            }
+        }
+        return Config.resultLimit;
+    }
+
+    protected DiffsearchResult performSearch(String query, int limit) {
         try {
-            return new OnlinePipeline(socketFaiss, Config.PROGRAMMING_LANGUAGE)
+            return new OnlinePipeline(socketFaiss, Config.PROGRAMMING_LANGUAGE, limit)
                     .connectIf(Config.MEASURE_RECALL, new RecallPipeline(Config.PROGRAMMING_LANGUAGE, query))
                     .execute(query)
                     .orElse(DiffsearchResult.internalError(query));
@@ -277,6 +295,7 @@ public class DiffSearchWebServer extends Thread {
                     "    id=\"query_new\" >"
                     + secondPart + "</textarea>" +
                     "</pre>" +
+                    "<input type=\"number\" name=\"Limit\" min=\"1\" placeholder=\"Max. results\"> " +
                     "<input style=\"background-color:#0071e3; border-color:#0071e3; color:#FFFFFF\" type=\"submit\"" +
                     "value=\"Search\"></form></center>");
 
@@ -99,7 +99,7 @@ public class WebServerGUI extends DiffSearchWebServer {
 
 			try {
 				if (Util.checkIfQueryIsValid(query)) {
-					result = performSearch(query);
+					result = performSearch(query, getLimit(postData));
 				} else {
 					logger.trace("INVALID QUERY");
 					valid_query = false;
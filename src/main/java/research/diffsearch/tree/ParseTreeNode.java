@@ -239,7 +239,8 @@ public class ParseTreeNode {
     }
 
     public static Pair<ParseTreeNode, ParseTreeNode> fromTree(Tree parseTree, List<String> ruleNames) {
-        if (parseTree.getChildCount() == 3) {
+        // old code, arrow and new code, possibly followed by the end of file
+        if (parseTree.getChildCount() >= 3) {
             var result = new ImmutablePair<>(fromTree(parseTree.getChild(0), ruleNames, 0),
                     fromTree(parseTree.getChild(2), ruleNames,  0));
 
@@ -48,6 +48,17 @@ public class SerializableTreeNode implements Serializable, Tree, ProgrammingLang
         return nodeLabel;
     }
 
+    /**
+     * @return the label that is stored in this node, null for rules.
+     */
+    String getLabel() {
+        return nodeLabel;
+    }
+
+    Integer getRuleIndex() {
+        return ruleIndex;
+    }
+
     /**
      * @return all children of this node.
      */
@@ -0,0 +1,187 @@
+package research.diffsearch.tree;
+
+import org.antlr.v4.runtime.misc.Utils;
+import org.antlr.v4.runtime.tree.Tree;
+import org.eclipse.jgit.annotations.Nullable;
+import research.diffsearch.Config;
+import research.diffsearch.util.ProgrammingLanguage;
+import research.diffsearch.util.ProgrammingLanguageDependent;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Parse tree stored in parallel int arrays, indexed by the preorder position of the nodes. Every node has
+ * the tag of {@link TreeCodec} (label id or rule index), its parent and the range of its children in a
+ * shared child index, so a child is found by its position without walking the siblings.
+ * <p>
+ * The nodes are accessed through {@link Node} views implementing {@link Tree}. A view is created the first
+ * time a node is visited and is reused afterwards, so the views can be compared by identity like the nodes
+ * of the other trees. A tree must not be traversed concurrently.
+ *
+ * @author Paul Bredl
+ * @see TreeCodec#decodeArena(byte[], ProgrammingLanguage)
+ */
+public class TreeArena implements ProgrammingLanguageDependent {
+
+    private final int[] tags;
+    private final int[] parents;
+    private final int[] childCounts;
+    private final int[] childOffsets;
+    private final int[] children;
+    private final int size;
+    private final List<String> labels;
+    @Nullable
+    private final ProgrammingLanguage language;
+    private final Node[] nodes;
+
+    /**
+     * @param tags         the tags of the nodes, see {@link TreeCodec}.
+     * @param parents      the parents of the nodes, -1 for the root.
+     * @param childCounts  the number of children of the nodes.
+     * @param childOffsets the position of the first child of the nodes in the child index.
+     * @param children     the child index.
+     * @param size         the number of nodes, the arrays may be longer.
+     * @param labels       the dictionary of the tags.
+     */
+    TreeArena(int[] tags, int[] parents, int[] childCounts, int[] childOffsets, int[] children, int size,
+              List<String> labels, @Nullable ProgrammingLanguage language) {
+        this.tags = tags;
+        this.parents = parents;
+        this.childCounts = childCounts;
+        this.childOffsets = childOffsets;
+        this.children = children;
+        this.size = size;
+        this.labels = labels;
+        this.language = language;
+        this.nodes = new Node[size];
+    }
+
+    public Node getRoot() {
+        return getNode(0);
+    }
+
+    /**
+     * @return the number of nodes in the tree.
+     */
+    public int size() {
+        return size;
+    }
+
+    private Node getNode(int index) {
+        var node = nodes[index];
+        if (node == null) {
+            node = new Node(index);
+            nodes[index] = node;
+        }
+        return node;
+    }
+
+    @Override
+    public ProgrammingLanguage getProgrammingLanguage() {
+        if (language != null) {
+            return language;
+        }
+        return Config.PROGRAMMING_LANGUAGE;
+    }
+
+    /**
+     * View of one node of the arena.
+     */
+    public final class Node implements Tree {
+        private final int index;
+
+        private Node(int index) {
+            this.index = index;
+        }
+
+        /**
+         * @return the rule index of the node, -1 for terminals.
+         */
+        public int getRuleIndex() {
+            int tag = tags[index];
+            if (tag == 0 || (tag & 1) == 1) {
+                return -1;
+            }
+            return (tag >>> 1) - 1;
+        }
+
+        /**
+         * @return the content of the node, i.e. the terminal or the rule name, or null.
+         */
+        @Nullable
+        public String getNodeLabel() {
+            int tag = tags[index];
+            if (tag == 0) {
+                return null;
+            }
+            if ((tag & 1) == 1) {
+                return labels.get(tag >>> 1);
+            }
+            return getProgrammingLanguage().getRuleNames().get((tag >>> 1) - 1);
+        }
+
+        @Override
+        public Node getParent() {
+            int parent = parents[index];
+            return parent < 0 ? null : getNode(parent);
+        }
+
+        @Override
+        public Object getPayload() {
+            return getNodeLabel();
+        }
+
+        @Override
+        public Node getChild(int i) {
+            if (i < 0 || i >= childCounts[index]) {
+                return null;
+            }
+            return getNode(children[childOffsets[index] + i]);
+        }
+
+        @Override
+        public int getChildCount() {
+            return childCounts[index];
+        }
+
+        /**
+         * @see SerializableTreeNode#getCompleteNodeText(List)
+         */
+        public String getCompleteNodeText() {
+            if (getChildCount() == 0) {
+                // rules do not store their name as label
+                return (tags[index] & 1) == 1 ? getNodeLabel() : "";
+            }
+            var builder = new StringBuilder();
+            for (int i = 0; i < getChildCount(); i++) {
+                builder.append(getChild(i).getCompleteNodeText().trim()).append(" ");
+            }
+            return builder.toString();
+        }
+
+        @Override
+        public String toStringTree() {
+            String label = Utils.escapeWhitespace(getNodeLabel(), false);
+            if (getChildCount() == 0) {
+                return label;
+            }
+            var builder = new StringBuilder()
+                    .append("(")
+                    .append(label)
+                    .append(' ');
+            for (int i = 0; i < getChildCount(); i++) {
+                if (i > 0) {
+                    builder.append(' ');
+                }
+                builder.append(getChild(i).toStringTree());
+            }
+            return builder.append(")").toString();
+        }
+
+        @Override
+        public String toString() {
+            return Objects.toString(getNodeLabel());
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package research.diffsearch.tree;
+
+import org.eclipse.jgit.annotations.Nullable;
+import research.diffsearch.util.ProgrammingLanguage;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary encoding of parse trees. The nodes are written in preorder, each as two varints: a tag and
+ * the number of its children. The tag is 0 for a node without label, <code>2 * ruleIndex + 2</code> for a
+ * rule and <code>2 * labelId + 1</code> for a terminal, whose label is looked up in a dictionary shared by
+ * all trees of a corpus.
+ * <p>
+ * Encoding adds new labels to the dictionary and must not run concurrently, decoding is thread-safe.
+ *
+ * @author Paul Bredl
+ */
+public class TreeCodec {
+
+    private final List<String> labels;
+    private final Map<String, Integer> labelIds = new HashMap<>();
+
+    /**
+     * Creates a codec with an empty dictionary.
+     */
+    public TreeCodec() {
+        this(new ArrayList<>());
+    }
+
+    /**
+     * @param labels the dictionary of the trees, see {@link #getLabels()}.
+     */
+    public TreeCodec(List<String> labels) {
+        this.labels = new ArrayList<>(labels);
+        for (int i = 0; i < labels.size(); i++) {
+            labelIds.put(labels.get(i), i);
+        }
+    }
+
+    /**
+     * @return the labels of the dictionary, ordered by their id.
+     */
+    public List<String> getLabels() {
+        return labels;
+    }
+
+    public byte[] encode(SerializableTreeNode root) {
+        var outputStream = new ByteArrayOutputStream();
+        var stack = new ArrayList<SerializableTreeNode>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            var node = stack.remove(stack.size() - 1);
+            var label = node.getLabel();
+            if (label != null) {
+                writeVarint(outputStream, 2 * getLabelId(label) + 1);
+            } else if (node.getRuleIndex() != null) {
+                writeVarint(outputStream, 2 * node.getRuleIndex() + 2);
+            } else {
+                writeVarint(outputStream, 0);
+            }
+
+            var children = node.getChildren();
+            writeVarint(outputStream, children.size());
+            for (int i = children.size() - 1; i >= 0; i--) {
+                stack.add(children.get(i));
+            }
+        }
+        return outputStream.toByteArray();
+    }
+
+    private int getLabelId(String label) {
+        var id = labelIds.get(label);
+        if (id == null) {
+            id = labels.size();
+            labels.add(label);
+            labelIds.put(label, id);
+        }
+        return id;
+    }
+
+    /**
+     * Decodes a tree. The parents of the nodes are set, the labels are shared with the dictionary.
+     *
+     * @param language the language of the rule names, {@link research.diffsearch.Config#PROGRAMMING_LANGUAGE}
+     *                 if null.
+     */
+    public SerializableTreeNode decode(byte[] bytes, @Nullable ProgrammingLanguage language) {
+        var position = new int[1];
+        // nodes whose children are not complete yet and the number of their missing children
+        var parents = new SerializableTreeNode[16];
+        var missingChildren = new int[16];
+        int depth = 0;
+        SerializableTreeNode root = null;
+
+        do {
+            int tag = readVarint(bytes, position);
+            int childCount = readVarint(bytes, position);
+
+            SerializableTreeNode node;
+            if (tag == 0) {
+                node = new SerializableTreeNode((String) null, language);
+            } else if ((tag & 1) == 1) {
+                node = new SerializableTreeNode(labels.get(tag >>> 1), language);
+            } else {
+                node = new SerializableTreeNode((tag >>> 1) - 1, language);
+            }
+            node.setChildren(new ArrayList<>(childCount));
+
+            if (root == null) {
+                root = node;
+            } else {
+                parents[depth - 1].addChild(node);
+                if (--missingChildren[depth - 1] == 0) {
+                    depth--;
+                }
+            }
+            if (childCount > 0) {
+                if (depth == parents.length) {
+                    parents = Arrays.copyOf(parents, 2 * depth);
+                    missingChildren = Arrays.copyOf(missingChildren, 2 * depth);
+                }
+                parents[depth] = node;
+                missingChildren[depth] = childCount;
+                depth++;
+            }
+        } while (depth > 0);
+
+        return root;
+    }
+
+    /**
+     * Decodes a tree into int arrays without creating the nodes, which is cheaper than
+     * {@link #decode(byte[], ProgrammingLanguage)} for trees that are only traversed.
+     *
+     * @param language the language of the rule names, {@link research.diffsearch.Config#PROGRAMMING_LANGUAGE}
+     *                 if null.
+     */
+    public TreeArena decodeArena(byte[] bytes, @Nullable ProgrammingLanguage language) {
+        // every node takes at least two bytes
+        int capacity = bytes.length / 2;
+        var tags = new int[capacity];
+        var parents = new int[capacity];
+        var childCounts = new int[capacity];
+        var childOffsets = new int[capacity];
+        var children = new int[capacity];
+
+        var position = new int[1];
+        // nodes whose children are not complete yet and the number of their missing children
+        var stack = new int[16];
+        var missingChildren = new int[16];
+        int depth = 0;
+        int size = 0;
+        int childIndexSize = 0;
+
+        do {
+            int node = size++;
+            tags[node] = readVarint(bytes, position);
+            int childCount = readVarint(bytes, position);
+            childCounts[node] = childCount;
+            childOffsets[node] = childIndexSize;
+            childIndexSize += childCount;
+
+            if (node == 0) {
+                parents[node] = -1;
+            } else {
+                int parent = stack[depth - 1];
+                parents[node] = parent;
+                children[childOffsets[parent] + childCounts[parent] - missingChildren[depth - 1]] = node;
+                if (--missingChildren[depth - 1] == 0) {
+                    depth--;
+                }
+            }
+            if (childCount > 0) {
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, 2 * depth);
+                    missingChildren = Arrays.copyOf(missingChildren, 2 * depth);
+                }
+                stack[depth] = node;
+                missingChildren[depth] = childCount;
+                depth++;
+            }
+        } while (depth > 0);
+
+        return new TreeArena(tags, parents, childCounts, childOffsets, children, size, labels, language);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream outputStream, int value) {
+        while ((value & ~0x7F) != 0) {
+            outputStream.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        outputStream.write(value);
+    }
+
+    private static int readVarint(byte[] bytes, int[] position) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[position[0]++];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+}
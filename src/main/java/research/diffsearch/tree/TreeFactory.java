@@ -32,7 +32,9 @@ public class TreeFactory {
         var gson = new Gson();
 
         SerializableTreeNode result;
-        if (change.getJSONParseTree() == null) {
+        if (change.getEncodedParseTree() != null && change.getTreeCodec() != null) {
+            result = change.getTreeCodec().decode(change.getEncodedParseTree(), language);
+        } else if (change.getJSONParseTree() == null) {
             logger.debug("Generating new parse tree...");
             var parseTree = getAbstractTree(change.getFullChangeString(), language).getParseTree();
             var sTree = SerializableTreeNode.fromTree(parseTree, language);
@@ -41,7 +43,9 @@ public class TreeFactory {
             result = sTree;
         } else {
 
+            // legacy json trees have no parents
             result = gson.fromJson(change.getJSONParseTree(), SerializableTreeNode.class);
+            result.setConsistentParentChildRelations();
         }
 
         return result;
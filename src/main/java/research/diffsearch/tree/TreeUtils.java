@@ -125,6 +125,9 @@ public class TreeUtils {
         if (tree instanceof SerializableTreeNode) {
             return ((SerializableTreeNode) tree).getCompleteNodeText(ruleNames);
         }
+        if (tree instanceof TreeArena.Node) {
+            return ((TreeArena.Node) tree).getCompleteNodeText();
+        }
         throw new IllegalStateException();
     }
 
@@ -0,0 +1,114 @@
+package research.diffsearch.util;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import research.diffsearch.pipeline.base.ChangeOccurrence;
+import research.diffsearch.pipeline.base.CodeChange;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The other occurrences of the code changes that were found more than once, by the index of the code change
+ * in the corpus. Used to expand a result to all its locations.
+ *
+ * @author Paul Bredl
+ * @see research.diffsearch.pipeline.extraction.ChangeDeduplicator
+ */
+public class ChangeOccurrences {
+    private static final Logger logger = LoggerFactory.getLogger(ChangeOccurrences.class);
+
+    private static final Map<String, ChangeOccurrences> sharedOccurrences = new HashMap<>();
+
+    private final Map<Integer, List<ChangeOccurrence>> occurrences;
+    private final long lastModified;
+
+    private ChangeOccurrences(Map<Integer, List<ChangeOccurrence>> occurrences, long lastModified) {
+        this.occurrences = occurrences;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Reads the occurrences once and shares them afterwards. A file that was written again is read again.
+     */
+    public static synchronized ChangeOccurrences getShared(String path) {
+        var result = sharedOccurrences.get(path);
+        if (result == null || result.lastModified != new File(path).lastModified()) {
+            result = read(path);
+            sharedOccurrences.put(path, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return the occurrences of the file, empty if it does not exist, e.g. for a corpus that was created
+     * before the deduplication.
+     */
+    public static ChangeOccurrences read(String path) {
+        var occurrences = new HashMap<Integer, List<ChangeOccurrence>>();
+        var file = new File(path);
+        if (file.exists()) {
+            var gson = new Gson();
+            var listType = new TypeToken<List<ChangeOccurrence>>() {}.getType();
+            for (var line : FilePathUtils.getAllLines(path)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                var json = gson.fromJson(line, JsonObject.class);
+                occurrences.put(json.get("i").getAsInt(), gson.fromJson(json.get("o"), listType));
+            }
+            logger.debug("Loaded the occurrences of {} code changes from {}.", occurrences.size(), path);
+        }
+        return new ChangeOccurrences(occurrences, file.lastModified());
+    }
+
+    /**
+     * @return the other occurrences of the code change with the index, without its own location.
+     */
+    public List<ChangeOccurrence> get(int id) {
+        return occurrences.getOrDefault(id, Collections.emptyList());
+    }
+
+    public boolean isEmpty() {
+        return occurrences.isEmpty();
+    }
+
+    /**
+     * @param ids the indices of the code changes in the corpus, -1 if unknown.
+     * @return the code changes, each followed by copies at its other occurrences.
+     */
+    public List<CodeChange> expand(Collection<CodeChange> codeChanges, int[] ids) {
+        return expand(codeChanges, ids, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param ids   the indices of the code changes in the corpus, -1 if unknown.
+     * @param limit maximum number of returned code changes, occurrences included.
+     * @return the code changes, each followed by copies at its other occurrences, at most <code>limit</code>.
+     */
+    public List<CodeChange> expand(Collection<CodeChange> codeChanges, int[] ids, int limit) {
+        var result = new ArrayList<CodeChange>(Math.min(codeChanges.size(), limit));
+        int i = 0;
+        for (var codeChange : codeChanges) {
+            if (result.size() >= limit) {
+                break;
+            }
+            result.add(codeChange);
+            for (var occurrence : get(ids[i++])) {
+                if (result.size() >= limit) {
+                    break;
+                }
+                result.add(occurrence.toCodeChange(codeChange));
+            }
+        }
+        return result;
+    }
+}
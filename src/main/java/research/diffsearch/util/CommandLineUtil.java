@@ -39,8 +39,16 @@ public class CommandLineUtil {
                 .addOption("s", "silent", false, "omit large console outputs")
                 .addOption("py_port", true, "set the port for the python server")
                 .addOption("k", true, "set value for k, which is the number of candidate changes")
+                .addOption("limit", "result-limit", true, "maximum number of results of a query, matching stops when they are found")
+                .addOption("qcs", "query-cache-size", true, "number of parsed and extracted queries kept in memory, default is 256")
                 .addOption("fe", "extract features from the corpus")
+                .addOption("resume", "resume-extraction", false, "continue an interrupted feature extraction from its last checkpoint")
+                .addOption("cpi", "checkpoint-interval", true, "number of code changes between two checkpoints of the feature extraction")
+                .addOption("shards", "extraction-shards", true, "number of shards of the corpus that are extracted in parallel, default is 1")
                 .addOption("t", "thread-count", true, "number of threads to use")
+                .addOption("mif", "max-in-flight", true, "maximum number of inputs processed at the same time")
+                .addOption("ioc", "io-concurrency", true, "number of concurrent git and file operations")
+                .addOption("wbs", "write-batch-size", true, "number of feature vectors written to a file at once")
                 .addOption("vl", "single-feature-vector-length", true, "size a each partition of the feature vectors")
                 .addOption("cb", "count-bits", true, "number of count bits per feature. Must be at least 1")
                 .addOption("extractors", true, "which feature extractors to use. Syntax: <name>(:<bits>)?, separated with commas")
@@ -49,6 +57,8 @@ public class CommandLineUtil {
                 .addOption("mt", "timeout", true, "matching timeout, after this time matching gets cancelled")
                 .addOption("eqp", "extract-query-placeholders", false, "extract query placeholders like EXPR, default is false")
                 .addOption("tfidf", false, "if tfidf weights should be used in the feature vectors.")
+                .addOption("binary", "binary-vectors", false, "store binary feature vectors bit-packed and search them by Hamming distance.")
+                .addOption("csv", "csv-vectors", false, "write the feature vectors of the corpus as CSV text instead of binary floats.")
                 .addOption("noquerymultiplication", false, "query vectors do not get multiplied.")
                 .addOption("nondividedextraction", false, "feature extraction is not divided in the old and new part.")
                 .addOption("gurl", "web-gui-url", true, "set the web GUI URL")
@@ -58,6 +68,14 @@ public class CommandLineUtil {
                         .optionalArg(true)
                         .desc("prints a detailed analysis of the query or a given code change containing the parse tree and a list of all extracted features.")
                         .build())
+                .addOption(Option.builder("ca")
+                        .longOpt("collision-analysis")
+                        .numberOfArgs(1)
+                        .optionalArg(true)
+                        .desc("reports the hash collisions of each feature vector section on a sample of the corpus and suggests section lengths. Optional: the number of code changes in the sample, default is 10000.")
+                        .build())
+                .addOption("fhs", "feature-hash-seed", true, "seed of the hash of the features, default is 0")
+                .addOption("tcr", "target-collision-rate", true, "share of colliding features the suggested section lengths aim for, default is 0.05")
                 .addOption(Option.builder("test").numberOfArgs(2).desc("tests if a code change matches a query.").build())
                 .addOption(Option.builder("b")
                         .longOpt("batch")
@@ -67,6 +85,7 @@ public class CommandLineUtil {
                         .build())
                 .addOption("pa", "parse-mode", false, "Parses code changes to parse trees")
                 .addOption("lr", "lower-ram", false, "Uses less RAM at the cost of longer search time")
+                .addOption("metrics", "pipeline-metrics", false, "records and logs metrics of each pipeline stage")
                 .addOption(Option.builder("clone")
                         .optionalArg(true)
                         .numberOfArgs(1)
@@ -93,13 +112,16 @@ public class CommandLineUtil {
             Config.MEASURE_RECALL = commandLine.hasOption("r");
             Mode.CORPUS_FEATURE_EXTRACTION = commandLine.hasOption("fe");
             Config.SILENT = commandLine.hasOption("silent");
+            Config.RESUME_EXTRACTION = commandLine.hasOption("resume");
             Mode.BATCH = commandLine.hasOption("b");
             Mode.ANALYSIS_MODE = commandLine.hasOption("a");
             Mode.PARSE_MODE = commandLine.hasOption("pa");
             Config.LOW_RAM = commandLine.hasOption("lr");
+            Config.PIPELINE_METRICS = commandLine.hasOption("metrics");
             Mode.DATASET_CREATION = commandLine.hasOption("d");
             Mode.SCALABILITY = commandLine.hasOption("scalability");
             Mode.EFFECTIVENESS = commandLine.hasOption("effectiveness");
+            Mode.COLLISION_ANALYSIS = commandLine.hasOption("ca");
             Mode.QUERYRESULT = commandLine.hasOption("relation");
             Mode.ABSTRACT_QUERY = commandLine.hasOption("abstract");
 
@@ -125,6 +147,13 @@ public class CommandLineUtil {
             if (commandLine.hasOption("k")) {
                 Config.k = parseInt(commandLine.getOptionValue("k"));
             }
+            if (commandLine.hasOption("limit")) {
+                int limit = parseInt(commandLine.getOptionValue("limit"));
+                Config.resultLimit = limit > 0 ? limit : Integer.MAX_VALUE;
+            }
+            if (commandLine.hasOption("qcs")) {
+                Config.queryCacheSize = parseInt(commandLine.getOptionValue("qcs"));
+            }
             if (commandLine.hasOption("b")) {
                 var params = commandLine.getOptionValues("b");
                 if (params != null && params.length > 0) {
@@ -143,6 +172,30 @@ public class CommandLineUtil {
             if (commandLine.hasOption("t")) {
                 Config.threadCount = parseInt(commandLine.getOptionValue("t"));
             }
+            if (commandLine.hasOption("mif")) {
+                Config.maxInFlight = parseInt(commandLine.getOptionValue("mif"));
+            }
+            if (commandLine.hasOption("ioc")) {
+                Config.ioConcurrency = parseInt(commandLine.getOptionValue("ioc"));
+            }
+            if (commandLine.hasOption("wbs")) {
+                Config.writeBatchSize = parseInt(commandLine.getOptionValue("wbs"));
+            }
+            if (commandLine.hasOption("cpi")) {
+                Config.checkpointInterval = parseInt(commandLine.getOptionValue("cpi"));
+            }
+            if (commandLine.getOptionValue("ca") != null) {
+                Config.collisionSampleSize = parseInt(commandLine.getOptionValue("ca"));
+            }
+            if (commandLine.hasOption("fhs")) {
+                Config.featureHashSeed = parseInt(commandLine.getOptionValue("fhs"));
+            }
+            if (commandLine.hasOption("tcr")) {
+                Config.targetCollisionRate = Double.parseDouble(commandLine.getOptionValue("tcr"));
+            }
+            if (commandLine.hasOption("shards")) {
+                Config.extractionShards = parseInt(commandLine.getOptionValue("shards"));
+            }
             if (commandLine.hasOption("vl")) {
                 Config.SINGLE_FEATURE_VECTOR_LENGTH = parseInt(commandLine.getOptionValue("vl"));
             }
@@ -165,6 +218,12 @@ public class CommandLineUtil {
             if (commandLine.hasOption("tfidf")) {
                 Config.TFIDF = true;
             }
+            if (commandLine.hasOption("binary")) {
+                Config.BINARY_VECTORS = true;
+            }
+            if (commandLine.hasOption("csv")) {
+                Config.CSV_VECTORS = true;
+            }
             if (commandLine.hasOption("nondividedextraction")) {
                 Config.DIVIDE_EXTRACTORS = false;
             }
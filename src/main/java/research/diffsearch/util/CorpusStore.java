@@ -0,0 +1,396 @@
+package research.diffsearch.util;
+
+import com.google.gson.Gson;
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jgit.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import research.diffsearch.pipeline.base.CodeChange;
+import research.diffsearch.tree.SerializableTreeNode;
+import research.diffsearch.tree.TreeCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Random access to the code changes of the corpus and their parse trees by their index, the id that is
+ * also used in the FAISS index.
+ * <p>
+ * The records are stored in blocks of {@link #DEFAULT_RECORDS_PER_BLOCK} code changes, each compressed with
+ * deflate. A record consists of the UTF-8 json of the code change and its parse tree encoded by a
+ * {@link TreeCodec}, each preceded by its length, -1 for a missing tree. The blocks are followed by the
+ * labels of the tree codec, the offset of each block and the end of the last block, and a footer of
+ * {@link #FOOTER_SIZE} bytes: the magic number <code>DSCS</code>, the version, the number of records per
+ * block, 1 if the trees are stored, the number of code changes, the number of blocks, the offset of the
+ * block offsets and the offset of the labels. All values are big-endian.
+ * <p>
+ * Reading a code change decompresses its block only, several code changes of the same block are
+ * decompressed once.
+ *
+ * @author Paul Bredl
+ */
+public class CorpusStore implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CorpusStore.class);
+
+    public static final int DEFAULT_RECORDS_PER_BLOCK = 32;
+
+    private static final int MAGIC = 0x44534353; // "DSCS"
+    private static final int VERSION = 2;
+    private static final int FOOTER_SIZE = 44;
+
+    // opened stores, shared by all queries
+    private static final Map<String, CorpusStore> sharedStores = new HashMap<>();
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long lastModified;
+    private final int recordsPerBlock;
+    private final boolean hasTrees;
+    private final int count;
+    // offset of each block and the end of the last block
+    private final long[] blockOffsets;
+    private final TreeCodec treeCodec;
+
+    private CorpusStore(Path path, FileChannel channel, long lastModified, int recordsPerBlock,
+                        boolean hasTrees, int count, long[] blockOffsets, TreeCodec treeCodec) {
+        this.path = path;
+        this.channel = channel;
+        this.lastModified = lastModified;
+        this.recordsPerBlock = recordsPerBlock;
+        this.hasTrees = hasTrees;
+        this.count = count;
+        this.blockOffsets = blockOffsets;
+        this.treeCodec = treeCodec;
+    }
+
+    /**
+     * Writes the code changes and their parse trees into a store. The json trees are encoded with a
+     * {@link TreeCodec}. The trees are left out if the file does not exist or does not contain a tree for
+     * every code change. The store is replaced at once, so a
+     * failed write leaves the previous store intact.
+     *
+     * @param treesFilePath path to the json trees of the code changes.
+     * @return the number of code changes in the store.
+     */
+    public static int write(String codeChangeFilePath, @Nullable String treesFilePath, String storePath)
+            throws IOException {
+        return write(codeChangeFilePath, treesFilePath, storePath, DEFAULT_RECORDS_PER_BLOCK);
+    }
+
+    public static int write(String codeChangeFilePath,
+                            @Nullable String treesFilePath,
+                            String storePath,
+                            int recordsPerBlock) throws IOException {
+        if (treesFilePath != null && (!Files.exists(Paths.get(treesFilePath))
+                                      || FilePathUtils.getNumberOfLines(treesFilePath)
+                                         < FilePathUtils.getNumberOfLines(codeChangeFilePath))) {
+            logger.warn("{} does not contain all parse trees, storing the code changes only.", treesFilePath);
+            treesFilePath = null;
+        }
+
+        var temporaryPath = Paths.get(storePath + ".tmp");
+        int count = 0;
+        var blockOffsets = new ArrayList<Long>();
+        try (var changes = FileUtils.lineIterator(new File(codeChangeFilePath));
+             var trees = treesFilePath == null ? null : FileUtils.lineIterator(new File(treesFilePath));
+             var outputStream = new DataOutputStream(new BufferedOutputStream(
+                     Files.newOutputStream(temporaryPath)))) {
+
+            var gson = new Gson();
+            var treeCodec = new TreeCodec();
+            var block = new ByteArrayOutputStream();
+            var blockStream = new DataOutputStream(block);
+            var deflater = new Deflater();
+            var buffer = new byte[64 * 1024];
+            long offset = 0;
+
+            while (changes.hasNext()) {
+                writeString(blockStream, changes.next());
+                if (trees == null) {
+                    blockStream.writeInt(-1);
+                } else {
+                    var tree = treeCodec.encode(gson.fromJson(trees.next(), SerializableTreeNode.class));
+                    blockStream.writeInt(tree.length);
+                    blockStream.write(tree);
+                }
+                count++;
+
+                if (count % recordsPerBlock == 0 || !changes.hasNext()) {
+                    blockOffsets.add(offset);
+                    deflater.reset();
+                    deflater.setInput(block.toByteArray());
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        int length = deflater.deflate(buffer);
+                        outputStream.write(buffer, 0, length);
+                        offset += length;
+                    }
+                    block.reset();
+                }
+            }
+            deflater.end();
+
+            blockOffsets.add(offset);
+
+            long labelsOffset = offset;
+            outputStream.writeInt(treeCodec.getLabels().size());
+            offset += Integer.BYTES;
+            for (var label : treeCodec.getLabels()) {
+                offset += writeString(outputStream, label);
+            }
+            for (long blockOffset : blockOffsets) {
+                outputStream.writeLong(blockOffset);
+            }
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(VERSION);
+            outputStream.writeInt(recordsPerBlock);
+            outputStream.writeInt(trees == null ? 0 : 1);
+            outputStream.writeLong(count);
+            outputStream.writeInt(blockOffsets.size() - 1);
+            outputStream.writeLong(offset);
+            outputStream.writeLong(labelsOffset);
+        }
+        Files.move(temporaryPath, Paths.get(storePath),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Stored {} code changes in {}.", count, storePath);
+        return count;
+    }
+
+    /**
+     * @return the number of written bytes.
+     */
+    private static int writeString(DataOutputStream outputStream, String s) throws IOException {
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        outputStream.writeInt(bytes.length);
+        outputStream.write(bytes);
+        return Integer.BYTES + bytes.length;
+    }
+
+    /**
+     * @return true if the store exists and was written after the code changes and their parse trees.
+     */
+    public static boolean isUpToDate(String storePath, String codeChangeFilePath, @Nullable String treesFilePath) {
+        var store = new File(storePath);
+        if (!store.exists()) {
+            return false;
+        }
+        return store.lastModified() >= new File(codeChangeFilePath).lastModified()
+               && (treesFilePath == null || store.lastModified() >= new File(treesFilePath).lastModified());
+    }
+
+    /**
+     * Opens the store once and shares it afterwards. A store that was written again is opened again. The
+     * previous instance is not closed because concurrent queries may still read from it; its channel is
+     * released once it is no longer referenced.
+     */
+    public static synchronized CorpusStore getShared(String storePath) throws IOException {
+        var store = sharedStores.get(storePath);
+        if (store == null || store.lastModified != new File(storePath).lastModified()) {
+            store = open(storePath);
+            sharedStores.put(storePath, store);
+        }
+        return store;
+    }
+
+    public static CorpusStore open(String storePath) throws IOException {
+        var path = Paths.get(storePath);
+        var channel = FileChannel.open(path);
+        try {
+            if (channel.size() < FOOTER_SIZE) {
+                throw new IOException(storePath + " is not a corpus store.");
+            }
+            var footer = new DataInputStream(new ByteArrayInputStream(
+                    read(channel, channel.size() - FOOTER_SIZE, FOOTER_SIZE)));
+            if (footer.readInt() != MAGIC) {
+                throw new IOException(storePath + " is not a corpus store.");
+            }
+            int version = footer.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of " + storePath);
+            }
+            int recordsPerBlock = footer.readInt();
+            boolean hasTrees = footer.readInt() == 1;
+            int count = (int) footer.readLong();
+            var blockOffsets = new long[footer.readInt() + 1];
+            long indexOffset = footer.readLong();
+            long labelsOffset = footer.readLong();
+
+            var index = new DataInputStream(new ByteArrayInputStream(
+                    read(channel, indexOffset, blockOffsets.length * Long.BYTES)));
+            for (int i = 0; i < blockOffsets.length; i++) {
+                blockOffsets[i] = index.readLong();
+            }
+
+            List<String> labels;
+            try (var labelStream = new DataInputStream(new BufferedInputStream(
+                    Channels.newInputStream(FileChannel.open(path).position(labelsOffset))))) {
+                int labelCount = labelStream.readInt();
+                labels = new ArrayList<>(labelCount);
+                for (int i = 0; i < labelCount; i++) {
+                    var bytes = new byte[labelStream.readInt()];
+                    labelStream.readFully(bytes);
+                    labels.add(toString(bytes));
+                }
+            }
+            logger.debug("Opened {} with {} code changes.", storePath, count);
+            return new CorpusStore(path, channel, Files.getLastModifiedTime(path).toMillis(), recordsPerBlock,
+                    hasTrees, count, blockOffsets, new TreeCodec(labels));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static byte[] read(FileChannel channel, long position, int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Corpus store is truncated.");
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @return the number of code changes in the store.
+     */
+    public int count() {
+        return count;
+    }
+
+    public boolean hasTrees() {
+        return hasTrees;
+    }
+
+    /**
+     * @return the codec of the parse trees, whose dictionary contains the labels of all trees.
+     */
+    public TreeCodec getTreeCodec() {
+        return treeCodec;
+    }
+
+    /**
+     * @return the code change with the given index, with its parse tree if it is stored.
+     */
+    public CodeChange get(int id) throws IOException {
+        return get(new int[]{id}).get(0);
+    }
+
+    /**
+     * @return the code changes with the given indices in the same order, with their parse trees if they are
+     * stored.
+     */
+    public List<CodeChange> get(int[] ids) throws IOException {
+        return get(ids, true);
+    }
+
+    /**
+     * @param withTrees if the parse trees are read, they are parsed again otherwise.
+     * @return the code changes with the given indices in the same order.
+     */
+    public List<CodeChange> get(int[] ids, boolean withTrees) throws IOException {
+        for (int id : ids) {
+            if (id < 0 || id >= count) {
+                throw new IndexOutOfBoundsException("Code change " + id + " of " + count);
+            }
+        }
+        // read each block once, in the order of the file
+        var order = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(ids[a], ids[b]));
+
+        var gson = new Gson();
+        var result = new CodeChange[ids.length];
+        List<byte[]> records = null;
+        int currentBlock = -1;
+        for (int i : order) {
+            int block = ids[i] / recordsPerBlock;
+            if (block != currentBlock) {
+                records = readBlock(block);
+                currentBlock = block;
+            }
+            int record = ids[i] % recordsPerBlock;
+            var codeChange = gson.fromJson(toString(records.get(2 * record)), CodeChange.class)
+                    .setId(ids[i]);
+            var tree = records.get(2 * record + 1);
+            if (withTrees && tree != null) {
+                codeChange.setEncodedParseTree(tree, treeCodec);
+            }
+            result[i] = codeChange;
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * @return the json of each code change of the block, followed by its encoded tree or null.
+     */
+    private List<byte[]> readBlock(int block) throws IOException {
+        var compressed = read(channel, blockOffsets[block], (int) (blockOffsets[block + 1] - blockOffsets[block]));
+        var inflater = new Inflater();
+        var uncompressed = new ByteArrayOutputStream();
+        try {
+            inflater.setInput(compressed);
+            var buffer = new byte[64 * 1024];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && inflater.needsInput()) {
+                    throw new IOException("Block " + block + " of " + path + " is truncated.");
+                }
+                uncompressed.write(buffer, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Block " + block + " of " + path + " is corrupt.", e);
+        } finally {
+            inflater.end();
+        }
+
+        var records = new ArrayList<byte[]>();
+        var inputStream = new DataInputStream(new ByteArrayInputStream(uncompressed.toByteArray()));
+        while (inputStream.available() > 0) {
+            int length = inputStream.readInt();
+            if (length < 0) {
+                records.add(null);
+            } else {
+                var bytes = new byte[length];
+                inputStream.readFully(bytes);
+                records.add(bytes);
+            }
+        }
+        return records;
+    }
+
+    private static String toString(byte[] bytes) {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -4,17 +4,30 @@ import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.gson.Gson;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.LineIterator;
 import org.eclipse.jgit.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import research.diffsearch.Config;
 import research.diffsearch.pipeline.base.CodeChange;
 import research.diffsearch.pipeline.base.Pipeline;
 import research.diffsearch.pipeline.feature.FeatureVector;
+import research.diffsearch.pipeline.feature.FeatureVectorFile;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.function.Function;
 
@@ -28,7 +41,9 @@ public class FilePathUtils {
     public static final String CANDIDATE_CHANGES = "./src/main/resources/Features_Vectors/candidate_changes.txt";
     public static final String CANDIDATE_CHANGES_INFO = "./src/main/resources/Features_Vectors/candidate_changes_info.txt";
     public static final String CANDIDATE_CHANGES_TREES = "./src/main/resources/Features_Vectors/candidate_changes_trees.txt";
+    public static final String CANDIDATE_IDS = "./src/main/resources/Features_Vectors/vector.txt";
     public static final String QUERY_FEATURE_VECTORS_CSV = "./src/main/resources/Features_Vectors/query_feature_vectors.csv";
+    public static final String QUERY_FEATURE_VECTORS_BIN = "./src/main/resources/Features_Vectors/query_feature_vectors.bin";
     public static final String CHANGES_STRINGS_JAVA = "./src/main/resources/Features_Vectors/changes_strings_java.txt";
     public static final String CHANGES_STRINGS_JS = "./src/main/resources/Features_Vectors/changes_strings_js.txt";
     public static final String CHANGES_STRINGS_PYTHON = "./src/main/resources/Features_Vectors/changes_strings_py.txt";
@@ -77,6 +92,44 @@ public class FilePathUtils {
         }
     }
 
+    /**
+     * @return path of the bit-packed feature vectors, see {@link FeatureVector#toPackedBits()}.
+     */
+    public static String getFeatureBinaryPath(ProgrammingLanguage language) {
+        switch (language) {
+            case PYTHON:
+                return "./src/main/resources/Features_Vectors/changes_feature_vectors_py.bin";
+            case JAVASCRIPT:
+                return "./src/main/resources/Features_Vectors/changes_feature_vectors_js.bin";
+            default:
+                return "./src/main/resources/Features_Vectors/changes_feature_vectors_java.bin";
+        }
+    }
+
+    /**
+     * @return path of the feature vectors as binary floats, see {@link FeatureVectorFile}.
+     */
+    public static String getFeatureFloatPath(ProgrammingLanguage language) {
+        switch (language) {
+            case PYTHON:
+                return "./src/main/resources/Features_Vectors/changes_feature_vectors_py.f32";
+            case JAVASCRIPT:
+                return "./src/main/resources/Features_Vectors/changes_feature_vectors_js.f32";
+            default:
+                return "./src/main/resources/Features_Vectors/changes_feature_vectors_java.f32";
+        }
+    }
+
+    /**
+     * @return path of the feature vectors of the corpus in the format of the configuration.
+     */
+    public static String getFeatureVectorPath(ProgrammingLanguage language) {
+        if (Config.useBinaryVectors()) {
+            return getFeatureBinaryPath(language);
+        }
+        return Config.CSV_VECTORS ? getFeatureCSVPath(language) : getFeatureFloatPath(language);
+    }
+
     public static String getTreesFilePath(ProgrammingLanguage language) {
         switch (language) {
             case PYTHON:
@@ -88,6 +141,114 @@ public class FilePathUtils {
         }
     }
 
+    /**
+     * @return path of the document frequencies of the corpus features, used for tfidf weights.
+     */
+    public static String getDocumentFrequencyPath(ProgrammingLanguage language) {
+        return "./src/main/resources/Features_Vectors/document_frequencies_" + language.getSuffix() + ".bin";
+    }
+
+    /**
+     * @return path of the corpus store of the code changes and their parse trees, see {@link CorpusStore}.
+     */
+    public static String getCorpusStorePath(ProgrammingLanguage language) {
+        return "./src/main/resources/Features_Vectors/changes_store_" + language.getSuffix() + ".bin";
+    }
+
+    /**
+     * @return path of the other occurrences of the code changes that were found more than once, one json
+     * line per code change with its index and its occurrences.
+     * @see research.diffsearch.pipeline.extraction.ChangeDeduplicator
+     */
+    public static String getOccurrencesFilePath(ProgrammingLanguage language) {
+        return "./src/main/resources/Features_Vectors/changes_occurrences_" + language.getSuffix() + ".txt";
+    }
+
+    /**
+     * @return the shared occurrences of the duplicated code changes of the language.
+     */
+    public static ChangeOccurrences getChangeOccurrences(ProgrammingLanguage language) {
+        return ChangeOccurrences.getShared(getOccurrencesFilePath(language));
+    }
+
+    /**
+     * @return the shared corpus store of the language, or null if it does not exist or is older than the
+     * code changes.
+     */
+    @Nullable
+    public static CorpusStore getCorpusStore(ProgrammingLanguage language) {
+        var storePath = getCorpusStorePath(language);
+        if (!CorpusStore.isUpToDate(storePath, getChangesJsonFilePath(language), getTreesFilePath(language))) {
+            return null;
+        }
+        try {
+            return CorpusStore.getShared(storePath);
+        } catch (IOException e) {
+            logger.error(e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the corpus store of the language again if it is older than the code changes or cannot be read.
+     */
+    public static void updateCorpusStore(ProgrammingLanguage language) throws IOException {
+        var storePath = getCorpusStorePath(language);
+        if (CorpusStore.isUpToDate(storePath, getChangesJsonFilePath(language), getTreesFilePath(language))) {
+            try {
+                // only checks that the store can be read
+                CorpusStore.open(storePath).close();
+                return;
+            } catch (IOException e) {
+                logger.warn("Writing {} again: {}", storePath, e.getMessage());
+            }
+        }
+        CorpusStore.write(getChangesJsonFilePath(language), getTreesFilePath(language), storePath);
+    }
+
+    /**
+     * @return the number of code changes of the corpus, read from the corpus store if it is up to date
+     * instead of counting the lines.
+     */
+    public static int getNumberOfCodeChanges(ProgrammingLanguage language) {
+        var corpusStore = getCorpusStore(language);
+        return corpusStore != null ? corpusStore.count() : getNumberOfLines(getChangesJsonFilePath(language));
+    }
+
+    /**
+     * @return the indices of the candidate changes found by the nearest neighbor search, in the order of
+     * their rank. Missing neighbors are -1.
+     */
+    public static int[] getCandidateIds() {
+        var ids = new ArrayList<Integer>();
+        for (var line : getAllLines(CANDIDATE_IDS)) {
+            if (!line.isBlank()) {
+                ids.add(Integer.parseInt(line.trim()));
+            }
+        }
+        return ids.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Reads the candidate changes found by the nearest neighbor search from the corpus store. Their rank is
+     * their position in the result of the search.
+     */
+    public static List<CodeChange> getCandidateChanges(CorpusStore corpusStore, boolean withTrees)
+            throws IOException {
+        var ids = new ArrayList<Integer>();
+        for (int id : getCandidateIds()) {
+            // missing neighbors are -1
+            if (id >= 0 && id < corpusStore.count()) {
+                ids.add(id);
+            }
+        }
+        var candidates = corpusStore.get(ids.stream().mapToInt(Integer::intValue).toArray(), withTrees);
+        for (int i = 0; i < candidates.size(); i++) {
+            candidates.get(i).setRank(i + 1);
+        }
+        return candidates;
+    }
+
     public static String getIndexFilePath(ProgrammingLanguage language) {
         return "./src/main/resources/Features_Vectors/faiss_" + language.toString() + ".index";
     }
@@ -161,24 +322,67 @@ public class FilePathUtils {
 
     public static Iterable<CodeChange> getCodeChanges(String codeChangeFilePath,
                                                       @Nullable String parseTreesFilePath) {
-        return () -> new Iterator<>() {
+        return getCodeChangesFrom(codeChangeFilePath, parseTreesFilePath, 0);
+    }
+
+    /**
+     * Loads the code changes from disk, starting with the code change at the given index. The lines
+     * before it are skipped without being parsed.
+     *
+     * @param firstIndex index of the first code change to load.
+     */
+    public static Iterable<CodeChange> getCodeChangesFrom(String codeChangeFilePath,
+                                                          @Nullable String parseTreesFilePath,
+                                                          int firstIndex) {
+        return () -> getCodeChangeIterator(getAllLines(codeChangeFilePath).iterator(),
+                parseTreesFilePath == null ? null : getAllLines(parseTreesFilePath).iterator(),
+                0, firstIndex, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Loads a range of the code changes from disk. The lines are read from iterators opened at the line of the
+     * first code change, see {@link #getLinesAt(String, long)}, so the lines before it are not read at all.
+     * The iterators are consumed, the result can be iterated once; the caller closes them.
+     *
+     * @param codeChangeLines lines of the code changes, starting with the code change at the start index.
+     * @param parseTreeLines  lines of their parse trees, or null.
+     * @param startIndex      index of the code change of the first line.
+     * @param firstIndex      index of the first code change to load. The lines before it are skipped
+     *                        without being parsed.
+     * @param endIndex        index after the last code change to load.
+     */
+    public static Iterable<CodeChange> getCodeChangesAt(Iterator<String> codeChangeLines,
+                                                        @Nullable Iterator<String> parseTreeLines,
+                                                        int startIndex,
+                                                        int firstIndex,
+                                                        int endIndex) {
+        return () -> getCodeChangeIterator(codeChangeLines, parseTreeLines, startIndex, firstIndex, endIndex);
+    }
+
+    private static Iterator<CodeChange> getCodeChangeIterator(Iterator<String> codeChangeIterator,
+                                                              @Nullable Iterator<String> treesIterator,
+                                                              int startIndex,
+                                                              int firstIndex,
+                                                              int endIndex) {
+        return new Iterator<>() {
 
             final Gson gson = new Gson();
-            final Iterator<String> codeChangeIterator = getAllLines(codeChangeFilePath).iterator();
-            Iterator<String> treesIterator = null;
+
+            int index = startIndex;
             {
-                if (parseTreesFilePath != null) {
-                    treesIterator = getAllLines(parseTreesFilePath).iterator();
+                for (; index < firstIndex && codeChangeIterator.hasNext(); index++) {
+                    codeChangeIterator.next();
+                    if (treesIterator != null) {
+                        treesIterator.next();
+                    }
                 }
             }
 
-            int index = 0;
-
             @Override
             public boolean hasNext() {
-                return codeChangeIterator.hasNext()
-                       && treesIterator == null
-                       || treesIterator.hasNext();
+                return index < endIndex
+                       && codeChangeIterator.hasNext()
+                       && (treesIterator == null || treesIterator.hasNext());
             }
 
             @Override
@@ -197,6 +401,53 @@ public class FilePathUtils {
         };
     }
 
+    /**
+     * Opens the lines of a file from the given byte offset, see {@link #getLineOffsets(String, int[])}. The
+     * iterator must be closed.
+     */
+    public static LineIterator getLinesAt(String path, long offset) throws IOException {
+        var channel = FileChannel.open(Paths.get(path));
+        try {
+            channel.position(offset);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        // decoded like FileUtils.lineIterator, malformed input is replaced
+        return new LineIterator(new InputStreamReader(Channels.newInputStream(channel), Charset.defaultCharset()));
+    }
+
+    /**
+     * Finds the byte offsets at which lines of a file start.
+     *
+     * @param lineIndices indices of the lines in ascending order. An index after the last line stands for
+     *                    the end of the file.
+     * @return the byte offset of each line.
+     */
+    public static long[] getLineOffsets(String path, int[] lineIndices) throws IOException {
+        var offsets = new long[lineIndices.length];
+        try (var inputStream = new BufferedInputStream(new FileInputStream(path))) {
+            long offset = 0;
+            int line = 0;
+            int next = 0;
+            int b = 0;
+            while (next < lineIndices.length) {
+                if (lineIndices[next] <= line) {
+                    offsets[next++] = offset;
+                } else if (b < 0 || (b = inputStream.read()) < 0) {
+                    // end of file, the remaining lines start there
+                    offsets[next++] = offset;
+                } else {
+                    offset++;
+                    if (b == '\n') {
+                        line++;
+                    }
+                }
+            }
+        }
+        return offsets;
+    }
+
     public static BufferedWriter getWriter(String path) throws IOException {
         return new BufferedWriter(new FileWriter(path));
     }
@@ -254,6 +505,24 @@ public class FilePathUtils {
                 return input;
             }
 
+            @Override
+            public List<T> processBatch(List<T> inputs, int startIndex) {
+                // one write call for the whole batch
+                var lines = new StringBuilder();
+                for (T input : inputs) {
+                    if (input != null) {
+                        lines.append(mapper.apply(input)).append('\n');
+                    }
+                }
+                try {
+                    writer.write(lines.toString());
+                } catch (IOException e) {
+                    logger.error(e.getMessage(), e);
+                    throw new RuntimeException(e);
+                }
+                return inputs;
+            }
+
             @Override
             public void after() {
                 logger.debug("Closing writer.");
@@ -271,6 +540,38 @@ public class FilePathUtils {
                 .connect(FeatureVector::clear);
     }
 
+    /**
+     * @return a pipeline that writes the vectors bit-packed one after another, see
+     * {@link FeatureVector#toPackedBits()}.
+     */
+    public static Pipeline<FeatureVector, FeatureVector> getBinaryVectorFileWriterPipeline(String path)
+            throws IOException {
+        return new Pipeline<FeatureVector, FeatureVector>() {
+            private final OutputStream outputStream = new BufferedOutputStream(new FileOutputStream(path));
+
+            @Override
+            public FeatureVector process(FeatureVector input, int index) {
+                try {
+                    outputStream.write(input.toPackedBits());
+                } catch (IOException e) {
+                    logger.error(e.getMessage(), e);
+                    throw new RuntimeException(e);
+                }
+                return input;
+            }
+
+            @Override
+            public void after() {
+                logger.debug("Closing writer.");
+                try {
+                    outputStream.close();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }.connect(FeatureVector::clear);
+    }
+
     public static <T> Pipeline<T, T> getJSONFileWriterPipeline(String path) throws IOException {
         return getStringFileWriterPipeline(path, tree -> new Gson().toJson(tree));
     }
@@ -0,0 +1,250 @@
+package research.diffsearch.util;
+
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.RuleContext;
+import org.antlr.v4.runtime.tree.Tree;
+import org.antlr.v4.runtime.tree.Trees;
+import research.diffsearch.tree.TreeArena;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Precomputed metadata of the rules of a grammar. Every rule name maps to its rule index, and every rule
+ * index has a set of category flags, e.g. which placeholders match the leaves below a node of that rule.
+ * Hot paths look up the rule index of a node once and then only compare ints.
+ * <p>
+ * The table of each {@link ProgrammingLanguage} is created once, see
+ * {@link ProgrammingLanguage#getGrammarTable()}.
+ *
+ * @author Paul Bredl
+ */
+public final class GrammarTable {
+
+    /**
+     * Parent of leaves that are matched by an LT placeholder.
+     */
+    public static final int LITERAL_PARENT = 1;
+    /**
+     * Parent of leaves that are matched by a binOP placeholder.
+     */
+    public static final int BINARY_OPERATOR_PARENT = 1 << 1;
+    /**
+     * Parent of leaves that are matched by an OP placeholder.
+     */
+    public static final int OPERATOR_PARENT = 1 << 2;
+    /**
+     * Parent of leaves that are matched by an unOP placeholder.
+     */
+    public static final int UNARY_OPERATOR_PARENT = 1 << 3;
+    /**
+     * Expression node, matched by an EXPR placeholder.
+     */
+    public static final int EXPRESSION = 1 << 4;
+    /**
+     * Parent of nodes that are matched by an EXPR placeholder.
+     */
+    public static final int EXPRESSION_PARENT = 1 << 5;
+
+    // Note: the following rule names are brittle w.r.t. changes of the grammars
+    private static final Set<String> LITERAL_PARENTS = Set.of("literal", "atom");
+    private static final Set<String> BINARY_OPERATOR_PARENTS = Set.of("binary_operators", "binOperator", "bin_op");
+    private static final Set<String> OPERATOR_PARENTS = Set.of("binary_operators", "assign_operators",
+            "assignmentOperator", "expr_stmt");
+    private static final Set<String> ASSIGNMENT_OPERATOR_PARENTS = Set.of("assign_operators",
+            "assignmentOperator", "expr_stmt");
+    private static final Set<String> UNARY_OPERATORS = Set.of("unary_prefix_operators",
+            "unary_postfix_operators");
+    private static final Set<String> UNARY_OPERATOR_PARENTS = Set.of("unary_prefix_operators",
+            "unary_postfix_operators", "singleExpression");
+    private static final Set<String> EXPRESSIONS = Set.of("expression", "expr");
+    private static final Set<String> EXPRESSION_PARENTS = Set.of("expression", "expr", "methodCall",
+            "singleExpression");
+
+    /**
+     * Placeholders of queries, like <code>ID</code> or the named placeholder <code>ID&lt;0&gt;</code>.
+     */
+    public enum Placeholder {
+        LT("LT"), ID("ID"), BIN_OP("binOP"), OP("OP"), UN_OP("unOP"), EXPR("EXPR");
+
+        private final String label;
+
+        Placeholder(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @return the placeholder with exactly the given label, or null.
+         */
+        public static Placeholder fromLabel(String label) {
+            for (var placeholder : values()) {
+                if (placeholder.label.equals(label)) {
+                    return placeholder;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return the placeholder of an unnamed placeholder like <code>ID</code> or a named placeholder like
+         * <code>ID&lt;0&gt;</code>, or null if the text is no placeholder.
+         */
+        public static Placeholder parse(String text) {
+            int nameEnd = text.indexOf('<');
+            if (nameEnd < 0) {
+                return fromLabel(text);
+            }
+            if (nameEnd + 2 > text.length() - 1 || text.charAt(text.length() - 1) != '>') {
+                return null;
+            }
+            for (int i = nameEnd + 1; i < text.length() - 1; i++) {
+                if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                    return null;
+                }
+            }
+            return fromLabel(text.substring(0, nameEnd));
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    private final String[] ruleNames;
+    private final List<String> ruleNameList;
+    private final Map<String, Integer> ruleIndices;
+    private final int[] flags;
+    private final Placeholder[] leafPlaceholders;
+
+    GrammarTable(String[] ruleNames) {
+        this.ruleNames = ruleNames;
+        this.ruleNameList = Collections.unmodifiableList(Arrays.asList(ruleNames));
+        this.ruleIndices = new HashMap<>(ruleNames.length * 2);
+        this.flags = new int[ruleNames.length];
+        this.leafPlaceholders = new Placeholder[ruleNames.length];
+
+        for (int i = 0; i < ruleNames.length; i++) {
+            ruleIndices.putIfAbsent(ruleNames[i], i);
+            flags[i] = getFlags(ruleNames[i]);
+            leafPlaceholders[i] = getLeafPlaceholder(ruleNames[i]);
+        }
+    }
+
+    /**
+     * @return the table of the grammar of the parser.
+     */
+    public static GrammarTable of(Parser parser) {
+        var ruleNames = parser.getRuleNames();
+        for (var language : ProgrammingLanguage.values()) {
+            if (language.getGrammarTable().ruleNames == ruleNames) {
+                return language.getGrammarTable();
+            }
+        }
+        return new GrammarTable(ruleNames);
+    }
+
+    private static int getFlags(String ruleName) {
+        int result = 0;
+        if (LITERAL_PARENTS.contains(ruleName)) {
+            result |= LITERAL_PARENT;
+        }
+        if (BINARY_OPERATOR_PARENTS.contains(ruleName)) {
+            result |= BINARY_OPERATOR_PARENT;
+        }
+        if (OPERATOR_PARENTS.contains(ruleName)) {
+            result |= OPERATOR_PARENT;
+        }
+        if (UNARY_OPERATOR_PARENTS.contains(ruleName)) {
+            result |= UNARY_OPERATOR_PARENT;
+        }
+        if (EXPRESSIONS.contains(ruleName)) {
+            result |= EXPRESSION;
+        }
+        if (EXPRESSION_PARENTS.contains(ruleName)) {
+            result |= EXPRESSION_PARENT;
+        }
+        return result;
+    }
+
+    private static Placeholder getLeafPlaceholder(String ruleName) {
+        if (ruleName.contains("iteral") || ruleName.equals("atom")) {
+            return Placeholder.LT;
+        } else if (ruleName.equals("identifier")) {
+            return Placeholder.ID;
+        } else if (BINARY_OPERATOR_PARENTS.contains(ruleName)) {
+            return Placeholder.BIN_OP;
+        } else if (ASSIGNMENT_OPERATOR_PARENTS.contains(ruleName)) {
+            return Placeholder.OP;
+        } else if (UNARY_OPERATORS.contains(ruleName)) {
+            return Placeholder.UN_OP;
+        }
+        return null;
+    }
+
+    public List<String> getRuleNames() {
+        return ruleNameList;
+    }
+
+    public int getRuleCount() {
+        return ruleNames.length;
+    }
+
+    /**
+     * @return the index of the rule with the given name, or -1 if there is no such rule.
+     */
+    public int getRuleIndex(String text) {
+        Integer index = ruleIndices.get(text);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return the index of the rule whose name is the text of the node, or -1 if there is no such rule
+     * (also for a missing node).
+     */
+    public int getRuleIndex(Tree node) {
+        if (node == null) {
+            return -1;
+        }
+        if (node instanceof RuleContext) {
+            return ((RuleContext) node).getRuleIndex();
+        }
+        if (node instanceof TreeArena.Node) {
+            int ruleIndex = ((TreeArena.Node) node).getRuleIndex();
+            if (ruleIndex >= 0) {
+                return ruleIndex;
+            }
+        }
+        return getRuleIndex(Trees.getNodeText(node, ruleNameList));
+    }
+
+    public boolean isRule(String text) {
+        return ruleIndices.containsKey(text);
+    }
+
+    /**
+     * @return the category flags of the rule, 0 for -1.
+     */
+    public int getFlags(int ruleIndex) {
+        return ruleIndex < 0 ? 0 : flags[ruleIndex];
+    }
+
+    public boolean hasFlag(int ruleIndex, int flag) {
+        return (getFlags(ruleIndex) & flag) != 0;
+    }
+
+    /**
+     * @return the placeholder that abstracts a leaf below a node of the rule, or null.
+     */
+    public Placeholder getLeafPlaceholder(int ruleIndex) {
+        return ruleIndex < 0 ? null : leafPlaceholders[ruleIndex];
+    }
+}
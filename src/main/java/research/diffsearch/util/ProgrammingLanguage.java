@@ -10,7 +10,6 @@ import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.Parser;
 
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -18,35 +17,42 @@ import java.util.List;
  */
 public enum ProgrammingLanguage {
 
-    JAVA(Arrays.asList(JavaParser.ruleNames), "java") {
+    JAVA(JavaParser.ruleNames, "java") {
         @Override
         public Parser getParser(String codeChange) {
             return new JavaParser(new CommonTokenStream(new JavaLexer(CharStreams.fromString(codeChange))));
         }
     },
-    PYTHON(Arrays.asList(Python3Parser.ruleNames), "py") {
+    PYTHON(Python3Parser.ruleNames, "py") {
         @Override
         public Parser getParser(String codeChange) {
             return new Python3Parser(new CommonTokenStream(new Python3Lexer(CharStreams.fromString(codeChange))));
         }
     },
-    JAVASCRIPT(Arrays.asList(ECMAScriptParser.ruleNames), "js") {
+    JAVASCRIPT(ECMAScriptParser.ruleNames, "js") {
         @Override
         public Parser getParser(String codeChange) {
             return new ECMAScriptParser(new CommonTokenStream(new ECMAScriptLexer(CharStreams.fromString(codeChange))));
         }
     };
 
-    private final List<String> ruleNames;
+    private final GrammarTable grammarTable;
     private final String suffix;
 
-    ProgrammingLanguage(List<String> ruleNames, String fileSuffix) {
-        this.ruleNames = ruleNames;
+    ProgrammingLanguage(String[] ruleNames, String fileSuffix) {
+        this.grammarTable = new GrammarTable(ruleNames);
         this.suffix = fileSuffix;
     }
 
     public List<String> getRuleNames() {
-        return ruleNames;
+        return grammarTable.getRuleNames();
+    }
+
+    /**
+     * @return the precomputed metadata of the rules of the grammar.
+     */
+    public GrammarTable getGrammarTable() {
+        return grammarTable;
     }
 
     public abstract Parser getParser(String codeChange);
@@ -20,6 +20,8 @@ public class ProgressWatcher<T> implements Pipeline<T, T> {
     private final String progressName;
     private final double[] steps;
     private int currentStepIndex = 0;
+    // number of inputs seen, the indices are not necessarily in order
+    private int processed = 0;
     private long startTime = 0;
     private final Logger logger = LoggerFactory.getLogger(ProgressWatcher.class);
 
@@ -37,8 +39,9 @@ public class ProgressWatcher<T> implements Pipeline<T, T> {
         if (startTime == 0) {
             startTime = System.currentTimeMillis();
         }
+        processed++;
         if (currentStepIndex < steps.length) {
-            if (index / (double) size >= steps[currentStepIndex]) {
+            if (processed / (double) size >= steps[currentStepIndex]) {
                 var percent = Math.round(steps[currentStepIndex] * 100);
 
                 System.out.print("[ ");
@@ -46,7 +49,7 @@ public class ProgressWatcher<T> implements Pipeline<T, T> {
                 System.out.print("░".repeat((int) (20 - (percent / 5))));
                 System.out.print(" ] ");
                 System.out.print(format("{0}: {1}% ({2}/{3})", progressName,
-                        Math.floor(steps[currentStepIndex] * 100), index, size));
+                        Math.floor(steps[currentStepIndex] * 100), processed, size));
 
                 System.out.print("\r");
 
@@ -61,9 +64,15 @@ public class ProgressWatcher<T> implements Pipeline<T, T> {
         throw new IllegalStateException(); // unused
     }
 
+    @Override
+    public String getName() {
+        return "progress(" + progressName + ")";
+    }
+
     @Override
     public void before(int size) {
         this.size = size;
+        this.processed = 0;
         logger.info("{} started", progressName);
     }
 
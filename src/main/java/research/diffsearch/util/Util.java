@@ -9,13 +9,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import research.diffsearch.Config;
 import research.diffsearch.Mode;
+import research.diffsearch.pipeline.QueryCache;
 import research.diffsearch.pipeline.base.DiffsearchResult;
 import research.diffsearch.pipeline.feature.FeatureVector;
 import research.diffsearch.server.PythonRunner;
 import research.diffsearch.tree.AbstractTree;
 import research.diffsearch.tree.ParseTreeNode;
-import research.diffsearch.tree.TreeFactory;
-import research.diffsearch.tree.TreeUtils;
 
 import java.io.*;
 import java.util.Arrays;
@@ -24,7 +23,7 @@ import java.util.List;
 import java.util.stream.Collectors;
 
 import static research.diffsearch.util.FilePathUtils.getChangesJsonFilePath;
-import static research.diffsearch.util.FilePathUtils.getNumberOfLines;
+import static research.diffsearch.util.FilePathUtils.getNumberOfCodeChanges;
 
 /**
  * @author Paul Bredl
@@ -89,9 +88,23 @@ public class Util {
     }
 
     public static String featureVectorToString(FeatureVector vector) {
-        return Arrays.stream(vector.getVector())
-                .mapToObj(Double::toString)
-                .collect(Collectors.joining(","));
+        // zeros between the entries are written as constants
+        var builder = new StringBuilder(vector.getLength() * 4);
+        int position = 0;
+        for (int entry = 0; entry < vector.getEntryCount(); entry++) {
+            for (int index = vector.getEntryIndex(entry); position < index; position++) {
+                builder.append("0.0,");
+            }
+            builder.append(vector.getEntryValue(entry)).append(',');
+            position++;
+        }
+        for (; position < vector.getLength(); position++) {
+            builder.append("0.0,");
+        }
+        if (builder.length() > 0) {
+            builder.setLength(builder.length() - 1);
+        }
+        return builder.toString();
     }
 
     public static void printFeatureVectorAnalysis(FeatureVector vector) {
@@ -185,7 +198,7 @@ public class Util {
         }
 
 
-        Config.code_changes_num = getNumberOfLines(getChangesJsonFilePath(Config.PROGRAMMING_LANGUAGE));
+        Config.code_changes_num = getNumberOfCodeChanges(Config.PROGRAMMING_LANGUAGE);
         set_faiss_index_size (Config.PROGRAMMING_LANGUAGE);
         
     }
@@ -195,23 +208,22 @@ public class Util {
     }
 
     public static boolean checkIfQueryIsValid(String query, ProgrammingLanguage language) {
-
-        var queryTree = TreeFactory.getAbstractTree(query, language);
-        var parseTree = queryTree.getParseTree();
-        var parser = queryTree.getParser();
-
-        return !(TreeUtils.nodeCount(parseTree, Arrays.asList(parser.getRuleNames()), 0) <= 5 || queryTree.isError());
+        return QueryCache.getCompiledQuery(query, language).isValid();
     }
 
     public static boolean checkIfQueryIsValid(String query) {
         return checkIfQueryIsValid(query, Config.PROGRAMMING_LANGUAGE);
     }
 
+    private static final String[] QUERY_KEYWORDS = {"ID", "EXPR", "binOP", "unOP", "OP", "LT", "<...>", "querySnippet"};
+
     public static boolean isQueryPlaceholder(String nodeText) {
-        var keywords = List.of("ID", "EXPR", "binOP", "unOP", "OP", "LT", "<...>", "querySnippet");
-        return keywords
-                .stream()
-                .anyMatch(nodeText::contains);
+        for (String keyword : QUERY_KEYWORDS) {
+            if (nodeText.contains(keyword)) {
+                return true;
+            }
+        }
+        return false;
     }
     
     public static void set_faiss_index_size (ProgrammingLanguage language) {
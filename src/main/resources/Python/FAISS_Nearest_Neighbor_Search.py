@@ -29,7 +29,9 @@ def searching(index_path,
               tfidf,
               changes_path,
               trees_path,
-              low_ram):
+              low_ram,
+              binary=False,
+              corpus_store=False):
     """
     Sets up a server for faiss nearest neighbour searches.
 
@@ -44,6 +46,9 @@ def searching(index_path,
     :param changes_path: path to the code changes.
     :param trees_path: path to the parse trees of the code changes.
     :param low_ram: do not load json trees from disk to memory.
+    :param binary: if the index contains bit-packed vectors that are compared by hamming distance.
+    :param corpus_store: if java reads the candidate changes from the corpus store by their ids, so the code
+    changes are not loaded.
     """
 
     # server #
@@ -53,7 +58,10 @@ def searching(index_path,
     logger.debug(f"running on {host}:{port}")
     serversocket.bind(('', int(port)))
 
-    index = faiss.read_index(index_path)
+    if binary:
+        index = faiss.read_index_binary(index_path)
+    else:
+        index = faiss.read_index(index_path)
 
     logger.debug("Index read.")
     logger.debug(f"k = {k}")
@@ -63,12 +71,13 @@ def searching(index_path,
 
     serversocket.listen(5)
 
-    with open(changes_path) as f:
-        changes_strings = f.readlines()
+    if not corpus_store:
+        with open(changes_path) as f:
+            changes_strings = f.readlines()
 
-    if not low_ram:
-        with open(trees_path) as f:
-            changes_trees = f.readlines()
+        if not low_ram:
+            with open(trees_path) as f:
+                changes_trees = f.readlines()
 
     logger.info('Server started and listening')
 
@@ -98,9 +107,14 @@ def searching(index_path,
                 logger.info('Searching started')
                 start = time.time()
 
-                # Reading csv feature vectors files
-                query_feature_vectors = pd.read_csv('./src/main/resources/Features_Vectors/query_feature_vectors.csv',
-                                                    header=None).iloc[:, :].values.astype('float32')
+                if binary:
+                    # one bit-packed query vector
+                    query_feature_vectors = np.fromfile('./src/main/resources/Features_Vectors/query_feature_vectors.bin',
+                                                        dtype=np.uint8).reshape(1, -1)
+                else:
+                    # Reading csv feature vectors files
+                    query_feature_vectors = pd.read_csv('./src/main/resources/Features_Vectors/query_feature_vectors.csv',
+                                                        header=None).iloc[:, :].values.astype('float32')
 
                 if tfidf:
                     faiss.normalize_L2(query_feature_vectors)
@@ -108,7 +122,9 @@ def searching(index_path,
                 # if len(indices) < k:
                 index.nprobe = nprobe
                 logger.debug(f"nprobe = {index.nprobe}")
-                if not range_search:
+                if range_search and binary:
+                    logger.warning("Range search is not supported for binary vectors, using k nearest neighbors.")
+                if not range_search or binary:
                     distances, indices = index.search(query_feature_vectors, k)
                     # if len(indices) > 10 * k:
                     #   distances = distances[:10 * k]
@@ -142,14 +158,15 @@ def searching(index_path,
                     for item in index_list:
                         f.write("%s\n" % item)
 
-                with open('./src/main/resources/Features_Vectors/candidate_changes.txt', 'w') as f:
-                    for item in index_list:
-                        f.write("%s" % changes_strings[item])
-
-                if not low_ram:
-                    with open('./src/main/resources/Features_Vectors/candidate_changes_trees.txt', 'w') as f:
+                if not corpus_store:
+                    with open('./src/main/resources/Features_Vectors/candidate_changes.txt', 'w') as f:
                         for item in index_list:
-                            f.write("%s" % changes_trees[item])
+                            f.write("%s" % changes_strings[item])
+
+                    if not low_ram:
+                        with open('./src/main/resources/Features_Vectors/candidate_changes_trees.txt', 'w') as f:
+                            for item in index_list:
+                                f.write("%s" % changes_trees[item])
 
                 logger.info(f"Searching done in {time.time() - start} seconds")
 
@@ -166,4 +183,6 @@ searching(index_path=str(sys.argv[1]),
           tfidf=sys.argv[8] == "true",
           changes_path=sys.argv[9],
           trees_path=sys.argv[10],
-          low_ram=sys.argv[11] == "true")
+          low_ram=sys.argv[11] == "true",
+          binary=len(sys.argv) > 12 and sys.argv[12] == "true",
+          corpus_store=len(sys.argv) > 13 and sys.argv[13] == "true")
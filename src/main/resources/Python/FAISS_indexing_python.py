@@ -4,6 +4,7 @@ import logging
 import dask.dataframe as dd
 import faiss
 import numpy as np
+import os
 import sys
 
 logging.basicConfig()
@@ -12,14 +13,46 @@ logger.setLevel(logging.DEBUG)
 logger.info("Starting python")
 
 
-def indexing(feature_in, index_out, dimension, nlist, tfidf=False):
-    # Reading csv feature vectors files
-    feature_in = str(feature_in) + (".tfidf" if tfidf else "")
+def read_inverse_document_frequencies(frequencies_in):
+    # Big-endian int32: number of documents, number of features, document frequency per feature
+    frequencies = np.fromfile(str(frequencies_in), dtype='>i4')
+    number_of_documents = frequencies[0]
+    document_frequencies = frequencies[2:2 + frequencies[1]].astype('float64')
+    idf = np.zeros(len(document_frequencies))
+    present = document_frequencies > 0
+    idf[present] = np.log(number_of_documents / document_frequencies[present])
+    return idf.astype('float32')
+
+
+FEATURE_VECTOR_FILE_MAGIC = b'DSFV'
+FEATURE_VECTOR_FILE_HEADER_SIZE = 64
+
+
+def read_feature_vectors(feature_in, dimension):
+    # Binary files of the feature extraction: 64 bytes header, then little-endian float32 rows.
+    # Other files are csv.
+    with open(str(feature_in), 'rb') as file:
+        header = file.read(FEATURE_VECTOR_FILE_HEADER_SIZE)
+    if header[:4] != FEATURE_VECTOR_FILE_MAGIC:
+        changes_feature_vectors = dd.read_csv(str(feature_in), header=None)
+        changes_feature_vectors = changes_feature_vectors.iloc[:, :]
+        return changes_feature_vectors.astype('float32')
+
+    dims = int(np.frombuffer(header, dtype='<i4', count=1, offset=8)[0])
+    count = int(np.frombuffer(header, dtype='<i8', count=1, offset=16)[0])
+    if dims != dimension:
+        raise ValueError(f"{feature_in} has {dims} dimensions, expected {dimension}")
+    if count == 0:
+        # the count is written when the extraction is complete
+        count = (os.path.getsize(str(feature_in)) - FEATURE_VECTOR_FILE_HEADER_SIZE) // (4 * dims)
+    return np.memmap(str(feature_in), dtype='<f4', mode='r', offset=FEATURE_VECTOR_FILE_HEADER_SIZE,
+                     shape=(count, dims))
+
+
+def indexing(feature_in, index_out, dimension, nlist, tfidf=False, frequencies_in=None):
+    # Reading feature vectors, for tfidf they contain the normalized term frequencies
     logger.info("Reading " + str(feature_in))
-    changes_feature_vectors = dd.read_csv(str(feature_in), header=None)
-    changes_feature_vectors = changes_feature_vectors.iloc[:, :]
-    # changes_feature_vectors = changes_feature_vectors.values[0:, :-1]
-    changes_feature_vectors = changes_feature_vectors.astype('float32')
+    changes_feature_vectors = read_feature_vectors(feature_in, dimension)
     logger.debug(f"nlist = {nlist}")
 
     #######################################################################
@@ -40,9 +73,11 @@ def indexing(feature_in, index_out, dimension, nlist, tfidf=False):
 
     index = faiss.IndexIVFFlat(quantiser, dimension, nlist, metric)
 
-    np_array = np.ascontiguousarray(changes_feature_vectors)
+    np_array = np.ascontiguousarray(changes_feature_vectors, dtype='float32')
 
     if tfidf:
+        # weight the term frequencies with the idf of the corpus, a mapped file is read-only
+        np_array = np_array * read_inverse_document_frequencies(frequencies_in)
         faiss.normalize_L2(np_array)
     index.train(np_array)  # train on the database vectors
     logger.info("Training finished")
@@ -52,4 +87,28 @@ def indexing(feature_in, index_out, dimension, nlist, tfidf=False):
     faiss.write_index(index, str(index_out))
 
 
-indexing(sys.argv[1], sys.argv[2], int(sys.argv[3]), int(sys.argv[4]), sys.argv[5] == 'true')
+def indexing_binary(feature_in, index_out, dimension, nlist):
+    # Reading bit-packed feature vectors, dimension / 8 bytes per vector
+    logger.info("Reading " + str(feature_in))
+    changes_feature_vectors = np.fromfile(str(feature_in), dtype=np.uint8).reshape(-1, dimension // 8)
+    logger.debug(f"nlist = {nlist}")
+
+    logger.debug("Dimension: " + str(dimension))
+    logger.info("Starting binary indexing")
+    # hamming distance
+    quantiser = faiss.IndexBinaryFlat(dimension)
+    index = faiss.IndexBinaryIVF(quantiser, dimension, nlist)
+
+    index.train(changes_feature_vectors)
+    logger.info("Training finished")
+    index.add(changes_feature_vectors)
+    logger.info("Index added: " + str(index.ntotal) + " entries")
+
+    faiss.write_index_binary(index, str(index_out))
+
+
+if len(sys.argv) > 6 and sys.argv[6] == 'true':
+    indexing_binary(sys.argv[1], sys.argv[2], int(sys.argv[3]), int(sys.argv[4]))
+else:
+    indexing(sys.argv[1], sys.argv[2], int(sys.argv[3]), int(sys.argv[4]), sys.argv[5] == 'true',
+             sys.argv[7] if len(sys.argv) > 7 else None)
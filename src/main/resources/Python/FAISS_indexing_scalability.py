@@ -1,9 +1,11 @@
 #! /usr/bin/python3
 import logging
+import traceback
 
 import dask.dataframe as dd
 import faiss
 import numpy as np
+import os
 import sys
 
 logging.basicConfig()
@@ -12,15 +14,47 @@ logger.setLevel(logging.DEBUG)
 logger.info("Starting python")
 
 
-def indexing(feature_in, index_out, dimension, nlist, nchanges, part, tfidf=False):
+def read_inverse_document_frequencies(frequencies_in):
+    # Big-endian int32: number of documents, number of features, document frequency per feature
+    frequencies = np.fromfile(str(frequencies_in), dtype='>i4')
+    number_of_documents = frequencies[0]
+    document_frequencies = frequencies[2:2 + frequencies[1]].astype('float64')
+    idf = np.zeros(len(document_frequencies))
+    present = document_frequencies > 0
+    idf[present] = np.log(number_of_documents / document_frequencies[present])
+    return idf.astype('float32')
+
+
+FEATURE_VECTOR_FILE_MAGIC = b'DSFV'
+FEATURE_VECTOR_FILE_HEADER_SIZE = 64
+
+
+def read_feature_vectors(feature_in, dimension, nchanges, part):
+    # The first nchanges vectors. Binary files of the feature extraction: 64 bytes header, then
+    # little-endian float32 rows. Other files are csv.
+    with open(str(feature_in), 'rb') as file:
+        header = file.read(FEATURE_VECTOR_FILE_HEADER_SIZE)
+    if header[:4] != FEATURE_VECTOR_FILE_MAGIC:
+        changes_feature_vectors = dd.read_csv(str(feature_in), header=None).head(n=nchanges, npartitions=part)
+        changes_feature_vectors = changes_feature_vectors.iloc[:, :]
+        return changes_feature_vectors.astype('float32')
+
+    dims = int(np.frombuffer(header, dtype='<i4', count=1, offset=8)[0])
+    count = int(np.frombuffer(header, dtype='<i8', count=1, offset=16)[0])
+    if dims != dimension:
+        raise ValueError(f"{feature_in} has {dims} dimensions, expected {dimension}")
+    if count == 0:
+        # the count is written when the extraction is complete
+        count = (os.path.getsize(str(feature_in)) - FEATURE_VECTOR_FILE_HEADER_SIZE) // (4 * dims)
+    return np.memmap(str(feature_in), dtype='<f4', mode='r', offset=FEATURE_VECTOR_FILE_HEADER_SIZE,
+                     shape=(count, dims))[:nchanges]
+
+
+def indexing(feature_in, index_out, dimension, nlist, nchanges, part, tfidf=False, frequencies_in=None):
     try:
-        # Reading csv feature vectors files
-        feature_in = str(feature_in) + (".tfidf" if tfidf else "")
+        # Reading feature vectors, for tfidf they contain the normalized term frequencies
         logger.info("Reading " + str(feature_in))
-        changes_feature_vectors = dd.read_csv(str(feature_in), header=None).head(n=int(nchanges), npartitions=int(part))
-        changes_feature_vectors = changes_feature_vectors.iloc[:, :]
-        # changes_feature_vectors = changes_feature_vectors.values[0:, :-1]
-        changes_feature_vectors = changes_feature_vectors.astype('float32')
+        changes_feature_vectors = read_feature_vectors(feature_in, dimension, int(nchanges), int(part))
         logger.debug(f"nlist = {nlist}")
 
         #######################################################################
@@ -41,9 +75,11 @@ def indexing(feature_in, index_out, dimension, nlist, nchanges, part, tfidf=Fals
 
         index = faiss.IndexIVFFlat(quantiser, dimension, 10, metric)
 
-        np_array = np.ascontiguousarray(changes_feature_vectors)
+        np_array = np.ascontiguousarray(changes_feature_vectors, dtype='float32')
 
         if tfidf:
+            # weight the term frequencies with the idf of the corpus, a mapped file is read-only
+            np_array = np_array * read_inverse_document_frequencies(frequencies_in)
             faiss.normalize_L2(np_array)
         index.train(np_array)  # train on the database vectors
         logger.info("Training finished")
@@ -54,4 +90,5 @@ def indexing(feature_in, index_out, dimension, nlist, nchanges, part, tfidf=Fals
     except Exception:
         traceback.print_exc()
 
-indexing(sys.argv[1], sys.argv[2], int(sys.argv[3]), int(sys.argv[4]), int(sys.argv[5]), int(sys.argv[6]), sys.argv[7] == 'true')
+indexing(sys.argv[1], sys.argv[2], int(sys.argv[3]), int(sys.argv[4]), int(sys.argv[5]), int(sys.argv[6]),
+         sys.argv[7] == 'true', sys.argv[8] if len(sys.argv) > 8 else None)
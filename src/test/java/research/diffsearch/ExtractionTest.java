@@ -1,16 +1,55 @@
 package research.diffsearch;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.gson.Gson;
 import junit.framework.TestCase;
+import org.apache.commons.io.FileUtils;
+import research.diffsearch.pipeline.QueryCache;
+import research.diffsearch.pipeline.base.ChangeOccurrence;
 import research.diffsearch.pipeline.base.CodeChange;
+import research.diffsearch.pipeline.extraction.ChangeDeduplicator;
+import research.diffsearch.pipeline.extraction.ChangeExtractor;
+import research.diffsearch.pipeline.feature.ExtractionCheckpoint;
+import research.diffsearch.pipeline.feature.FeatureExtractionPipeline;
+import research.diffsearch.pipeline.feature.FeatureHash;
+import research.diffsearch.pipeline.feature.FeatureVectorFile;
+import research.diffsearch.pipeline.feature.changedistilling.EditScriptCreator;
+import research.diffsearch.pipeline.feature.changedistilling.EditScriptOperation;
+import research.diffsearch.pipeline.feature.extractor.DividedFeatureExtractor;
+import research.diffsearch.pipeline.feature.FeatureVector;
+import research.diffsearch.pipeline.feature.count.DocumentFrequencies;
+import research.diffsearch.pipeline.feature.extractor.FeatureExtractor;
+import research.diffsearch.pipeline.feature.count.DocumentFrequencyCounter;
+import research.diffsearch.pipeline.feature.count.TfIdfTransformer;
 import research.diffsearch.tree.SerializableTreeNode;
+import research.diffsearch.tree.TreeCodec;
+import research.diffsearch.tree.TreeFactory;
+import research.diffsearch.tree.TreeUtils;
+import research.diffsearch.util.ChangeOccurrences;
+import research.diffsearch.util.CorpusStore;
+import research.diffsearch.util.GrammarTable;
+import research.diffsearch.util.ProgrammingLanguage;
 
 import static research.diffsearch.tree.TreeFactory.getAbstractTree;
 import static research.diffsearch.util.FilePathUtils.*;
 import static research.diffsearch.util.ProgrammingLanguage.JAVA;
 
+import org.antlr.v4.runtime.tree.Tree;
+import org.antlr.v4.runtime.tree.Trees;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
 public class ExtractionTest extends TestCase {
 
     @Test
@@ -35,4 +74,612 @@ public class ExtractionTest extends TestCase {
             index++;
         }
     }
+
+    @Test
+    public void testExtractionResumesAfterCheckpoint() throws IOException {
+        var output = Files.createTempFile("vectors", ".csv");
+        try {
+            var inputs = IntStream.range(0, 25).boxed().collect(Collectors.toList());
+            ExtractionCheckpoint.start(output.toString())
+                    .<Integer>getFileWriterPipeline(Object::toString, 10)
+                    .batched(5)
+                    .executeIgnoreResults(inputs);
+            // crash after the checkpoint of the first 20 lines, "0\n" to "19\n" are 50 bytes
+            Files.writeString(output, "25\n26", StandardOpenOption.APPEND);
+            Files.writeString(output.resolveSibling(output.getFileName() + ".checkpoint"),
+                    "processedCount=20\noutputOffset=50\n");
+
+            var checkpoint = ExtractionCheckpoint.resume(output.toString());
+            assertEquals(20, checkpoint.getProcessedCount());
+            checkpoint.<Integer>getFileWriterPipeline(Object::toString, 10)
+                    .executeIgnoreResults(inputs.subList(20, 25));
+
+            var expected = inputs.stream().map(Object::toString).collect(Collectors.toList());
+            assertEquals(expected, Files.readAllLines(output, StandardCharsets.UTF_8));
+        } finally {
+            Files.deleteIfExists(output);
+            Files.deleteIfExists(output.resolveSibling(output.getFileName() + ".checkpoint"));
+        }
+    }
+
+    @Test
+    public void testFeatureVectorFile() throws IOException {
+        var output = Files.createTempFile("vectors", ".f32");
+        try {
+            var vectors = List.of(new FeatureVector(new double[]{1, 0, 0.5}),
+                    new FeatureVector(new double[]{0, 2, 0}));
+            long configurationHash = FeatureVectorFile.getConfigurationHash("test");
+            ExtractionCheckpoint.start(output.toString(), FeatureVectorFile.createHeader(3, configurationHash))
+                    .<FeatureVector>getBinaryFileWriterPipeline(vector -> FeatureVectorFile.encode(vector, 3), 1)
+                    .executeIgnoreResults(vectors);
+            assertEquals(2, FeatureVectorFile.writeCount(output.toString()));
+            assertTrue(FeatureVectorFile.hasHeader(output.toString(), 3, configurationHash));
+            assertFalse(FeatureVectorFile.hasHeader(output.toString(), 4, configurationHash));
+
+            var file = FeatureVectorFile.open(output.toString());
+            assertEquals(3, file.getDimensions());
+            assertEquals(2, file.getCount());
+            assertEquals(0.5f, file.get(0, 2));
+            assertEquals(2f, file.get(1, 1));
+            assertTrue(Arrays.equals(new double[]{1, 0, 0.5}, file.getVectors().get(0).getVector()));
+        } finally {
+            Files.deleteIfExists(output);
+            Files.deleteIfExists(output.resolveSibling(output.getFileName() + ".checkpoint"));
+        }
+    }
+
+    @Test
+    public void testSparseFeatureVector() {
+        var vector = new FeatureVector(1000, 1, 1);
+        var section = vector.getSection("test", 0, 1000);
+        // out of order and more than the initial capacity of the sparse arrays
+        var indices = IntStream.range(0, 100).map(i -> (i * 37) % 1000).toArray();
+        for (int index : indices) {
+            section.addFeature("feature " + index, index);
+        }
+        section.addFeature("again", indices[5]);
+
+        // the entries are sorted by their index
+        assertEquals(100, vector.getEntryCount());
+        var sortedIndices = IntStream.of(indices).sorted().toArray();
+        for (int entry = 0; entry < vector.getEntryCount(); entry++) {
+            assertEquals(sortedIndices[entry], vector.getEntryIndex(entry));
+            assertEquals(sortedIndices[entry] == indices[5] ? 2.0 : 1.0, vector.getEntryValue(entry));
+        }
+        assertEquals(2.0, vector.get(indices[5]));
+        assertEquals(0.0, vector.get(1));
+
+        // the entries can be changed in place
+        vector.setEntryValue(0, 0.5);
+        assertEquals(0.5, vector.get(sortedIndices[0]));
+
+        // a copy is independent of the original
+        var copy = vector.copy();
+        section.addFeature("new", 1);
+        copy.setEntryValue(0, 3);
+        assertEquals(0.0, copy.get(1));
+        assertEquals(0.5, vector.get(sortedIndices[0]));
+        assertEquals(100, copy.getEntryCount());
+
+        // converted to a dense array
+        var dense = vector.getVector();
+        assertEquals(1000, dense.length);
+        assertEquals(101.5, Arrays.stream(dense).sum());
+        assertEquals(1.0, dense[1]);
+        assertEquals(1000, vector.getEntryCount());
+        assertEquals(0.5, vector.getEntryValue(sortedIndices[0]));
+        // changes of the array change the vector
+        dense[2] = 4;
+        assertEquals(4.0, vector.get(2));
+        section.addFeature("dense", 2);
+        assertEquals(5.0, vector.get(2));
+        assertEquals(0.0, copy.get(2));
+    }
+
+    @Test
+    public void testCopyKeepsRecordedFeaturesApart() {
+        var vector = new FeatureVector(10, 1, 1);
+        vector.setFeatureVectorAnalysis(true);
+        var section = vector.getSection("test", 0, 10);
+        section.addFeature("a", 1);
+
+        var copy = vector.copy();
+        section.addFeature("b", 2);
+        assertEquals(2, vector.getFeatureList(section).size());
+        assertEquals(1, copy.getFeatureList(section).size());
+    }
+
+    @Test
+    public void testPackedBitsLayout() throws IOException {
+        // 13 is not a multiple of 8, the last byte is padded with zeros
+        var dense = new double[13];
+        var sparse = new FeatureVector(13, 1, 1);
+        var section = sparse.getSection("test", 0, 13);
+        for (int index : new int[]{0, 3, 7, 8, 12}) {
+            dense[index] = 1;
+            section.addFeature("feature " + index, index);
+        }
+        section.addFeature("feature 3", 3);
+
+        assertEquals(0, FeatureVector.getPackedLength(0));
+        assertEquals(2, FeatureVector.getPackedLength(13));
+        assertEquals(2, FeatureVector.getPackedLength(16));
+        assertEquals(3, FeatureVector.getPackedLength(17));
+
+        // least significant bit first, bit i % 8 of byte i / 8
+        var expected = new byte[]{(byte) 0b1000_1001, (byte) 0b0001_0001};
+        for (var vector : List.of(new FeatureVector(dense), sparse)) {
+            assertTrue(Arrays.equals(new long[]{1L | 1L << 3 | 1L << 7 | 1L << 8 | 1L << 12}, vector.getBits()));
+            assertTrue(Arrays.equals(expected, vector.toPackedBits()));
+        }
+
+        // the vectors are written one after another without separators
+        var output = Files.createTempFile("vectors", ".bin");
+        try {
+            getBinaryVectorFileWriterPipeline(output.toString())
+                    .executeIgnoreResults(List.of(new FeatureVector(dense), new FeatureVector(new double[13])));
+            assertTrue(Arrays.equals(new byte[]{expected[0], expected[1], 0, 0}, Files.readAllBytes(output)));
+        } finally {
+            Files.deleteIfExists(output);
+        }
+    }
+
+    @Test
+    public void testTfIdfWithSavedDocumentFrequencies() throws IOException {
+        var path = Files.createTempFile("frequencies", ".bin");
+        try {
+            var counter = new DocumentFrequencyCounter(path.toString());
+            counter.executeIgnoreResults(List.of(
+                    new FeatureVector(new double[]{2, 0, 1}),
+                    new FeatureVector(new double[]{1, 0, 0}),
+                    new FeatureVector(new double[]{0, 0, 3})));
+
+            var frequencies = DocumentFrequencies.load(path.toString());
+            assertEquals(3, frequencies.getNumberOfDocuments());
+            assertEquals(2, frequencies.getDocumentFrequency(0));
+            assertEquals(0, frequencies.getDocumentFrequency(1));
+
+            var query = new TfIdfTransformer(frequencies).process(new FeatureVector(new double[]{4, 1, 2}), 0);
+            assertEquals(Math.log(3 / 2.0), query.get(0), 1e-9);
+            assertEquals(0.0, query.get(1), 1e-9);
+            assertEquals(0.5 * Math.log(3 / 2.0), query.get(2), 1e-9);
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testShardsReadTheSameCodeChanges() throws IOException {
+        var changes = Files.createTempFile("changes", ".txt");
+        try {
+            var gson = new Gson();
+            var lines = IntStream.range(0, 10)
+                    .mapToObj(i -> gson.toJson(new CodeChange("a" + i + "\u00e4", "b" + i)))
+                    .collect(Collectors.toList());
+            Files.write(changes, lines);
+
+            var expected = new ArrayList<String>();
+            for (var codeChange : getCodeChangesFrom(changes.toString(), null, 0)) {
+                expected.add(codeChange.getRank() + codeChange.getFullChangeString());
+            }
+            assertEquals(10, expected.size());
+
+            var firstLines = new int[]{0, 3, 6, 10};
+            var offsets = getLineOffsets(changes.toString(), firstLines);
+            var actual = new ArrayList<String>();
+            for (int shard = 0; shard < 3; shard++) {
+                try (var shardLines = getLinesAt(changes.toString(), offsets[shard])) {
+                    for (var codeChange : getCodeChangesAt(shardLines, null,
+                            firstLines[shard], firstLines[shard], firstLines[shard + 1])) {
+                        actual.add(codeChange.getRank() + codeChange.getFullChangeString());
+                    }
+                }
+            }
+            assertEquals(expected, actual);
+        } finally {
+            Files.deleteIfExists(changes);
+        }
+    }
+
+    @Test
+    public void testCorpusStore() throws IOException {
+        var changes = Files.createTempFile("changes", ".txt");
+        var trees = Files.createTempFile("trees", ".txt");
+        var store = Files.createTempFile("changes", ".store");
+        try {
+            var gson = new Gson();
+            var lines = new ArrayList<String>();
+            var treeLines = new ArrayList<String>();
+            for (int i = 0; i < 5; i++) {
+                var codeChange = new CodeChange("x = " + i + " ;", "y = " + i + " ;");
+                lines.add(gson.toJson(codeChange));
+                treeLines.add(gson.toJson(SerializableTreeNode.fromTree(
+                        getAbstractTree(codeChange.toString(), JAVA).getParseTree(), JAVA)));
+            }
+            Files.write(changes, lines);
+            Files.write(trees, treeLines);
+
+            assertEquals(5, CorpusStore.write(changes.toString(), trees.toString(), store.toString(), 2));
+            try (var corpusStore = CorpusStore.open(store.toString())) {
+                assertEquals(5, corpusStore.count());
+                assertTrue(corpusStore.hasTrees());
+                assertEquals("x = 3 ; --> y = 3 ;", corpusStore.get(3).toString());
+
+                var codeChanges = corpusStore.get(new int[]{4, 0, 3, 1});
+                assertEquals(List.of("y = 4 ;", "y = 0 ;", "y = 3 ;", "y = 1 ;"), codeChanges.stream()
+                        .map(CodeChange::getCodeChangeNew)
+                        .collect(Collectors.toList()));
+                assertEquals(3, codeChanges.get(2).getId());
+                var tree = TreeFactory.getTreeFromCodeChange(codeChanges.get(0), JAVA);
+                var expectedTree = gson.fromJson(treeLines.get(4), SerializableTreeNode.class);
+                assertEquals(expectedTree.toStringTree(), tree.toStringTree());
+                assertSame(tree, tree.getChild(0).getParent());
+                assertNull(corpusStore.get(new int[]{2}, false).get(0).getEncodedParseTree());
+            }
+        } finally {
+            Files.deleteIfExists(changes);
+            Files.deleteIfExists(trees);
+            Files.deleteIfExists(store);
+        }
+    }
+
+    @Test
+    public void testEditScriptOfJavaChange() {
+        var tree = getAbstractTree("x = foo ( count ) ; --> x = foo ( counter ) ;", JAVA).getParseTree();
+        var editScript = new EditScriptCreator(tree, JAVA).calculateEditScript();
+
+        var updates = editScript.stream()
+                .filter(operation -> operation.getType() == EditScriptOperation.Type.UPDATE)
+                .map(operation -> operation.getOldNode().getNodeLabel() + " " + operation.getNewNode().getNodeLabel())
+                .collect(Collectors.toList());
+        assertEquals(List.of("count counter"), updates);
+        assertTrue(editScript.stream().noneMatch(operation ->
+                operation.getType() == EditScriptOperation.Type.INSERT
+                || operation.getType() == EditScriptOperation.Type.DELETE));
+    }
+
+    @Test
+    public void testFeatureIndexIsSeededMurmur3() {
+        int seed = Config.featureHashSeed;
+        try {
+            for (int featureSeed : new int[]{0, 42}) {
+                Config.featureHashSeed = featureSeed;
+                for (var feature : List.of("expression identifier", "statement", "x = 1 ;")) {
+                    int expected = Integer.remainderUnsigned(
+                            Hashing.murmur3_32(featureSeed).hashInt(feature.hashCode()).asInt(), 250);
+                    assertEquals(expected, FeatureHash.indexOf(feature.hashCode(), 250));
+                }
+            }
+        } finally {
+            Config.featureHashSeed = seed;
+        }
+    }
+
+    @Test
+    public void testFeatureHashEqualsStringHashCode() {
+        var labels = List.of("", "expression", "identifier", "x = 1 ;", "größer", "日本語", "a\uD83D\uDE00b");
+        for (var first : labels) {
+            assertEquals(first, first.hashCode(), FeatureHash.append(0, first));
+            for (var second : labels) {
+                assertEquals(first + ' ' + second, (first + ' ' + second).hashCode(),
+                        FeatureHash.of(first, ' ', second));
+                // appended label by label, like the triangle features
+                int hash = FeatureHash.append(FeatureHash.append(FeatureHash.append(first.hashCode(), second), ' '),
+                        first);
+                assertEquals((first + second + ' ' + first).hashCode(), hash);
+            }
+        }
+    }
+
+    @Test
+    public void testFeatureIndexIsInSection() {
+        int seed = Config.featureHashSeed;
+        try {
+            var random = new Random(0);
+            for (int featureSeed : new int[]{0, 42, -1}) {
+                Config.featureHashSeed = featureSeed;
+                for (int length : new int[]{1, 7, 250, Integer.MAX_VALUE}) {
+                    for (int hash : new int[]{0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, random.nextInt()}) {
+                        int index = FeatureHash.indexOf(hash, length);
+                        assertTrue(index >= 0 && index < length);
+                    }
+                }
+            }
+        } finally {
+            Config.featureHashSeed = seed;
+        }
+    }
+
+    @Test
+    public void testGrammarTableMatchesRuleNamePredicates() {
+        for (var language : ProgrammingLanguage.values()) {
+            var table = language.getGrammarTable();
+            var ruleNames = language.getRuleNames();
+            assertEquals(ruleNames.size(), table.getRuleCount());
+
+            for (int rule = 0; rule < ruleNames.size(); rule++) {
+                // the checks of the parent text and the node text before the grammar tables
+                var text = ruleNames.get(rule);
+                assertEquals(text, ruleNames.indexOf(text), table.getRuleIndex(text));
+                assertEquals(text, text.equals("literal") || text.equals("atom"),
+                        table.hasFlag(rule, GrammarTable.LITERAL_PARENT));
+                assertEquals(text, text.equals("binary_operators") || text.equals("binOperator")
+                                   || text.equals("bin_op"),
+                        table.hasFlag(rule, GrammarTable.BINARY_OPERATOR_PARENT));
+                assertEquals(text, text.equals("binary_operators") || text.equals("assign_operators")
+                                   || text.equals("assignmentOperator") || text.equals("expr_stmt"),
+                        table.hasFlag(rule, GrammarTable.OPERATOR_PARENT));
+                assertEquals(text, text.equals("unary_prefix_operators") || text.equals("unary_postfix_operators")
+                                   || text.equals("singleExpression"),
+                        table.hasFlag(rule, GrammarTable.UNARY_OPERATOR_PARENT));
+                assertEquals(text, text.equals("expression") || text.equals("expr"),
+                        table.hasFlag(rule, GrammarTable.EXPRESSION));
+                assertEquals(text, text.equals("expression") || text.equals("expr") || text.equals("methodCall")
+                                   || text.equals("singleExpression"),
+                        table.hasFlag(rule, GrammarTable.EXPRESSION_PARENT));
+
+                String placeholder = null;
+                if (text.contains("iteral") || text.equals("atom")) {
+                    placeholder = "LT";
+                } else if (text.equals("identifier")) {
+                    placeholder = "ID";
+                } else if (text.equals("binary_operators") || text.equals("binOperator") || text.equals("bin_op")) {
+                    placeholder = "binOP";
+                } else if (text.equals("assign_operators") || text.equals("assignmentOperator")
+                           || text.equals("expr_stmt")) {
+                    placeholder = "OP";
+                } else if (text.equals("unary_prefix_operators") || text.equals("unary_postfix_operators")) {
+                    placeholder = "unOP";
+                }
+                var leafPlaceholder = table.getLeafPlaceholder(rule);
+                assertEquals(text, placeholder, leafPlaceholder == null ? null : leafPlaceholder.getLabel());
+            }
+            assertEquals(-1, table.getRuleIndex("no rule"));
+            assertEquals(0, table.getFlags(-1));
+            assertNull(table.getLeafPlaceholder(-1));
+
+            // every token of the grammar and the placeholders of queries
+            var vocabulary = language.getParser("a --> b").getVocabulary();
+            var texts = new ArrayList<>(List.of("LT", "LT<0>", "ID<12>", "binOP<3>", "OP", "unOP<1>", "EXPR<0>",
+                    "LT<>", "ID<a>", "EXPR<1", "OP1", "lt", "EXPRESSION"));
+            for (int token = 0; token <= vocabulary.getMaxTokenType(); token++) {
+                texts.add(vocabulary.getDisplayName(token));
+            }
+            for (var text : texts) {
+                String expected = null;
+                for (var label : List.of("LT", "ID", "binOP", "OP", "unOP", "EXPR")) {
+                    if (text.equals(label) || text.matches(label + "<[0-9]+>")) {
+                        expected = label;
+                    }
+                }
+                var placeholder = GrammarTable.Placeholder.parse(text);
+                assertEquals(text, expected, placeholder == null ? null : placeholder.getLabel());
+            }
+        }
+    }
+
+    @Test
+    public void testTreeArena() {
+        var change = "if (a > 0) { b = foo(a, 1); } --> if (a > 1) { b = foo(a, 2); }";
+        var tree = SerializableTreeNode.fromTree(getAbstractTree(change, JAVA).getParseTree(), JAVA);
+        var codec = new TreeCodec();
+        var arena = codec.decodeArena(codec.encode(tree), JAVA);
+        var root = arena.getRoot();
+
+        assertEquals(tree.toStringTree(), root.toStringTree());
+        assertEquals(TreeUtils.getCompleteNodeText(tree, JAVA.getRuleNames()),
+                TreeUtils.getCompleteNodeText(root, JAVA.getRuleNames()));
+        assertNull(root.getParent());
+        // the views are reused
+        assertSame(root.getChild(0), root.getChild(0));
+        assertSame(root, root.getChild(0).getParent());
+
+        // the matching finds the same results as on the nodes
+        for (var query : List.of("foo(<EXPR>, 1); --> foo(<EXPR>, 2);", "a > 0 --> a > 1", "b = c; --> b = d;")) {
+            var matching = QueryCache.getCompiledQuery(query, JAVA).getMatching();
+            assertEquals(query, matching.isMatch(tree, JAVA.getParser(change)),
+                    matching.isMatch(root, JAVA.getParser(change)));
+        }
+        assertTrue(QueryCache.getCompiledQuery("foo(<EXPR>, 1); --> foo(<EXPR>, 2);", JAVA).getMatching()
+                .isMatch(root, JAVA.getParser(change)));
+    }
+
+    @Test
+    public void testChangeDeduplication() throws IOException {
+        var directory = Files.createTempDirectory("patches");
+        try {
+            var patch = "commit %s\n"
+                        + "--- a/src/Main.java\n"
+                        + "+++ b/src/Main.java\n"
+                        + "@@ -%d,3 +%d,3 @@\n"
+                        + " int a = 0;\n"
+                        + "-foo(a, 1);\n"
+                        + "+foo(a,  2);\n"
+                        + " return a;\n";
+            Files.writeString(directory.resolve("project.patch"), String.format(patch, "c1", 10, 10));
+            // a fork with the same code change, only the whitespace differs
+            Files.writeString(directory.resolve("fork.patch"),
+                    String.format(patch, "c2", 20, 20).replace("foo(a,  2)", "foo(a, 2)"));
+
+            var deduplicator = new ChangeDeduplicator();
+            new ChangeExtractor(directory.toFile(), JAVA, deduplicator)
+                    .extractCodeChangesToFile(directory.resolve("project.patch").toFile());
+            new ChangeExtractor(directory.toFile(), JAVA, deduplicator)
+                    .extractCodeChangesToFile(directory.resolve("fork.patch").toFile());
+
+            assertEquals(1, Files.readAllLines(directory.resolve("project.patch.cc")).size());
+            assertEquals(0, Files.readAllLines(directory.resolve("fork.patch.cc")).size());
+            var key = Files.readAllLines(directory.resolve("project.patch.cckey")).get(0);
+            var duplicates = deduplicator.getDuplicates(HashCode.fromString(key));
+            assertEquals(1, duplicates.size());
+            assertEquals("c2", duplicates.get(0).commit);
+            assertEquals("fork", duplicates.get(0).projectName);
+        } finally {
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+
+    @Test
+    public void testChangeDeduplicationRetriesUnparsedCopies() throws IOException {
+        var directory = Files.createTempDirectory("patches");
+        try {
+            var patch = "commit %s\n"
+                        + "--- a/src/Main.java\n"
+                        + "+++ b/src/Main.java\n"
+                        + "@@ -10,3 +10,3 @@\n"
+                        + " %s\n"
+                        + "-&& c) {\n"
+                        + "+&& d) {\n"
+                        + " return a;\n";
+            // only parsed with the line before it
+            Files.writeString(directory.resolve("project.patch"), String.format(patch, "c1", "int x = 0;"));
+            Files.writeString(directory.resolve("fork.patch"), String.format(patch, "c2", "if (a"));
+
+            var deduplicator = new ChangeDeduplicator();
+            new ChangeExtractor(directory.toFile(), JAVA, deduplicator)
+                    .extractCodeChangesToFile(directory.resolve("project.patch").toFile());
+            new ChangeExtractor(directory.toFile(), JAVA, deduplicator)
+                    .extractCodeChangesToFile(directory.resolve("fork.patch").toFile());
+
+            assertEquals(0, Files.readAllLines(directory.resolve("project.patch.cc")).size());
+            assertEquals(1, Files.readAllLines(directory.resolve("fork.patch.cc")).size());
+            var key = Files.readAllLines(directory.resolve("fork.patch.cckey")).get(0);
+            // the copy that could not be parsed is kept on disk until the extraction is finished
+            assertTrue(deduplicator.getDuplicates(HashCode.fromString(key)).isEmpty());
+            deduplicator.addFailedOccurrences(directory.resolve("project.patch.ccfailed").toString());
+            deduplicator.addFailedOccurrences(directory.resolve("fork.patch.ccfailed").toString());
+            // and then becomes an occurrence of the stored one
+            var duplicates = deduplicator.getDuplicates(HashCode.fromString(key));
+            assertEquals(1, duplicates.size());
+            assertEquals("c1", duplicates.get(0).commit);
+            assertEquals(1, deduplicator.size());
+        } finally {
+            FileUtils.deleteDirectory(directory.toFile());
+        }
+    }
+
+    @Test
+    public void testChangeOccurrencesExpandResults() throws IOException {
+        var path = Files.createTempFile("occurrences", ".txt");
+        try {
+            var fork = ChangeOccurrence.of(new CodeChange("a", "b").setProjectName("fork").setCommit("c2"));
+            Files.writeString(path, "{\"i\":3,\"o\":" + new Gson().toJson(List.of(fork)) + "}\n");
+
+            var first = new CodeChange("x = 1 ;", "x = 2 ;").setProjectName("project").setCommit("c1").setRank(1);
+            var second = new CodeChange("y = 1 ;", "y = 2 ;").setProjectName("other").setRank(2);
+            var results = ChangeOccurrences.read(path.toString()).expand(List.of(first, second), new int[]{3, 5});
+
+            assertEquals(3, results.size());
+            assertSame(first, results.get(0));
+            assertEquals("fork", results.get(1).getProjectName());
+            assertEquals("c2", results.get(1).getCommit());
+            assertEquals(first.getCodeChangeNew(), results.get(1).getCodeChangeNew());
+            assertEquals(1, results.get(1).getRank());
+            assertSame(second, results.get(2));
+
+            // the occurrences count towards the limit
+            var limited = ChangeOccurrences.read(path.toString())
+                    .expand(List.of(first, second), new int[]{3, 5}, 2);
+            assertEquals(2, limited.size());
+            assertSame(first, limited.get(0));
+            assertEquals("fork", limited.get(1).getProjectName());
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void testFusedTraversalExtractsTheSameFeatures() {
+        var definitions = List.of("node", "parentchild", "sibling", "triangle");
+        var changes = List.of(
+                "if (a > 0) { b = foo(a, 1); } --> if (a > 1) { b = foo(a, 2); }",
+                "list.add(new Item(b, \"x\")); --> list.add(new Item(b, \"y\"));",
+                "return x; --> return y == null ? x : y;");
+        for (boolean divided : new boolean[]{false, true}) {
+            var pipeline = new FeatureExtractionPipeline<Tree>((byte) 1, 1, false);
+            for (var definition : definitions) {
+                pipeline.addFeatureExtractor(FeatureExtractor.byDefinition(definition, 500, JAVA, divided));
+            }
+
+            for (var change : changes) {
+                var fused = pipeline.extractFeatures(getAbstractTree(change, JAVA).getParseTree());
+
+                // the features of the recursive extractors before the fused traversal
+                var tree = getAbstractTree(change, JAVA).getParseTree();
+                var expected = new FeatureVector(pipeline.getTotalFeatureVectorLength(), 1, 1);
+                int startPosition = 0;
+                for (int i = 0; i < definitions.size(); i++) {
+                    var extractor = pipeline.getFeatureExtractors().get(i);
+                    int length = extractor.getFeatureVectorSectionLength();
+                    var section = expected.getSection(extractor.getName(), startPosition, length);
+                    if (divided && tree.getChildCount() >= 3) {
+                        var dividedExtractor = (DividedFeatureExtractor) extractor;
+                        var oldSection = section.getSubsection(extractor.getName() + " [old]", 0, length / 2);
+                        for (var root : dividedExtractor.getRootsOfOldPart(tree)) {
+                            addReferenceFeatures(definitions.get(i), root, oldSection);
+                        }
+                        var newSection = section.getSubsection(extractor.getName() + " [new]", length / 2,
+                                length / 2);
+                        for (var root : dividedExtractor.getRootsOfNewPart(tree)) {
+                            addReferenceFeatures(definitions.get(i), root, newSection);
+                        }
+                    } else {
+                        addReferenceFeatures(definitions.get(i), tree, section);
+                    }
+                    startPosition += length;
+                }
+
+                assertTrue(change, Arrays.equals(expected.getVector(), fused.getVector()));
+                assertTrue(change, Arrays.stream(fused.getVector()).anyMatch(value -> value != 0));
+            }
+        }
+    }
+
+    /**
+     * Recursive reference of the node, parent-child, sibling and triangle extractors of a code change,
+     * building each feature string.
+     */
+    private static void addReferenceFeatures(String definition, Tree tree, FeatureVector.Section section) {
+        var ruleNames = JAVA.getRuleNames();
+        var nodeText = Trees.getNodeText(tree, ruleNames);
+        var childTexts = new ArrayList<String>();
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            childTexts.add(Trees.getNodeText(tree.getChild(i), ruleNames));
+        }
+
+        switch (definition) {
+            case "node":
+                section.addFeature(nodeText);
+                break;
+            case "parentchild":
+                for (var childText : childTexts) {
+                    if (!nodeText.equals("querySnippet") && !childText.equals("querySnippet")) {
+                        section.addFeature(nodeText + ' ' + childText);
+                    }
+                }
+                break;
+            case "sibling":
+                for (int i = 0; i < childTexts.size() - 1; i++) {
+                    for (int j = i + 1; j < childTexts.size(); j++) {
+                        section.addFeature(childTexts.get(i) + ' ' + childTexts.get(j));
+                    }
+                }
+                break;
+            case "triangle":
+                var triangle = new StringBuilder(nodeText);
+                childTexts.forEach(childText -> triangle.append(childText).append(' '));
+                if (!triangle.toString().isBlank() && !childTexts.isEmpty()) {
+                    section.addFeature(triangle.toString());
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(definition);
+        }
+
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (!definition.equals("triangle") || !childTexts.get(i).contains("literal")) {
+                addReferenceFeatures(definition, tree.getChild(i), section);
+            }
+        }
+    }
 }
@@ -0,0 +1,324 @@
+package research.diffsearch;
+
+import junit.framework.TestCase;
+import org.junit.jupiter.api.Test;
+import research.diffsearch.pipeline.MatchingPipeline;
+import research.diffsearch.pipeline.QueryCache;
+import research.diffsearch.pipeline.base.CancellationToken;
+import research.diffsearch.pipeline.base.CodeChange;
+import research.diffsearch.pipeline.base.DiffsearchResult;
+import research.diffsearch.pipeline.base.Pipeline;
+import research.diffsearch.pipeline.base.PipelineMetrics;
+import research.diffsearch.pipeline.base.PipelineRuntime;
+import research.diffsearch.pipeline.base.RingBufferSequencer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static research.diffsearch.util.ProgrammingLanguage.JAVA;
+
+public class PipelineTest extends TestCase {
+
+    private static final int SIZE = 2000;
+
+    private static List<Integer> getInputs() {
+        return IntStream.range(0, SIZE).boxed().collect(Collectors.toList());
+    }
+
+    private static void sleep(int millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Test
+    public void testParallelPipelineKeepsOrder() {
+        var results = Pipeline.<Integer, Integer>from(i -> {
+                    sleep(i % 3);
+                    return i * 2;
+                })
+                .parallelUntilHere(4)
+                .execute(getInputs());
+
+        assertEquals(getInputs().stream().map(i -> i * 2).collect(Collectors.toList()), results);
+    }
+
+    @Test
+    public void testParallelPipelineBlocksProducer() {
+        var produced = new AtomicInteger();
+        var consumed = new AtomicInteger();
+        var maxDifference = new AtomicInteger();
+
+        Iterable<Integer> inputs = () -> new Iterator<>() {
+            final Iterator<Integer> base = getInputs().iterator();
+
+            @Override
+            public boolean hasNext() {
+                return base.hasNext();
+            }
+
+            @Override
+            public Integer next() {
+                int difference = produced.incrementAndGet() - consumed.get();
+                maxDifference.accumulateAndGet(difference, Math::max);
+                return base.next();
+            }
+        };
+
+        Pipeline.<Integer, Integer>from(i -> i)
+                .parallelUntilHere(4, 16)
+                .peek(i -> consumed.incrementAndGet())
+                .executeIgnoreResults(inputs, SIZE);
+
+        assertEquals(SIZE, consumed.get());
+        // one additional input may be read while the producer waits for a permit
+        assertTrue("Producer ran ahead by " + maxDifference.get(), maxDifference.get() <= 17);
+    }
+
+    @Test
+    public void testSequencerOrdersOutOfWindowResults() {
+        var sequencer = new RingBufferSequencer<Integer>(8);
+        var results = new ArrayList<Integer>();
+        var inputs = getInputs();
+        Collections.shuffle(inputs, new Random(42));
+
+        // shuffled indices are mostly outside of the ring buffer window
+        inputs.parallelStream().forEach(i -> sequencer.publish(i * 2, i, (result, index) -> {
+            assertEquals(index * 2, (int) result);
+            results.add(result);
+        }));
+
+        assertEquals(SIZE, sequencer.getNextIndex());
+        assertEquals(getInputs().stream().map(i -> i * 2).collect(Collectors.toList()), results);
+    }
+
+    @Test
+    public void testUnorderedParallelDoesNotWaitForSlowInput() {
+        var results = Pipeline.<Integer, Integer>from(i -> {
+                    if (i == 0) {
+                        sleep(300);
+                    }
+                    return i;
+                })
+                .unorderedParallel(4)
+                .execute(getInputs());
+
+        assertEquals(SIZE, results.size());
+        assertEquals(0, (int) results.get(results.size() - 1));
+        assertEquals(getInputs(), results.stream().sorted().collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testRuntimeCanBeUsedAfterShutdown() {
+        var pipeline = Pipeline.<Integer, Integer>from(i -> i + 1);
+
+        assertEquals(List.of(2, 3), pipeline.parallelUntilHere(2).execute(List.of(1, 2)));
+        PipelineRuntime.shutdown();
+        assertEquals(List.of(2, 3), pipeline.parallelUntilHere(2).execute(List.of(1, 2)));
+    }
+
+    @Test
+    public void testTimeoutCancelsProcessing() {
+        var stopped = new AtomicBoolean(false);
+
+        var results = Pipeline.<Integer, Integer>from(i -> {
+                    if (i == 0) {
+                        var cancellationToken = CancellationToken.current();
+                        while (!cancellationToken.isCancelled()) {
+                            sleep(5);
+                        }
+                        stopped.set(true);
+                    }
+                    return i;
+                })
+                .withTimeout(300, TimeUnit.MILLISECONDS, -1)
+                .parallelUntilHere(2)
+                .execute(List.of(0, 1, 2));
+
+        assertEquals(List.of(-1, 1, 2), results);
+        sleep(100);
+        assertTrue(stopped.get());
+    }
+
+    @Test
+    public void testParallelVirtualLimitsConcurrency() {
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var inputs = getInputs().subList(0, 200);
+
+        var results = Pipeline.<Integer, Integer>from(i -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    sleep(2);
+                    running.decrementAndGet();
+                    return i;
+                })
+                .parallelVirtual(8)
+                .execute(inputs);
+
+        assertEquals(inputs, results);
+        assertTrue("Ran " + maxRunning.get() + " inputs at once", maxRunning.get() <= 8);
+    }
+
+    @Test
+    public void testBatchedProcessesChunks() {
+        var batchSizes = new ArrayList<Integer>();
+
+        var results = Pipeline.<Integer, Integer>from(i -> i)
+                .parallelUntilHere(4)
+                .filter(i -> i % 2 == 0)
+                .connect(new Pipeline<Integer, Integer>() {
+                    @Override
+                    public Integer process(Integer input, int index) {
+                        throw new IllegalStateException();
+                    }
+
+                    @Override
+                    public List<Integer> processBatch(List<Integer> inputs, int startIndex) {
+                        batchSizes.add(inputs.size());
+                        return inputs.stream().map(i -> i == null ? null : i * 2).collect(Collectors.toList());
+                    }
+                }.batched(300))
+                .execute(getInputs());
+
+        assertEquals(getInputs().stream().filter(i -> i % 2 == 0).map(i -> i * 2).collect(Collectors.toList()),
+                results);
+        // the last batch is processed as soon as the last input arrived
+        assertEquals(List.of(300, 300, 300, 300, 300, 300, 200), batchSizes);
+    }
+
+    @Test
+    public void testMetricsAreRecordedPerStage() {
+        PipelineMetrics.setEnabled(true);
+        try {
+            Pipeline.<Integer, Integer>from(i -> i * 2)
+                    .named("double")
+                    .connect(Pipeline.<Integer, Integer>from(i -> i + 1).named("increment"))
+                    .parallelUntilHere(4)
+                    .executeIgnoreResults(getInputs());
+
+            var stages = PipelineMetrics.getStages();
+            var doubleStage = PipelineMetrics.getStage("double");
+            var parallelStage = PipelineMetrics.getStage("parallel(double -> increment)");
+
+            assertTrue(stages.contains(doubleStage));
+            assertEquals(SIZE, doubleStage.getInvocations());
+            assertEquals(SIZE, doubleStage.getLatencies().getCount());
+            assertEquals(0, doubleStage.getInFlight());
+            assertEquals(SIZE, parallelStage.getInvocations());
+            assertEquals(0, parallelStage.getReorderDepth());
+        } finally {
+            PipelineMetrics.setEnabled(false);
+            PipelineMetrics.reset();
+        }
+    }
+
+    @Test
+    public void testLambdaStagesHaveOwnMetrics() {
+        PipelineMetrics.setEnabled(true);
+        try {
+            Pipeline<Integer, Integer> doubling = Pipeline.from(i -> i * 2);
+            Pipeline<Integer, Integer> filter = Pipeline.getFilter(i -> i % 4 == 0);
+            Pipeline<Integer, Integer> increment = Pipeline.from(Math::incrementExact);
+
+            assertTrue(doubling.getName().startsWith("PipelineTest lambda@"));
+            assertTrue(filter.getName().startsWith("PipelineTest lambda@"));
+            assertFalse(doubling.getName().equals(filter.getName()));
+            assertFalse(doubling.getName().equals(increment.getName()));
+            // the name is stable, the metrics are looked up by it more than once
+            assertEquals(doubling.getName(), doubling.getName());
+
+            doubling.connect(filter).connect(increment).executeIgnoreResults(getInputs());
+
+            assertEquals(SIZE, PipelineMetrics.getStage(doubling.getName()).getInvocations());
+            assertEquals(SIZE, PipelineMetrics.getStage(filter.getName()).getInvocations());
+            assertEquals(SIZE / 2, PipelineMetrics.getStage(increment.getName()).getInvocations());
+        } finally {
+            PipelineMetrics.setEnabled(false);
+            PipelineMetrics.reset();
+        }
+    }
+
+    @Test
+    public void testStopTokenSkipsRemainingInputs() {
+        var processedInputs = new AtomicInteger(0);
+        var stopToken = CancellationToken.when(() -> processedInputs.get() >= 100);
+
+        var results = Pipeline.<Integer, Integer>from(i -> {
+                    if (i != null) {
+                        processedInputs.incrementAndGet();
+                    }
+                    return i;
+                })
+                .parallelUntilHere(4)
+                .execute(getInputs(), stopToken);
+
+        // only the inputs read before the token was cancelled are processed
+        assertTrue(results.size() < SIZE);
+        assertEquals(processedInputs.get(), results.size());
+    }
+
+    @Test
+    public void testMatchingStopsAfterTheBestRankedResults() {
+        int threadCount = Config.threadCount;
+        Config.threadCount = 4;
+        try {
+            var candidates = new ArrayList<CodeChange>();
+            candidates.add(new CodeChange("foo(a, 1);", "foo(a, 2);"));
+            candidates.add(new CodeChange("bar(a, 1);", "bar(a, 2);"));
+            candidates.add(new CodeChange("foo(b, 1);", "foo(b, 2);"));
+            // slow matches ranked after the two best results
+            var checkedLaterCandidates = Collections.newSetFromMap(new ConcurrentHashMap<CodeChange, Boolean>());
+            for (int i = 0; i < SIZE; i++) {
+                candidates.add(new CodeChange("foo(c" + i + ", 1);", "foo(c" + i + ", 2);") {
+                    @Override
+                    public String getFullChangeString() {
+                        if (checkedLaterCandidates.add(this)) {
+                            sleep(20);
+                        }
+                        return super.getFullChangeString();
+                    }
+                });
+            }
+
+            var results = new MatchingPipeline(JAVA, 2)
+                    .execute(List.of(new DiffsearchResult("foo(<EXPR>, 1); --> foo(<EXPR>, 2);", candidates)))
+                    .get(0)
+                    .getResults();
+
+            // the best ranked matches in the order of their rank
+            assertEquals(List.of("foo(a, 1);", "foo(b, 1);"), results.stream()
+                    .map(CodeChange::getCodeChangeOld)
+                    .collect(Collectors.toList()));
+            // the remaining candidates are cancelled instead of matched
+            assertTrue(checkedLaterCandidates.size() < SIZE / 10);
+        } finally {
+            Config.threadCount = threadCount;
+        }
+    }
+
+    @Test
+    public void testQueryCacheCompilesEachQueryOnce() {
+        var cache = new QueryCache(2);
+        var query = cache.get("x = 1;\r\n --> x = 2;", JAVA);
+        assertSame(query, cache.get("x = 1;\n --> x = 2;", JAVA));
+        assertSame(query.getMatching(), query.getMatching());
+        assertNotSame(query.getFeatureVector(), query.getFeatureVector());
+
+        cache.get("a(); --> b();", JAVA);
+        cache.get("return a; --> return b;", JAVA);
+        // the least recently used query is evicted
+        assertEquals(2, cache.size());
+        assertNotSame(query, cache.get("x = 1;\n --> x = 2;", JAVA));
+    }
+}